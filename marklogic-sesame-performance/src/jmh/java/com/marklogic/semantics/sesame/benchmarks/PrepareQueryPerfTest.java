@@ -0,0 +1,97 @@
+package com.marklogic.semantics.sesame.benchmarks;
+
+import com.marklogic.semantics.sesame.MarkLogicRepository;
+import com.marklogic.semantics.sesame.MarkLogicRepositoryConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openrdf.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * prepareQuery throughput with and without the query form cache, prepared
+ * queries are never evaluated
+ *
+ * Cycles through a few hundred distinct queries with prologs, as a service
+ * preparing the same queries repeatedly would. A cacheSize of 0 disables the
+ * cache, hit and miss counts are logged at the end of each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PrepareQueryPerfTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PrepareQueryPerfTest.class);
+
+    private static final int QUERIES = 300;
+
+    private static final String PROLOG = "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>\n"
+            + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>\n"
+            + "PREFIX foaf: <http://xmlns.com/foaf/0.1/>\n"
+            + "# lookup used by the people service\n";
+
+    @Param({"0", "1000"})
+    public int cacheSize;
+
+    private MarkLogicRepository rep;
+    private MarkLogicRepositoryConnection conn;
+    private String[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Properties props = new Properties();
+        try {
+            props.load(new FileInputStream("gradle.properties"));
+        } catch (IOException e) {
+            System.err.println("problem loading properties file.");
+            System.exit(1);
+        }
+        rep = new MarkLogicRepository(props.getProperty("mlHost"), Integer.parseInt(props.getProperty("mlRestPort")),
+                props.getProperty("mlUsername"), props.getProperty("mlPassword"), "DIGEST");
+        rep.setQueryFormCacheSize(cacheSize);
+        rep.initialize();
+        conn = rep.getConnection();
+
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            switch (i % 3) {
+                case 0:
+                    queries[i] = PROLOG + "SELECT ?s ?name WHERE { ?s foaf:name ?name ; foaf:age " + i + " }";
+                    break;
+                case 1:
+                    queries[i] = PROLOG + "ASK { ?s rdf:type foaf:Person ; foaf:age " + i + " }";
+                    break;
+                default:
+                    queries[i] = PROLOG + "CONSTRUCT { ?s rdfs:label ?name } WHERE { ?s foaf:name ?name ; foaf:age " + i + " }";
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        logger.info("cacheSize {}: {}", cacheSize, rep.getQueryFormCache());
+        conn.close();
+        rep.shutDown();
+    }
+
+    @Benchmark
+    public Query prepareQuery() throws Exception {
+        String query = queries[next];
+        next = (next + 1) % QUERIES;
+        return conn.prepareQuery(query);
+    }
+}
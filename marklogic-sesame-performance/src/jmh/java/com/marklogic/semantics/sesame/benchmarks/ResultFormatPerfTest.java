@@ -0,0 +1,273 @@
+package com.marklogic.semantics.sesame.benchmarks;
+
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.DatabaseClientFactory;
+import com.marklogic.client.io.BytesHandle;
+import com.marklogic.client.semantics.SPARQLQueryManager;
+import com.marklogic.semantics.sesame.MarkLogicRepository;
+import com.marklogic.semantics.sesame.MarkLogicRepositoryConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.TupleQueryResultHandlerException;
+import org.openrdf.query.resultio.QueryResultIO;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+import org.openrdf.query.resultio.TupleQueryResultParser;
+import org.openrdf.query.resultio.helpers.QueryResultCollector;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * measures parse throughput and bytes per row of each SPARQL result format
+ *
+ * Each state fetches the result once in its format and logs its bytes per row,
+ * the benchmarks then parse the cached bytes so the network does not skew
+ * the comparison. Narrow results have two columns, wide results twelve.
+ */
+public class ResultFormatPerfTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultFormatPerfTest.class);
+
+    private static final String NS = "http://example.org/perf/";
+    private static final String GRAPH = "http://marklogic.com/test/formats";
+    private static final int SUBJECTS = 5000;
+    private static final int PREDICATES = 11;
+
+    @State(Scope.Benchmark)
+    public static class TupleFormat {
+
+        @Param({"JSON", "XML", "TSV", "CSV"})
+        public String format;
+
+        @Param({"narrow", "wide"})
+        public String width;
+
+        TupleQueryResultFormat resultFormat;
+        byte[] body;
+
+        private MarkLogicRepository rep;
+
+        @Setup
+        public void setUp() throws Exception {
+            rep = load();
+            resultFormat = tupleFormat(format);
+
+            StringBuilder select = new StringBuilder("select ?s ?o0");
+            StringBuilder where = new StringBuilder(" { graph <" + GRAPH + "> { ?s <" + NS + "p0> ?o0");
+            int columns = "wide".equals(width) ? PREDICATES : 1;
+            for (int i = 1; i < columns; i++) {
+                select.append(" ?o").append(i);
+                where.append(" . ?s <").append(NS).append("p").append(i).append("> ?o").append(i);
+            }
+            String queryString = select.append(where).append(" } }").toString();
+
+            DatabaseClient client = connect();
+            try {
+                SPARQLQueryManager sparqlManager = client.newSPARQLQueryManager();
+                BytesHandle handle = new BytesHandle().withMimetype(resultFormat.getDefaultMIMEType());
+                sparqlManager.executeSelect(sparqlManager.newQueryDefinition(queryString), handle);
+                body = handle.get();
+            } finally {
+                client.release();
+            }
+
+            QueryResultCollector collector = new QueryResultCollector();
+            TupleQueryResultParser parser = QueryResultIO.createParser(resultFormat);
+            parser.setQueryResultHandler(collector);
+            parser.parse(new ByteArrayInputStream(body));
+            int rows = collector.getBindingSets().size();
+            logger.info("{} {} results: {} rows, {} bytes, {} bytes per row", format, width, rows, body.length, rows == 0 ? 0 : body.length / rows);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            clear(rep);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class GraphFormat {
+
+        @Param({"NTRIPLES", "TURTLE", "RDFXML", "RDFJSON"})
+        public String format;
+
+        RDFFormat resultFormat;
+        byte[] body;
+
+        private MarkLogicRepository rep;
+
+        @Setup
+        public void setUp() throws Exception {
+            rep = load();
+            resultFormat = graphFormat(format);
+            String queryString = "construct { ?s ?p ?o } where { graph <" + GRAPH + "> { ?s ?p ?o } }";
+
+            DatabaseClient client = connect();
+            try {
+                SPARQLQueryManager sparqlManager = client.newSPARQLQueryManager();
+                BytesHandle handle = new BytesHandle().withMimetype(resultFormat.getDefaultMIMEType());
+                sparqlManager.executeConstruct(sparqlManager.newQueryDefinition(queryString), handle);
+                body = handle.get();
+            } finally {
+                client.release();
+            }
+
+            final long[] rows = new long[1];
+            RDFParser parser = Rio.createParser(resultFormat);
+            parser.setRDFHandler(new RDFHandlerBase() {
+                @Override
+                public void handleStatement(Statement st) {
+                    rows[0]++;
+                }
+            });
+            parser.parse(new ByteArrayInputStream(body), "");
+            logger.info("{} results: {} statements, {} bytes, {} bytes per statement", format, rows[0], body.length, rows[0] == 0 ? 0 : body.length / rows[0]);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            clear(rep);
+        }
+    }
+
+    @Benchmark
+    public void perfParseTupleResult(TupleFormat state, final Blackhole bh)
+            throws Exception {
+        TupleQueryResultParser parser = QueryResultIO.createParser(state.resultFormat);
+        parser.setQueryResultHandler(new QueryResultCollector() {
+            @Override
+            public void handleSolution(BindingSet bindingSet) throws TupleQueryResultHandlerException {
+                bh.consume(bindingSet);
+            }
+        });
+        parser.parse(new ByteArrayInputStream(state.body));
+    }
+
+    @Benchmark
+    public void perfParseGraphResult(GraphFormat state, final Blackhole bh)
+            throws Exception {
+        RDFParser parser = Rio.createParser(state.resultFormat);
+        parser.setRDFHandler(new RDFHandlerBase() {
+            @Override
+            public void handleStatement(Statement st) throws RDFHandlerException {
+                bh.consume(st);
+            }
+        });
+        parser.parse(new ByteArrayInputStream(state.body), "");
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static TupleQueryResultFormat tupleFormat(String name) {
+        switch (name) {
+            case "XML":
+                return TupleQueryResultFormat.SPARQL;
+            case "TSV":
+                return TupleQueryResultFormat.TSV;
+            case "CSV":
+                return TupleQueryResultFormat.CSV;
+            default:
+                return TupleQueryResultFormat.JSON;
+        }
+    }
+
+    private static RDFFormat graphFormat(String name) {
+        switch (name) {
+            case "TURTLE":
+                return RDFFormat.TURTLE;
+            case "RDFXML":
+                return RDFFormat.RDFXML;
+            case "RDFJSON":
+                return RDFFormat.RDFJSON;
+            default:
+                return RDFFormat.NTRIPLES;
+        }
+    }
+
+    private static Properties properties() {
+        Properties props = new Properties();
+        try {
+            props.load(new FileInputStream("gradle.properties"));
+        } catch (IOException e) {
+            System.err.println("problem loading properties file.");
+            System.exit(1);
+        }
+        return props;
+    }
+
+    private static DatabaseClient connect() {
+        Properties props = properties();
+        return DatabaseClientFactory.newClient(props.getProperty("mlHost"), Integer.parseInt(props.getProperty("mlRestPort")),
+                props.getProperty("mlUsername"), props.getProperty("mlPassword"), DatabaseClientFactory.Authentication.DIGEST);
+    }
+
+    /**
+     * loads SUBJECTS subjects with PREDICATES literals of mixed datatypes each
+     */
+    private static MarkLogicRepository load() throws Exception {
+        Properties props = properties();
+        MarkLogicRepository rep = new MarkLogicRepository(props.getProperty("mlHost"), Integer.parseInt(props.getProperty("mlRestPort")),
+                props.getProperty("mlUsername"), props.getProperty("mlPassword"), "DIGEST");
+        rep.initialize();
+        MarkLogicRepositoryConnection conn = rep.getConnection();
+        try {
+            ValueFactory f = conn.getValueFactory();
+            Resource context = f.createURI(GRAPH);
+            URI[] predicates = new URI[PREDICATES];
+            for (int p = 0; p < PREDICATES; p++) {
+                predicates[p] = f.createURI(NS + "p" + p);
+            }
+            conn.begin();
+            for (int i = 0; i < SUBJECTS; i++) {
+                URI subject = f.createURI(NS + "s" + i);
+                for (int p = 0; p < PREDICATES; p++) {
+                    switch (p % 3) {
+                        case 0:
+                            conn.add(subject, predicates[p], f.createLiteral("value " + i + " of " + p), context);
+                            break;
+                        case 1:
+                            conn.add(subject, predicates[p], f.createLiteral(i * p), context);
+                            break;
+                        default:
+                            conn.add(subject, predicates[p], f.createLiteral("valeur " + i, "fr"), context);
+                    }
+                }
+            }
+            conn.commit();
+        } finally {
+            conn.close();
+        }
+        return rep;
+    }
+
+    private static void clear(MarkLogicRepository rep) throws Exception {
+        MarkLogicRepositoryConnection conn = rep.getConnection();
+        try {
+            conn.clear(conn.getValueFactory().createURI(GRAPH));
+        } finally {
+            conn.close();
+        }
+        rep.shutDown();
+    }
+}
@@ -0,0 +1,128 @@
+package com.marklogic.semantics.sesame.benchmarks;
+
+import com.marklogic.semantics.sesame.MarkLogicRepository;
+import com.marklogic.semantics.sesame.MarkLogicRepositoryConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.sparql.query.QueryStringUtil;
+import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compares repeated lookups with values substituted into the query text
+ * against values sent as request bindings, requires a MarkLogic server
+ * configured in gradle.properties
+ *
+ * Substituted queries differ in text for every value, so the server parses
+ * and plans each one, bound queries share one text and reuse its plan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SPARQLBindingsPerfTest {
+
+    private static final int PEOPLE = 1000;
+
+    private static final String QUERY = "select ?s ?age { ?s <http://example.org/ontology/name> ?name ; <http://example.org/ontology/age> ?age }";
+
+    private MarkLogicRepository rep;
+    private MarkLogicRepositoryConnection conn;
+    private Resource context;
+    private Literal[] names;
+    private TupleQuery boundQuery;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Properties props = new Properties();
+        try (FileInputStream in = new FileInputStream("gradle.properties")) {
+            props.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("problem loading properties file.", e);
+        }
+        rep = new MarkLogicRepository(props.getProperty("mlHost"), Integer.parseInt(props.getProperty("mlRestPort")),
+                props.getProperty("mlUsername"), props.getProperty("mlPassword"), "DIGEST");
+        rep.initialize();
+        conn = rep.getConnection();
+
+        ValueFactory f = conn.getValueFactory();
+        context = f.createURI("http://marklogic.com/test/bindings-benchmark");
+        URI name = f.createURI("http://example.org/ontology/name");
+        URI age = f.createURI("http://example.org/ontology/age");
+        names = new Literal[PEOPLE];
+        List<Statement> statements = new ArrayList<>();
+        for (int i = 0; i < PEOPLE; i++) {
+            URI person = f.createURI("http://example.org/people/person" + i);
+            names[i] = f.createLiteral("Person " + i, "en");
+            statements.add(f.createStatement(person, name, names[i]));
+            statements.add(f.createStatement(person, age, f.createLiteral(i % 100)));
+        }
+        conn.add(statements, context);
+
+        boundQuery = conn.prepareTupleQuery(QUERY);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        conn.clear(context);
+        conn.close();
+        rep.shutDown();
+    }
+
+    /**
+     * value substituted into query text, as queries were sent before bindings became request parameters
+     */
+    @Benchmark
+    public void substituted(Blackhole bh) throws Exception {
+        SPARQLQueryBindingSet bindings = new SPARQLQueryBindingSet();
+        bindings.addBinding("name", nextName());
+        TupleQuery query = conn.prepareTupleQuery(QueryStringUtil.getQueryString(QUERY, bindings));
+        consume(query.evaluate(), bh);
+    }
+
+    /**
+     * value sent as typed request binding, query text is the same for every value
+     */
+    @Benchmark
+    public void bound(Blackhole bh) throws Exception {
+        boundQuery.setBinding("name", nextName());
+        consume(boundQuery.evaluate(), bh);
+    }
+
+    private Literal nextName() {
+        Literal name = names[next];
+        next = (next + 1) % PEOPLE;
+        return name;
+    }
+
+    private static void consume(TupleQueryResult results, Blackhole bh) throws Exception {
+        try {
+            while (results.hasNext()) {
+                bh.consume(results.next());
+            }
+        } finally {
+            results.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.marklogic.semantics.sesame.benchmarks;
+
+import com.marklogic.semantics.sesame.MarkLogicRepository;
+import com.marklogic.semantics.sesame.MarkLogicRepositoryConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.TupleQuery;
+import org.openrdf.query.TupleQueryResult;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * compares background and pull parsing of tuple results for small and large SELECTs
+ */
+@State(Scope.Benchmark)
+public class TupleResultParsingPerfTest {
+
+    @Param({"false", "true"})
+    public boolean pullParsing;
+
+    @Param({"10", "10000"})
+    public int rows;
+
+    private MarkLogicRepository rep;
+    private MarkLogicRepositoryConnection conn;
+    private Resource context;
+    private TupleQuery tupleQuery;
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties props = new Properties();
+        try {
+            props.load(new FileInputStream("gradle.properties"));
+        } catch (IOException e) {
+            System.err.println("problem loading properties file.");
+            System.exit(1);
+        }
+        String host = props.getProperty("mlHost");
+        int port = Integer.parseInt(props.getProperty("mlRestPort"));
+        String user = props.getProperty("mlUsername");
+        String pass = props.getProperty("mlPassword");
+
+        rep = new MarkLogicRepository(host,port,user,pass,"DIGEST");
+        rep.initialize();
+        conn = rep.getConnection();
+
+        ValueFactory f = conn.getValueFactory();
+        context = f.createURI("http://marklogic.com/test/parsing");
+        URI name = f.createURI("http://example.org/ontology/name");
+        conn.begin();
+        for (int i=0 ; i<10000 ; i++){
+            conn.add(f.createURI("http://example.org/people/p" + i), name, f.createLiteral("Person" + i), context);
+        }
+        conn.commit();
+
+        conn.configurePullParsing(pullParsing);
+        tupleQuery = conn.prepareTupleQuery("select ?s ?p ?o { graph <http://marklogic.com/test/parsing> { ?s ?p ?o } } limit " + rows);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        conn.clear(context);
+        conn.close();
+        rep.shutDown();
+    }
+
+    @Benchmark
+    public void perfTupleResultParsing(Blackhole bh)
+            throws Exception {
+        TupleQueryResult results = tupleQuery.evaluate();
+        try {
+            while(results.hasNext()) {
+                bh.consume(results.next());
+            }
+        } finally {
+            results.close();
+        }
+    }
+}
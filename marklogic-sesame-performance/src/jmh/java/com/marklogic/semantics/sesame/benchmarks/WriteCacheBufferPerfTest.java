@@ -0,0 +1,133 @@
+package com.marklogic.semantics.sesame.benchmarks;
+
+import com.marklogic.semantics.sesame.client.WriteCacheBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compares write cache buffers, no MarkLogic server required
+ *
+ * add() cost is reported per statement, heap retained per pending statement
+ * is logged at the end of each trial. Run with -prof gc for allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WriteCacheBufferPerfTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteCacheBufferPerfTest.class);
+
+    private static final int STATEMENTS = 10000;
+
+    @Param({"MODEL", "NQUADS"})
+    public WriteCacheBuffer.Type bufferType;
+
+    private URI[] subjects;
+    private URI predicate;
+    private Literal[] objects;
+    private Resource context;
+
+    private WriteCacheBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setUpStatements() {
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        subjects = new URI[STATEMENTS];
+        objects = new Literal[STATEMENTS];
+        for (int i = 0; i < STATEMENTS; i++) {
+            subjects[i] = f.createURI("http://example.org/people/person" + i);
+            objects[i] = f.createLiteral("Person name " + i);
+        }
+        predicate = f.createURI("http://example.org/ontology/name");
+        context = f.createURI("http://marklogic.com/test/context1");
+        buffer = bufferType.newBuffer();
+    }
+
+    @Setup(Level.Invocation)
+    public void clearBuffer() {
+        buffer.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void reportHeapPerStatement() {
+        logger.info("{} retains ~{} bytes per pending statement", bufferType, retainedBytesPerStatement(bufferType));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STATEMENTS)
+    public WriteCacheBuffer add() {
+        for (int i = 0; i < STATEMENTS; i++) {
+            buffer.add(subjects[i], predicate, objects[i], context);
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STATEMENTS)
+    public void addAndFlush(final Blackhole bh) throws IOException {
+        add();
+        buffer.writeTo(new OutputStream() {
+            @Override
+            public void write(int b) {
+                bh.consume(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bh.consume(len);
+            }
+        });
+    }
+
+    /**
+     * fills fresh buffers and measures heap they hold after gc
+     *
+     * @param type
+     * @return long
+     */
+    private long retainedBytesPerStatement(WriteCacheBuffer.Type type) {
+        WriteCacheBuffer[] buffers = new WriteCacheBuffer[10];
+        long before = usedHeap();
+        for (int b = 0; b < buffers.length; b++) {
+            buffers[b] = type.newBuffer();
+            for (int i = 0; i < STATEMENTS; i++) {
+                buffers[b].add(subjects[i], predicate, objects[i], context);
+            }
+        }
+        long after = usedHeap();
+        long perStatement = (after - before) / ((long) buffers.length * STATEMENTS);
+        for (WriteCacheBuffer filled : buffers) {
+            filled.clear();
+        }
+        return perStatement;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -23,11 +23,17 @@ package com.marklogic.semantics.sesame;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.semantics.sesame.client.MarkLogicClient;
 import com.marklogic.semantics.sesame.client.MarkLogicClientDependent;
+import com.marklogic.semantics.sesame.client.MarkLogicClientPool;
+import com.marklogic.semantics.sesame.client.ResultParsingExecutor;
+import com.marklogic.semantics.sesame.client.WriteCacheFlushScheduler;
+import com.marklogic.semantics.sesame.query.QueryFormCache;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.base.RepositoryBase;
+import org.openrdf.rio.RDFFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +63,18 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
     private String password;
     private String auth;
 
+    private MarkLogicClientPool clientPool;
+
+    private WriteCacheFlushScheduler flushScheduler;
+    private int flushThreads = WriteCacheFlushScheduler.DEFAULT_THREADS;
+
+    private ResultParsingExecutor parsingExecutor;
+
+    private final QueryFormCache queryFormCache = new QueryFormCache();
+
+    private TupleQueryResultFormat tupleResultFormat = MarkLogicClient.DEFAULT_TUPLE_RESULT_FORMAT;
+    private RDFFormat graphResultFormat = MarkLogicClient.DEFAULT_GRAPH_RESULT_FORMAT;
+
     private boolean quadMode;
 
     private ValueFactory f;
@@ -77,7 +95,7 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
         this.user = cred[0];
         this.password = cred[1];
         this.auth = "DIGEST";
-        this.client = getMarkLogicClient();
+        this.clientPool = new MarkLogicClientPool(host, port, user, password, auth);
     }
 
     /**
@@ -99,7 +117,7 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
         this.user = user;
         this.password = password;
         this.auth = auth;
-        this.client = getMarkLogicClient();
+        this.clientPool = new MarkLogicClientPool(host, port, user, password, auth);
     }
 
     /**
@@ -116,7 +134,7 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
         this.user = databaseClient.getUser();
         this.password = databaseClient.getPassword();
         this.auth = databaseClient.getAuthentication().name();
-        this.client = new MarkLogicClient(databaseClient);
+        this.clientPool = new MarkLogicClientPool(databaseClient);
     }
     
     /**
@@ -150,13 +168,25 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
 
     /**
      * @Deprecated
-     * implemented to honor Repository interface
+     * implemented to honor Repository interface, stops write cache flush
+     * scheduler and result parsing executor and releases pooled clients
      *
      * @throws RepositoryException
      */
     @Override
     @Deprecated
     protected void shutDownInternal() throws RepositoryException {
+        synchronized (this) {
+            if (flushScheduler != null) {
+                flushScheduler.shutdown();
+                flushScheduler = null;
+            }
+            if (parsingExecutor != null) {
+                parsingExecutor.shutdown();
+                parsingExecutor = null;
+            }
+        }
+        clientPool.close();
     }
 
     /**
@@ -196,10 +226,10 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
      * returns a MarkLogicConnection object which is the entry point to
      * performing all queries.
      *
-     * It is best practice to reuse a single connection to a
-     * single MarkLogic database to take advantage of connection
-     * pooling capabilities built into java api client (which is a
-     * dependency within marklogic-sesame).
+     * Connections share DatabaseClient instances from the repository
+     * client pool (see setClientPoolMaxSize), so opening a connection
+     * per request does not create new http pools. Closing the connection
+     * returns its DatabaseClient to the pool.
      *
      * @return MarkLogicRepositoryConnection
      * @throws RepositoryException
@@ -214,13 +244,21 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
     }
 
     /**
-     * returns MarkLogicClient object which manages communication to ML server via Java api client
+     * returns MarkLogicClient object which manages communication to ML server via Java api client,
+     * the client borrows a DatabaseClient from the repository client pool and must be closed
      *
      * @return MarkLogicClient
      */
     @Override
     public synchronized MarkLogicClient getMarkLogicClient() {
-        this.client = new MarkLogicClient(host, port, user, password, auth); // consider factory method ?
+        this.client = new MarkLogicClient(clientPool, getFlushScheduler(), getParsingExecutor());
+        try {
+            this.client.setTupleResultFormat(tupleResultFormat);
+            this.client.setGraphResultFormat(graphResultFormat);
+        } catch (MarkLogicSesameException e) {
+            // formats are checked when set on the repository
+            throw new IllegalStateException(e);
+        }
         return this.client;
     }
 
@@ -234,6 +272,164 @@ public class MarkLogicRepository extends RepositoryBase implements Repository,Ma
         this.client = client;
     }
 
+    /**
+     * returns the pool of DatabaseClient shared by this repository's connections,
+     * useful for reporting pool statistics
+     *
+     * @return MarkLogicClientPool
+     */
+    public MarkLogicClientPool getClientPool() {
+        return clientPool;
+    }
+
+    /**
+     * sets max number of DatabaseClient shared by this repository's connections
+     *
+     * @param maxSize
+     */
+    public void setClientPoolMaxSize(int maxSize) {
+        clientPool.setMaxSize(maxSize);
+    }
+
+    /**
+     * returns the scheduler flushing write caches of this repository's connections,
+     * useful for reporting how many caches are tracked and flush lag
+     *
+     * @return WriteCacheFlushScheduler
+     */
+    public synchronized WriteCacheFlushScheduler getFlushScheduler() {
+        if (flushScheduler == null) {
+            flushScheduler = new WriteCacheFlushScheduler(flushThreads);
+        }
+        return flushScheduler;
+    }
+
+    /**
+     * sets number of threads flushing write caches of this repository's connections
+     *
+     * @param threads
+     */
+    public synchronized void setFlushThreads(int threads) {
+        this.flushThreads = threads;
+        if (flushScheduler != null) {
+            flushScheduler.setThreads(threads);
+        }
+    }
+
+    /**
+     * sets max number of threads, shared by this repository's connections, sending
+     * write cache partitions in parallel (see configureWriteCacheParallelism)
+     *
+     * @param laneThreads - greater than 0
+     * @throws IllegalArgumentException if laneThreads is 0 or negative
+     */
+    public synchronized void setFlushLaneThreads(int laneThreads) {
+        getFlushScheduler().setLaneThreads(laneThreads);
+    }
+
+    /**
+     * returns the executor parsing query results of this repository's connections,
+     * useful for reporting utilization and saturation
+     *
+     * @return ResultParsingExecutor
+     */
+    public synchronized ResultParsingExecutor getParsingExecutor() {
+        if (parsingExecutor == null) {
+            parsingExecutor = new ResultParsingExecutor();
+        }
+        return parsingExecutor;
+    }
+
+    /**
+     * configures executor parsing query results of this repository's connections,
+     * applies to connections opened afterwards
+     *
+     * maxThreads bounds concurrently streamed results and policy decides if a
+     * result is parsed on the caller thread or rejected once all are busy
+     *
+     * the previous executor is shut down once its running parses complete,
+     * connections still using it parse on the caller thread from then on
+     *
+     * @param maxThreads - greater than 0
+     * @param policy
+     * @throws IllegalArgumentException if maxThreads is 0 or negative
+     */
+    public synchronized void configureParsingExecutor(int maxThreads, ResultParsingExecutor.SaturationPolicy policy) {
+        ResultParsingExecutor previous = this.parsingExecutor;
+        this.parsingExecutor = new ResultParsingExecutor(maxThreads, policy);
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * returns the cache of query forms used by prepareQuery of this repository's
+     * connections, useful for reporting hit and miss counts
+     *
+     * @return QueryFormCache
+     */
+    public QueryFormCache getQueryFormCache() {
+        return queryFormCache;
+    }
+
+    /**
+     * sets max number of query texts whose form is cached, 0 disables caching
+     *
+     * @param maxSize
+     */
+    public void setQueryFormCacheSize(int maxSize) {
+        queryFormCache.setMaxSize(maxSize);
+    }
+
+    /**
+     * sets format SELECT results are requested and parsed in, one of
+     * MarkLogicClient.TUPLE_RESULT_FORMATS, applies to connections opened afterwards
+     *
+     * JSON is the default, XML and TSV keep datatypes and language tags while
+     * CSV returns all literals plain. Queries can override the format with
+     * MarkLogicTupleQuery.setResultFormat.
+     *
+     * @param resultFormat
+     * @throws MarkLogicSesameException
+     */
+    public synchronized void setTupleResultFormat(TupleQueryResultFormat resultFormat) throws MarkLogicSesameException {
+        MarkLogicClient.checkTupleResultFormat(resultFormat);
+        this.tupleResultFormat = resultFormat;
+    }
+
+    /**
+     * getter for tupleResultFormat
+     *
+     * @return TupleQueryResultFormat
+     */
+    public synchronized TupleQueryResultFormat getTupleResultFormat() {
+        return tupleResultFormat;
+    }
+
+    /**
+     * sets format CONSTRUCT and DESCRIBE results are requested and parsed in, one of
+     * MarkLogicClient.GRAPH_RESULT_FORMATS, applies to connections opened afterwards
+     *
+     * N-Triples is the default. Queries can override the format with
+     * MarkLogicGraphQuery.setResultFormat.
+     *
+     * @param resultFormat
+     * @throws MarkLogicSesameException
+     */
+    public synchronized void setGraphResultFormat(RDFFormat resultFormat) throws MarkLogicSesameException {
+        MarkLogicClient.checkGraphResultFormat(resultFormat);
+        this.graphResultFormat = resultFormat;
+    }
+
+    /**
+     * getter for graphResultFormat
+     *
+     * @return RDFFormat
+     */
+    public synchronized RDFFormat getGraphResultFormat() {
+        return graphResultFormat;
+    }
+
     /**
      * returns if repository is in quadmode or not
      *
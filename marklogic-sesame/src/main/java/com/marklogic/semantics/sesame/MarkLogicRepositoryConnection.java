@@ -22,7 +22,13 @@ package com.marklogic.semantics.sesame;
 import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.semantics.GraphPermissions;
 import com.marklogic.client.semantics.SPARQLRuleset;
+import com.marklogic.semantics.sesame.client.AdaptiveWriteCacheController;
+import com.marklogic.semantics.sesame.client.ChunkedFileLoader;
 import com.marklogic.semantics.sesame.client.MarkLogicClient;
+import com.marklogic.semantics.sesame.client.StatementAddBatch;
+import com.marklogic.semantics.sesame.client.StatementRemoveBatch;
+import com.marklogic.semantics.sesame.client.WriteCacheBuffer;
+import com.marklogic.semantics.sesame.client.WriteCacheTimerTask;
 import com.marklogic.semantics.sesame.query.*;
 import info.aduna.iteration.*;
 import org.openrdf.IsolationLevel;
@@ -31,8 +37,7 @@ import org.openrdf.model.*;
 import org.openrdf.model.impl.StatementImpl;
 import org.openrdf.query.*;
 import org.openrdf.query.impl.DatasetImpl;
-import org.openrdf.query.parser.QueryParserUtil;
-import org.openrdf.query.parser.sparql.SPARQLUtil;
+import org.openrdf.query.impl.MapBindingSet;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
@@ -51,7 +56,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 import static org.openrdf.query.QueryLanguage.SPARQL;
 
@@ -64,7 +75,7 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
 
     private static final Logger logger = LoggerFactory.getLogger(MarkLogicRepositoryConnection.class);
 
-    private static final String DEFAULT_GRAPH_URI = "http://marklogic.com/semantics#default-graph";
+    private static final String DEFAULT_GRAPH_URI = StatementQueryTemplates.DEFAULT_GRAPH_URI;
 
     private static final String EVERYTHING = "CONSTRUCT { ?s ?p ?o } WHERE { ?s ?p ?o }";
 
@@ -76,14 +87,23 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
 
     private static final String GET_STATEMENTS = "SELECT * {GRAPH ?ctx { ?s ?p ?o . }}";
 
+    private static final int DEFAULT_SUBJECT_CHUNK_SIZE = 200;
+
     private final boolean quadMode;
 
     private MarkLogicClient client;
 
+    private final QueryFormCache queryFormCache;
+
     private GraphPermissions defaultGraphPerms;
     private SPARQLRuleset[] defaultRulesets;
     private QueryDefinition defaultQueryDef;
 
+    private int removeChunkSize = StatementRemoveBatch.DEFAULT_CHUNK_SIZE;
+    private int addChunkSize = StatementAddBatch.DEFAULT_CHUNK_SIZE;
+    private int addThreads = StatementAddBatch.DEFAULT_THREADS;
+    private int subjectChunkSize = DEFAULT_SUBJECT_CHUNK_SIZE;
+
     /**
      * constructor
      *
@@ -96,6 +116,7 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
         this.client = client;
         this.quadMode = true;
         this.defaultGraphPerms = client.emptyGraphPerms();
+        this.queryFormCache = repository.getQueryFormCache();
         client.setValueFactory(repository.getValueFactory());
     }
 
@@ -198,15 +219,13 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
     {
         // function routing based on query form
         if (SPARQL.equals(queryLanguage)) {
-            String queryStringWithoutProlog = QueryParserUtil.removeSPARQLQueryProlog(queryString).toUpperCase();
-            if (queryStringWithoutProlog.startsWith("SELECT")) {
-                return prepareTupleQuery(queryLanguage, queryString, baseURI);   //must be a TupleQuery
-            }
-            else if (queryStringWithoutProlog.startsWith("ASK")) {
-                return prepareBooleanQuery(queryLanguage, queryString, baseURI); //must be a BooleanQuery
-            }
-            else {
-                return prepareGraphQuery(queryLanguage, queryString, baseURI);   //all the rest use GraphQuery
+            switch (queryFormCache.get(queryString)) {
+                case TUPLE:
+                    return prepareTupleQuery(queryLanguage, queryString, baseURI);   //must be a TupleQuery
+                case BOOLEAN:
+                    return prepareBooleanQuery(queryLanguage, queryString, baseURI); //must be a BooleanQuery
+                default:
+                    return prepareGraphQuery(queryLanguage, queryString, baseURI);   //all the rest use GraphQuery
             }
         }
         throw new UnsupportedQueryLanguageException("Unsupported query language " + queryLanguage.getName());
@@ -558,26 +577,15 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
         }
         try {
             if (isQuadMode()) {
-                StringBuilder sb = new StringBuilder();
-                sb.append("SELECT * WHERE { GRAPH ?ctx { ?s ?p ?o } filter (?ctx = (");
-                boolean first = true;
-                for (Resource context : contexts) {
-                    if (first) {
-                        first = !first;
-                    }
-                    else {
-                        sb.append(",");
-                    }
-                    if (notNull(context)) {
-                        sb.append("IRI(\"" + context.toString() + "\")");
-                    } else {
-                        sb.append("IRI(\""+DEFAULT_GRAPH_URI+"\")");
-                    }
+                TupleQuery tupleQuery;
+                if (contexts.length > 0) {
+                    tupleQuery = prepareTupleQuery(StatementQueryTemplates.getQueryString(StatementQueryTemplates.Form.GET_STATEMENTS, contexts.length));
+                    StatementQueryTemplates.bindContexts(tupleQuery, getValueFactory(), contexts);
+                } else {
+                    tupleQuery = prepareTupleQuery(GET_STATEMENTS);
                 }
-                sb.append(") ) }");
-                TupleQuery tupleQuery = prepareTupleQuery(sb.toString());
                 tupleQuery.setIncludeInferred(includeInferred);
-                setBindings(tupleQuery, subj, pred, obj, (Resource) null);
+                setBindings(tupleQuery, subj, pred, obj);
                 TupleQueryResult qRes = tupleQuery.evaluate();
                 return new RepositoryResult<Statement>(
                         new ExceptionConvertingIteration<Statement, RepositoryException>(
@@ -616,6 +624,71 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
         }
     }
 
+    /**
+     * returns statements of many subjects from supplied context, grouped by
+     * subject in the order given
+     *
+     * Subjects are sent getSubjectChunkSize at a time as rows of a VALUES
+     * block, each chunk is fetched as the result is iterated over.
+     *
+     * @param subjects
+     * @param pred
+     * @param obj
+     * @param includeInferred
+     * @param contexts
+     * @return RepositoryResult<Statement>
+     * @throws RepositoryException
+     */
+    public RepositoryResult<Statement> getSubjectStatements(Collection<? extends Resource> subjects, URI pred, Value obj, boolean includeInferred, Resource... contexts) throws RepositoryException {
+        if (contexts == null) {
+            contexts = new Resource[] { null };
+        }
+        final List<Resource> distinctSubjects = new ArrayList<Resource>(new LinkedHashSet<Resource>(subjects));
+        final List<BindingSet> rows = new ArrayList<BindingSet>(distinctSubjects.size());
+        for (Resource subject : distinctSubjects) {
+            if (subject == null) {
+                throw new IllegalArgumentException("subjects must not be null");
+            }
+            MapBindingSet row = new MapBindingSet(1);
+            row.addBinding("s", subject);
+            rows.add(row);
+        }
+        try {
+            final MarkLogicTupleQuery tupleQuery;
+            if (contexts.length > 0) {
+                tupleQuery = prepareTupleQuery(StatementQueryTemplates.getQueryString(StatementQueryTemplates.Form.GET_STATEMENTS, contexts.length));
+                StatementQueryTemplates.bindContexts(tupleQuery, getValueFactory(), contexts);
+            } else {
+                tupleQuery = prepareTupleQuery(GET_STATEMENTS);
+            }
+            tupleQuery.setIncludeInferred(includeInferred);
+            setBindings(tupleQuery, null, pred, obj);
+            return new RepositoryResult<Statement>(new SubjectChunkIteration(tupleQuery, distinctSubjects, rows, pred, obj, subjectChunkSize));
+        } catch (MalformedQueryException e) {
+            throw new RepositoryException(e);
+        }
+    }
+
+    /**
+     * sets number of subjects fetched per request by getSubjectStatements
+     *
+     * @param subjectChunkSize
+     */
+    @Override
+    public void setSubjectChunkSize(int subjectChunkSize) {
+        this.subjectChunkSize = Math.max(1, subjectChunkSize);
+    }
+
+    /**
+     * returns number of subjects fetched per request by getSubjectStatements
+     *
+     * @return int
+     */
+    @Override
+    public int getSubjectChunkSize() {
+        return subjectChunkSize;
+    }
+
     // all statements
 
     /**
@@ -647,38 +720,85 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public boolean hasStatement(Resource subject, URI predicate, Value object, boolean includeInferred, Resource... contexts) throws RepositoryException {
-        String queryString = null;
-        if(contexts == null) {
-            queryString="ASK { GRAPH ?ctx { ?s ?p ?o } filter (?ctx = (IRI(\""+DEFAULT_GRAPH_URI+"\")))}";
-        }else if (contexts.length == 0) {
-            queryString = SOMETHING;
+        if (contexts == null) {
+            contexts = new Resource[] { null };
         }
-        else {
-            StringBuilder sb= new StringBuilder();
-            sb.append("ASK { GRAPH ?ctx { ?s ?p ?o } filter (?ctx = (");
-                boolean first = true;
-                for (Resource context : contexts) {
-                    if (first) {
-                        first = !first;
-                    }
-                    else {
-                        sb.append(",");
-                    }
-                    if (context == null) {
-                        sb.append("IRI(\""+DEFAULT_GRAPH_URI+"\")");
-                    } else {
-                        sb.append("IRI(\"" + context.toString() + "\")");
-                    }
+        try {
+            BooleanQuery query;
+            if (contexts.length > 0) {
+                query = prepareBooleanQuery(StatementQueryTemplates.getQueryString(StatementQueryTemplates.Form.HAS_STATEMENT, contexts.length)); // baseuri ?
+                StatementQueryTemplates.bindContexts(query, getValueFactory(), contexts);
+            } else {
+                query = prepareBooleanQuery(SOMETHING);
+            }
+            setBindings(query, subject, predicate, object);
+            return query.evaluate();
+        }
+        catch (MalformedQueryException e) {
+            throw new RepositoryException(e);
+        }
+        catch (QueryEvaluationException e) {
+            throw new RepositoryException(e);
+        }
+    }
+
+    /**
+     * returns which statements exist in repository / context, evaluated in
+     * chunks of statements per request rather than one request per statement
+     *
+     * Like hasStatement, the contexts of the statements themselves are ignored.
+     * Statements with a blank node are checked one at a time with hasStatement.
+     *
+     * @param statements
+     * @param includeInferred
+     * @param contexts
+     * @return BitSet with bit i set if i-th statement exists
+     * @throws RepositoryException
+     */
+    @Override
+    public BitSet hasStatements(Collection<? extends Statement> statements, boolean includeInferred, Resource... contexts) throws RepositoryException {
+        if (contexts == null) {
+            contexts = new Resource[] { null };
+        }
+        BitSet found = new BitSet(statements.size());
+        List<BindingSet> rows = new ArrayList<BindingSet>(statements.size());
+        List<Integer> rowIndexes = new ArrayList<Integer>(statements.size());
+        int index = 0;
+        for (Statement st : statements) {
+            if (st.getSubject() instanceof BNode || st.getObject() instanceof BNode) {
+                // blank nodes cannot be sent in a VALUES block, checked one at a time
+                if (hasStatement(st.getSubject(), st.getPredicate(), st.getObject(), includeInferred, contexts)) {
+                    found.set(index);
                 }
-                sb.append(") ) }");
-            queryString = sb.toString();
+            } else {
+                MapBindingSet row = new MapBindingSet(3);
+                addBinding(row, "s", st.getSubject());
+                addBinding(row, "p", st.getPredicate());
+                addBinding(row, "o", st.getObject());
+                rows.add(row);
+                rowIndexes.add(index);
+            }
+            index++;
+        }
+        if (rows.isEmpty()) {
+            return found;
         }
         try {
-            logger.debug(queryString);
-            BooleanQuery query = prepareBooleanQuery(queryString); // baseuri ?
-
-            setBindings(query, subject, predicate, object, contexts);
-            return query.evaluate();
+            MarkLogicBooleanQuery query;
+            if (contexts.length > 0) {
+                query = prepareBooleanQuery(StatementQueryTemplates.getQueryString(StatementQueryTemplates.Form.HAS_STATEMENT, contexts.length));
+                StatementQueryTemplates.bindContexts(query, getValueFactory(), contexts);
+            } else {
+                query = prepareBooleanQuery(SOMETHING);
+            }
+            query.setIncludeInferred(includeInferred);
+            boolean[] results = query.evaluate(rows);
+            for (int i = 0; i < results.length; i++) {
+                if (results[i]) {
+                    found.set(rowIndexes.get(i));
+                }
+            }
+            return found;
         }
         catch (MalformedQueryException e) {
             throw new RepositoryException(e);
@@ -720,50 +840,14 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
     @Override
     public void exportStatements(Resource subject, URI predicate, Value object, boolean includeInferred, RDFHandler handler, Resource... contexts) throws RepositoryException, RDFHandlerException {
         try {
-            StringBuilder ob = new StringBuilder();
-            StringBuilder sb = new StringBuilder();
-
-            if(notNull(object) && object instanceof Literal) {
-                if (object instanceof Literal) {
-                    Literal lit = (Literal) object;
-                    ob.append("\"");
-                    ob.append(SPARQLUtil.encodeString(lit.getLabel()));
-                    ob.append("\"");
-                    ob.append("^^<" + lit.getDatatype().stringValue() + ">");
-                    ob.append(" ");
-                } else {
-                    ob.append("<" + object.stringValue() + "> ");
-                }
-                sb.append("CONSTRUCT {?s ?p "+ob.toString()+"} WHERE {");
-                if(notNull(contexts) && contexts.length>0) {
-                    for (int i = 0; i < contexts.length; i++) {
-                        if(notNull(contexts[i])) {
-                            sb.append("GRAPH <" + contexts[i].stringValue() + "> {?s ?p " + ob.toString() + " .} ");
-                        }else{
-                            sb.append("GRAPH <"+DEFAULT_GRAPH_URI+"> {?s ?p "+ob.toString()+" .}");
-                        }
-                    }
-                    sb.append("}");
-                }else{
-                    sb.append("?s ?p "+ob.toString()+" }");
-                }
-            }else{
-                sb.append("CONSTRUCT {?s ?p ?o} WHERE {");
-                if(notNull(contexts) && contexts.length>0) {
-                    for (int i = 0; i < contexts.length; i++) {
-                        if(contexts[i] != null) {
-                            sb.append("GRAPH <" + contexts[i].stringValue() + "> {?s ?p ?o .} ");
-                        }else{
-                            sb.append("GRAPH <"+DEFAULT_GRAPH_URI+"> {?s ?p ?o .}");
-                        }                    }
-                    sb.append("}");
-                }else{
-                    sb.append("?s ?p ?o }");
-                }
+            GraphQuery query;
+            if (notNull(contexts) && contexts.length > 0) {
+                query = prepareGraphQuery(StatementQueryTemplates.getQueryString(StatementQueryTemplates.Form.EXPORT, contexts.length));
+                StatementQueryTemplates.bindContexts(query, getValueFactory(), contexts);
+            } else {
+                query = prepareGraphQuery(EVERYTHING);
             }
-            logger.debug(sb.toString());
-            GraphQuery query = prepareGraphQuery(sb.toString());
-            setBindings(query, subject, predicate, object, contexts);
+            setBindings(query, subject, predicate, object);
             query.evaluate(handler);
         }
         catch (MalformedQueryException e) {
@@ -812,32 +896,12 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
             contexts = new Resource[] { null };
         }
         try {
-            StringBuilder sb = new StringBuilder();
-            sb.append("SELECT (count(?s) as ?ct) where { GRAPH ?g { ?s ?p ?o }");
-            boolean first = true;
-            // with no args, measure the whole triple store.
-            if (contexts != null && contexts.length > 0) {
-                sb.append("filter (?g = (");
-                for (Resource context : contexts) {
-                    if (first) {
-                        first = !first;
-                    }
-                    else {
-                        sb.append(",");
-                    }
-                    if (context == null) {
-                        sb.append("IRI(\""+DEFAULT_GRAPH_URI+"\")");
-                    } else {
-                        sb.append("IRI(\"" + context.toString() + "\")");
-                    }
-                }
-                sb.append(") )");
-            }else{
-                sb.append("filter (?g = (IRI(\""+DEFAULT_GRAPH_URI+"\")))");
+            // with no args, measure the default graph
+            if (contexts.length == 0) {
+                contexts = new Resource[] { null };
             }
-            sb.append("}");
-            logger.debug(sb.toString());
-            MarkLogicTupleQuery tupleQuery = prepareTupleQuery(sb.toString());
+            MarkLogicTupleQuery tupleQuery = prepareTupleQuery(StatementQueryTemplates.getQueryString(StatementQueryTemplates.Form.SIZE, contexts.length));
+            StatementQueryTemplates.bindContexts(tupleQuery, getValueFactory(), contexts);
             tupleQuery.setIncludeInferred(false);
             tupleQuery.setRulesets((SPARQLRuleset) null);
             tupleQuery.setConstrainingQueryDefinition((QueryDefinition)null);
@@ -1001,6 +1065,26 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
         }
     }
 
+    /**
+     * add N-Triples or N-Quads file in chunks committed one by one, each committed chunk
+     * recorded in checkpointFile. Calling again with the same checkpointFile after a failure
+     * or crash only loads the chunks still missing, the checkpoint is removed once the
+     * whole file is loaded. Chunk size, workers and retries are those set with
+     * configureChunkedFileLoad, or defaults if chunking is disabled.
+     *
+     * @param file
+     * @param dataFormat
+     * @param checkpointFile
+     * @param contexts
+     * @throws RDFParseException
+     * @throws RepositoryException
+     */
+    @Override
+    public void addResumable(File file, RDFFormat dataFormat, File checkpointFile, Resource... contexts) throws RDFParseException, RepositoryException {
+        getClient().sync();
+        getClient().newChunkedFileLoader(file, dataFormat, checkpointFile, contexts).load();
+    }
+
     /**
      * add triples via Reader
      *
@@ -1066,7 +1150,7 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
     }
 
     /**
-     * add triple statements
+     * add triple statements, bypassing write cache, in batched requests (see setAddChunkSize)
      *
      * @param statements
      * @param contexts
@@ -1074,15 +1158,15 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public void add(Iterable<? extends Statement> statements, Resource... contexts) throws RepositoryException {
-        Iterator <? extends Statement> iter = statements.iterator();
-        while(iter.hasNext()){
-            Statement st = iter.next();
-            add(st, mergeResource(st.getContext(), contexts));
+        StatementAddBatch batch = getClient().newAddBatch(addChunkSize, addThreads);
+        for (Statement st : statements) {
+            batch.add(st, contexts);
         }
+        batch.flush();
     }
 
     /**
-     * add triple statements
+     * add triple statements, bypassing write cache, in batched requests (see setAddChunkSize)
      *
      * @param statements
      * @param contexts
@@ -1092,10 +1176,52 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public <E extends Exception> void add(Iteration<? extends Statement, E> statements, Resource... contexts) throws RepositoryException, E {
+        StatementAddBatch batch = getClient().newAddBatch(addChunkSize, addThreads);
         while(statements.hasNext()){
-            Statement st = statements.next();
-            add(st.getSubject(), st.getPredicate(), st.getObject(), mergeResource(st.getContext(), contexts));
+            batch.add(statements.next(), contexts);
         }
+        batch.flush();
+    }
+
+    /**
+     * sets number of statements added per request by add(Iterable) and add(Iteration)
+     *
+     * @param addChunkSize
+     */
+    @Override
+    public void setAddChunkSize(int addChunkSize) {
+        this.addChunkSize = Math.max(1, addChunkSize);
+    }
+
+    /**
+     * returns number of statements added per request by add(Iterable) and add(Iteration)
+     *
+     * @return int
+     */
+    @Override
+    public int getAddChunkSize() {
+        return addChunkSize;
+    }
+
+    /**
+     * sets max number of requests add(Iterable) and add(Iteration) upload at once,
+     * always 1 inside a transaction
+     *
+     * @param addThreads
+     */
+    @Override
+    public void setAddThreads(int addThreads) {
+        this.addThreads = Math.max(1, addThreads);
+    }
+
+    /**
+     * returns max number of requests add(Iterable) and add(Iteration) upload at once
+     *
+     * @return int
+     */
+    @Override
+    public int getAddThreads() {
+        return addThreads;
     }
 
 
@@ -1126,23 +1252,22 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
     }
 
     /**
-     * remove triple statements
+     * remove triple statements from any graph, in batched requests (see setRemoveChunkSize)
      *
      * @param statements
      * @throws RepositoryException
      */
     @Override
     public void remove(Iterable<? extends Statement> statements) throws RepositoryException {
-        sync();
-        Iterator <? extends Statement> iter = statements.iterator();
-        while(iter.hasNext()){
-            Statement st = iter.next();
-            getClient().sendRemove(null, st.getSubject(), st.getPredicate(), st.getObject());
+        StatementRemoveBatch batch = getClient().newRemoveBatch(removeChunkSize);
+        for (Statement st : statements) {
+            batch.remove(st.getSubject(), st.getPredicate(), st.getObject());
         }
+        batch.flush();
     }
 
     /**
-     * remove triple statements
+     * remove triple statements, in batched requests (see setRemoveChunkSize)
      *
      * @param statements
      * @param contexts
@@ -1150,16 +1275,15 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public void remove(Iterable<? extends Statement> statements, Resource... contexts) throws RepositoryException {
-        sync();
-        Iterator <? extends Statement> iter = statements.iterator();
-        while(iter.hasNext()){
-            Statement st = iter.next();
-            getClient().sendRemove(null, st.getSubject(), st.getPredicate(), st.getObject(), mergeResource(st.getContext(), contexts));
+        StatementRemoveBatch batch = getClient().newRemoveBatch(removeChunkSize);
+        for (Statement st : statements) {
+            batch.remove(st.getSubject(), st.getPredicate(), st.getObject(), mergeResource(st.getContext(), contexts));
         }
+        batch.flush();
     }
 
     /**
-     * remove triple statements
+     * remove triple statements from any graph, in batched requests (see setRemoveChunkSize)
      *
      * @param statements
      * @param <E>
@@ -1168,15 +1292,16 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public <E extends Exception> void remove(Iteration<? extends Statement, E> statements) throws RepositoryException, E {
-        sync();
+        StatementRemoveBatch batch = getClient().newRemoveBatch(removeChunkSize);
         while(statements.hasNext()){
             Statement st = statements.next();
-            getClient().sendRemove(null, st.getSubject(), st.getPredicate(), st.getObject());
+            batch.remove(st.getSubject(), st.getPredicate(), st.getObject());
         }
+        batch.flush();
     }
 
     /**
-     * remove triple statements
+     * remove triple statements, in batched requests (see setRemoveChunkSize)
      *
      * @param statements
      * @param contexts
@@ -1186,11 +1311,32 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
      */
     @Override
     public <E extends Exception> void remove(Iteration<? extends Statement, E> statements, Resource... contexts) throws RepositoryException, E {
-        sync();
+        StatementRemoveBatch batch = getClient().newRemoveBatch(removeChunkSize);
         while(statements.hasNext()){
             Statement st = statements.next();
-            getClient().sendRemove(null, st.getSubject(), st.getPredicate(), st.getObject(), mergeResource(st.getContext(), contexts));
+            batch.remove(st.getSubject(), st.getPredicate(), st.getObject(), mergeResource(st.getContext(), contexts));
         }
+        batch.flush();
+    }
+
+    /**
+     * sets number of statements removed per request by remove(Iterable) and remove(Iteration)
+     *
+     * @param removeChunkSize
+     */
+    @Override
+    public void setRemoveChunkSize(int removeChunkSize) {
+        this.removeChunkSize = Math.max(1, removeChunkSize);
+    }
+
+    /**
+     * returns number of statements removed per request by remove(Iterable) and remove(Iteration)
+     *
+     * @return int
+     */
+    @Override
+    public int getRemoveChunkSize() {
+        return removeChunkSize;
     }
 
     /**
@@ -1369,8 +1515,8 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
     /**
      * customise write cache interval and cache size. 
      *
-     * @param initDelay - initial interval before write cache is checked
-     * @param delayCache - interval (ms) to check write cache
+     * @param initDelay - unused, write cache is scheduled for flush when it becomes dirty
+     * @param delayCache - max time (ms) triples wait in write cache before flush
      * @param cacheSize - size (# triples) of write cache
      *
      */
@@ -1379,6 +1525,132 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
         client.initTimer(initDelay, delayCache,cacheSize);
     }
 
+    /**
+     * customise write cache interval, cache size and high water mark.
+     *
+     * A full write cache is flushed in the background while adds continue into
+     * a second buffer, adds only block once that buffer holds highWaterMark triples.
+     *
+     * @param initDelay - unused, write cache is scheduled for flush when it becomes dirty
+     * @param delayCache - max time (ms) triples wait in write cache before flush
+     * @param cacheSize - size (# triples) of write cache
+     * @param highWaterMark - size (# triples) at which add blocks while a flush is in flight
+     *
+     */
+    @Override
+    public void configureWriteCache(long initDelay, long delayCache, long cacheSize, long highWaterMark){
+        client.initTimer(initDelay, delayCache, cacheSize, highWaterMark);
+    }
+
+    /**
+     * selects how the write cache holds pending triples, MODEL removes duplicates
+     * while NQUADS encodes triples on add using far less memory per triple
+     *
+     * @param bufferType
+     * @throws MarkLogicSesameException
+     */
+    @Override
+    public void configureWriteCacheBuffer(WriteCacheBuffer.Type bufferType) throws MarkLogicSesameException {
+        client.setWriteCacheBufferType(bufferType);
+    }
+
+    /**
+     * sets number of concurrent requests a write cache flush is split into, triples
+     * are partitioned by context so each graph is written by one request. Flushes in
+     * a transaction are always sent as a single request.
+     *
+     * @param parallelism
+     * @throws MarkLogicSesameException
+     */
+    @Override
+    public void configureWriteCacheParallelism(int parallelism) throws MarkLogicSesameException {
+        client.setWriteCacheParallelism(parallelism);
+    }
+
+    /**
+     * sets size (# nquads bytes) at which write cache is flushed regardless of number of
+     * triples, so batches of large literals stay bounded, 0 disables
+     *
+     * @param cacheBytes
+     */
+    @Override
+    public void configureWriteCacheBytes(long cacheBytes) {
+        client.setWriteCacheBytes(cacheBytes);
+    }
+
+    /**
+     * sets controller adapting write cache size and interval to observed flush latency
+     * and request rate, null stops adjusting and keeps current settings
+     *
+     * @param controller
+     */
+    @Override
+    public void configureAdaptiveWriteCache(AdaptiveWriteCacheController controller) {
+        client.setWriteCacheController(controller);
+    }
+
+    /**
+     * returns write cache, useful for monitoring effective size, interval and pending triples
+     *
+     * @return WriteCacheTimerTask
+     */
+    @Override
+    public WriteCacheTimerTask getWriteCache() {
+        return client.getWriteCache();
+    }
+
+    /**
+     * sets chunked loading of N-Triples and N-Quads files added from File, files larger
+     * than chunkBytes are split on line boundaries and loaded by up to workers concurrent
+     * requests, each failed chunk retried up to maxRetries times. 0 chunkBytes disables.
+     *
+     * blank node labels are scoped to a chunk, so only enable for files whose blank node
+     * labels need not be shared across chunks
+     *
+     * @param chunkBytes
+     * @param workers
+     * @param maxRetries
+     */
+    @Override
+    public void configureChunkedFileLoad(long chunkBytes, int workers, int maxRetries) {
+        client.setFileChunking(chunkBytes, workers, maxRetries);
+    }
+
+    /**
+     * sets listener notified of chunk progress and retries during chunked file loads
+     *
+     * @param listener
+     */
+    @Override
+    public void setChunkedFileLoadListener(ChunkedFileLoader.Listener listener) {
+        client.setFileLoadListener(listener);
+    }
+
+    /**
+     * sets whether tuple query results are parsed on the consumer's thread as
+     * hasNext()/next() are called, avoiding the background thread and queue
+     * handoff for small, latency sensitive queries
+     *
+     * @param pullParsing
+     */
+    @Override
+    public void configurePullParsing(boolean pullParsing) {
+        client.setPullParsing(pullParsing);
+    }
+
+    /**
+     * sets how query results parsed in the background reach the consumer, queueCapacity
+     * bounds rows waiting between parser and consumer (0 keeps the default), a batchSize
+     * above 1 hands rows over in batches, see MarkLogicBatchResult.nextBatch
+     *
+     * @param queueCapacity
+     * @param batchSize
+     */
+    @Override
+    public void configureResultHandoff(int queueCapacity, int batchSize) {
+        client.setResultHandoff(queueCapacity, batchSize);
+    }
+
     ///////////////////////////////////////////////////////////////////////////////////////////////
     // private ////////////////////////////////////////////////////////////////////////////////////
     ///////////////////////////////////////////////////////////////////////////////////////////////
@@ -1434,6 +1706,19 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
         }
     }
 
+    /**
+     * adds binding to row unless value is null, leaving the variable unbound
+     *
+     * @param row
+     * @param name
+     * @param value
+     */
+    private static void addBinding(MapBindingSet row, String name, Value value) {
+        if (value != null) {
+            row.addBinding(name, value);
+        }
+    }
+
     /**
      * return if quadMode is enabled or not (should be)
      *
@@ -1475,18 +1760,79 @@ public class MarkLogicRepositoryConnection extends RepositoryConnectionBase impl
         return new ConvertingIteration<BindingSet, Statement, QueryEvaluationException>(iter) {
             @Override
             protected Statement convert(BindingSet b) throws QueryEvaluationException {
-                Resource s = subj==null ? (Resource)b.getValue("s") : subj;
-                URI p = pred==null ? (URI)b.getValue("p") : pred;
-                Value o = obj==null ? b.getValue("o") : obj;
-                URI ctx = (URI)b.getValue("ctx");
-                if (ctx.stringValue().equals(DEFAULT_GRAPH_URI)) {
-                    ctx = null;
-                }
-                return getValueFactory().createStatement(s, p, o, ctx);
+                return toStatement(b, subj, pred, obj);
             }
         };
     }
 
+    /**
+     * convert binding set of a statement query, unbound positions taken from bindings
+     *
+     * @param b
+     * @param subj
+     * @param pred
+     * @param obj
+     * @return Statement
+     */
+    private Statement toStatement(BindingSet b, Resource subj, URI pred, Value obj) {
+        Resource s = subj==null ? (Resource)b.getValue("s") : subj;
+        URI p = pred==null ? (URI)b.getValue("p") : pred;
+        Value o = obj==null ? b.getValue("o") : obj;
+        URI ctx = (URI)b.getValue("ctx");
+        if (ctx.stringValue().equals(DEFAULT_GRAPH_URI)) {
+            ctx = null;
+        }
+        return getValueFactory().createStatement(s, p, o, ctx);
+    }
+
+    /**
+     * statements of many subjects, fetching a chunk of subjects per request as iterated
+     */
+    private class SubjectChunkIteration extends LookAheadIteration<Statement, RepositoryException> {
+        private final MarkLogicTupleQuery tupleQuery;
+        private final List<Resource> subjects;
+        private final List<BindingSet> rows;
+        private final URI pred;
+        private final Value obj;
+        private final int chunkSize;
+
+        private int nextChunk = 0;
+        private int row;
+        private List<List<BindingSet>> solutions = Collections.emptyList();
+        private Iterator<BindingSet> current = Collections.<BindingSet>emptyList().iterator();
+
+        SubjectChunkIteration(MarkLogicTupleQuery tupleQuery, List<Resource> subjects, List<BindingSet> rows, URI pred, Value obj, int chunkSize) {
+            this.tupleQuery = tupleQuery;
+            this.subjects = subjects;
+            this.rows = rows;
+            this.pred = pred;
+            this.obj = obj;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected Statement getNextElement() throws RepositoryException {
+            while (!current.hasNext()) {
+                if (row + 1 < solutions.size()) {
+                    row++;
+                } else if (nextChunk < rows.size()) {
+                    int to = Math.min(nextChunk + chunkSize, rows.size());
+                    try {
+                        solutions = tupleQuery.evaluate(rows.subList(nextChunk, to), chunkSize);
+                    } catch (QueryEvaluationException e) {
+                        throw new RepositoryException(e);
+                    }
+                    row = 0;
+                    nextChunk = to;
+                } else {
+                    return null;
+                }
+                current = solutions.get(row).iterator();
+            }
+            return toStatement(current.next(), subjects.get(nextChunk - solutions.size() + row), pred, obj);
+        }
+    }
+
     /**
      * private utility method that tests if an object is null
      *
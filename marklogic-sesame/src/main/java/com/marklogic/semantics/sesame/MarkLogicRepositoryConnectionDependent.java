@@ -22,10 +22,24 @@ package com.marklogic.semantics.sesame;
 import com.marklogic.client.semantics.GraphPermissions;
 import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.semantics.SPARQLRuleset;
+import com.marklogic.semantics.sesame.client.AdaptiveWriteCacheController;
+import com.marklogic.semantics.sesame.client.ChunkedFileLoader;
+import com.marklogic.semantics.sesame.client.WriteCacheBuffer;
+import com.marklogic.semantics.sesame.client.WriteCacheTimerTask;
 import info.aduna.iteration.Iteration;
+import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
 import org.openrdf.query.*;
 import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFParseException;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.Collection;
 
 /**
  * interface defining MarkLogic semantic features
@@ -52,9 +66,22 @@ interface MarkLogicRepositoryConnectionDependent {
     void clear() throws RepositoryException;
     long size() throws RepositoryException;
 
+    BitSet hasStatements(Collection<? extends Statement> statements, boolean includeInferred, Resource... contexts) throws RepositoryException;
+    RepositoryResult<Statement> getSubjectStatements(Collection<? extends Resource> subjects, URI pred, Value obj, boolean includeInferred, Resource... contexts) throws RepositoryException;
+    void setSubjectChunkSize(int subjectChunkSize);
+    int getSubjectChunkSize();
+
     void remove(Iterable<? extends Statement> statements) throws RepositoryException;
     <E extends Exception> void remove(Iteration<? extends Statement, E> statements) throws RepositoryException, E;
 
+    void setRemoveChunkSize(int removeChunkSize);
+    int getRemoveChunkSize();
+
+    void setAddChunkSize(int addChunkSize);
+    int getAddChunkSize();
+    void setAddThreads(int addThreads);
+    int getAddThreads();
+
     void setDefaultGraphPerms(GraphPermissions graphPerms);
     GraphPermissions getDefaultGraphPerms();
 
@@ -68,4 +95,26 @@ interface MarkLogicRepositoryConnectionDependent {
 
     void configureWriteCache(long initDelay, long delayCache, long cacheSize);
 
+    void configureWriteCache(long initDelay, long delayCache, long cacheSize, long highWaterMark);
+
+    void configureWriteCacheBuffer(WriteCacheBuffer.Type bufferType) throws MarkLogicSesameException;
+
+    void configureWriteCacheParallelism(int parallelism) throws MarkLogicSesameException;
+
+    void configureWriteCacheBytes(long cacheBytes);
+
+    void configureAdaptiveWriteCache(AdaptiveWriteCacheController controller);
+
+    WriteCacheTimerTask getWriteCache();
+
+    void addResumable(File file, RDFFormat dataFormat, File checkpointFile, Resource... contexts) throws RDFParseException, RepositoryException;
+
+    void configureChunkedFileLoad(long chunkBytes, int workers, int maxRetries);
+
+    void setChunkedFileLoadListener(ChunkedFileLoader.Listener listener);
+
+    void configurePullParsing(boolean pullParsing);
+
+    void configureResultHandoff(int queueCapacity, int batchSize);
+
 }
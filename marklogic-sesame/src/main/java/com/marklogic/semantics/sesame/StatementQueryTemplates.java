@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.Query;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * cached SPARQL templates for the statement level connection methods
+ *
+ * Subject, predicate, object and contexts are never written into the query
+ * text, they are sent as request bindings. Contexts are bound to ?c0..?cN
+ * in a filter, the number of context variables is rounded up to a power of
+ * two and padded by repeating the first context, so any call uses one of a
+ * few stable query texts and the server can reuse their plans.
+ *
+ */
+final class StatementQueryTemplates {
+
+    static final String DEFAULT_GRAPH_URI = "http://marklogic.com/semantics#default-graph";
+
+    /**
+     * query forms with their text before and after the context filter
+     */
+    enum Form {
+        GET_STATEMENTS("SELECT * WHERE { GRAPH ?ctx { ?s ?p ?o }", " }"),
+        HAS_STATEMENT("ASK { GRAPH ?ctx { ?s ?p ?o }", " }"),
+        SIZE("SELECT (count(?s) as ?ct) WHERE { GRAPH ?ctx { ?s ?p ?o }", " }"),
+        EXPORT("CONSTRUCT { ?s ?p ?o } WHERE { GRAPH ?ctx { ?s ?p ?o }", " }");
+
+        private final String head;
+        private final String tail;
+        private final ConcurrentMap<Integer, String> templates = new ConcurrentHashMap<>();
+
+        Form(String head, String tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+    }
+
+    private static final String CONTEXT_VARIABLE = "c";
+
+    private StatementQueryTemplates() {
+    }
+
+    /**
+     * template restricting form to given number of contexts
+     *
+     * @param form
+     * @param contextCount - at least one
+     * @return String
+     */
+    static String getQueryString(Form form, int contextCount) {
+        int arity = arity(contextCount);
+        String template = form.templates.get(arity);
+        if (template == null) {
+            template = build(form, arity);
+            String cached = form.templates.putIfAbsent(arity, template);
+            if (cached != null) {
+                template = cached;
+            }
+        }
+        return template;
+    }
+
+    /**
+     * binds contexts to template's context variables, null context is the default graph
+     *
+     * @param query
+     * @param f
+     * @param contexts - at least one
+     */
+    static void bindContexts(Query query, ValueFactory f, Resource... contexts) {
+        int arity = arity(contexts.length);
+        for (int i = 0; i < arity; i++) {
+            Resource context = contexts[i < contexts.length ? i : 0];
+            query.setBinding(CONTEXT_VARIABLE + i, context == null ? f.createURI(DEFAULT_GRAPH_URI) : context);
+        }
+    }
+
+    /**
+     * number of context variables, the least power of two holding contextCount
+     *
+     * @param contextCount
+     * @return int
+     */
+    static int arity(int contextCount) {
+        if (contextCount < 1) {
+            throw new IllegalArgumentException("at least one context is required");
+        }
+        return contextCount == 1 ? 1 : Integer.highestOneBit(contextCount - 1) << 1;
+    }
+
+    private static String build(Form form, int arity) {
+        StringBuilder sb = new StringBuilder(form.head);
+        sb.append(" FILTER (?ctx IN (");
+        for (int i = 0; i < arity; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('?').append(CONTEXT_VARIABLE).append(i);
+        }
+        sb.append("))").append(form.tail);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * adjusts write cache batch size and interval from observed flushes
+ *
+ * Latency and request rate are smoothed with an exponentially weighted
+ * moving average. When the latency budget is exceeded the batch size is
+ * halved, when latency is well under budget it grows by a quarter. When
+ * flushes happen more often than the target request rate both batch size
+ * and interval grow, when well under target they shrink back towards
+ * their minimum. The latency budget takes precedence when both targets
+ * cannot be met. A target of 0 disables that goal.
+ *
+ */
+public class AdaptiveWriteCacheController {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveWriteCacheController.class);
+
+    public static final double SMOOTHING = 0.3;
+    public static final double GROWTH = 1.25;
+    public static final double SHRINK = 0.5;
+
+    private final long targetLatencyMillis;
+    private final double targetRequestsPerSecond;
+
+    private final long minCacheSize;
+    private final long maxCacheSize;
+    private final long minCacheMillis;
+    private final long maxCacheMillis;
+
+    private long cacheSize;
+    private long cacheMillis;
+
+    private double averageLatencyMillis;
+    private double averageIntervalMillis;
+    private double averageStatementsPerSecond;
+    private long lastFlushMillis;
+    private long flushCount;
+
+    /**
+     * constructor
+     *
+     * @param targetLatencyMillis - latency budget (ms) of a flush, 0 for none
+     * @param targetRequestsPerSecond - max flush requests per second, 0 for none
+     * @param minCacheSize
+     * @param maxCacheSize
+     * @param minCacheMillis
+     * @param maxCacheMillis
+     */
+    public AdaptiveWriteCacheController(long targetLatencyMillis, double targetRequestsPerSecond,
+                                        long minCacheSize, long maxCacheSize, long minCacheMillis, long maxCacheMillis) {
+        if (minCacheSize < 1 || maxCacheSize < minCacheSize || minCacheMillis < 1 || maxCacheMillis < minCacheMillis) {
+            throw new IllegalArgumentException("Invalid write cache size or interval bounds.");
+        }
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.targetRequestsPerSecond = targetRequestsPerSecond;
+        this.minCacheSize = minCacheSize;
+        this.maxCacheSize = maxCacheSize;
+        this.minCacheMillis = minCacheMillis;
+        this.maxCacheMillis = maxCacheMillis;
+        this.cacheSize = minCacheSize;
+        this.cacheMillis = minCacheMillis;
+    }
+
+    /**
+     * starting point, clamped to bounds
+     *
+     * @param cacheSize
+     * @param cacheMillis
+     */
+    public synchronized void init(long cacheSize, long cacheMillis) {
+        this.cacheSize = clamp(cacheSize, minCacheSize, maxCacheSize);
+        this.cacheMillis = clamp(cacheMillis, minCacheMillis, maxCacheMillis);
+    }
+
+    /**
+     * records a completed flush and adjusts settings
+     *
+     * @param statements
+     * @param latencyMillis
+     */
+    public synchronized void onFlush(int statements, long latencyMillis) {
+        long now = System.currentTimeMillis();
+        double latency = Math.max(1, latencyMillis);
+        if (flushCount == 0) {
+            averageLatencyMillis = latency;
+            averageStatementsPerSecond = statements * 1000.0 / latency;
+        } else {
+            averageLatencyMillis = smooth(averageLatencyMillis, latency);
+            averageStatementsPerSecond = smooth(averageStatementsPerSecond, statements * 1000.0 / latency);
+            double interval = Math.max(1, now - lastFlushMillis);
+            averageIntervalMillis = flushCount == 1 ? interval : smooth(averageIntervalMillis, interval);
+        }
+        lastFlushMillis = now;
+        flushCount++;
+        adjust();
+    }
+
+    /**
+     * effective number of statements per batch
+     *
+     * @return long
+     */
+    public synchronized long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * effective max time (ms) statements wait before flush
+     *
+     * @return long
+     */
+    public synchronized long getCacheMillis() {
+        return cacheMillis;
+    }
+
+    /**
+     * smoothed flush latency (ms)
+     *
+     * @return double
+     */
+    public synchronized double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    /**
+     * smoothed flush requests per second
+     *
+     * @return double
+     */
+    public synchronized double getRequestsPerSecond() {
+        return averageIntervalMillis == 0 ? 0 : 1000.0 / averageIntervalMillis;
+    }
+
+    /**
+     * smoothed statements per second sent while flushing
+     *
+     * @return double
+     */
+    public synchronized double getStatementsPerSecond() {
+        return averageStatementsPerSecond;
+    }
+
+    /**
+     *
+     * @return long
+     */
+    public long getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+
+    /**
+     *
+     * @return double
+     */
+    public double getTargetRequestsPerSecond() {
+        return targetRequestsPerSecond;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveWriteCacheController[cacheSize=" + cacheSize + ", cacheMillis=" + cacheMillis
+                + ", latencyMillis=" + Math.round(averageLatencyMillis) + "/" + targetLatencyMillis
+                + ", requestsPerSecond=" + String.format("%.2f", getRequestsPerSecond()) + "/" + targetRequestsPerSecond
+                + ", statementsPerSecond=" + Math.round(averageStatementsPerSecond) + "]";
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * must hold lock
+     *
+     */
+    private void adjust() {
+        long size = cacheSize;
+        long millis = cacheMillis;
+        double requestsPerSecond = getRequestsPerSecond();
+        if (targetLatencyMillis > 0 && averageLatencyMillis > targetLatencyMillis) {
+            size = (long) (size * SHRINK);
+        } else if (targetRequestsPerSecond > 0 && requestsPerSecond > targetRequestsPerSecond) {
+            size = (long) Math.ceil(size * GROWTH);
+            millis = (long) Math.ceil(millis * GROWTH);
+        } else if (targetLatencyMillis > 0 && averageLatencyMillis < targetLatencyMillis / 2.0) {
+            size = (long) Math.ceil(size * GROWTH);
+        } else if (targetRequestsPerSecond > 0 && requestsPerSecond < targetRequestsPerSecond / 2.0) {
+            size = (long) (size * SHRINK);
+            millis = (long) (millis * SHRINK);
+        }
+        size = clamp(size, minCacheSize, maxCacheSize);
+        millis = clamp(millis, minCacheMillis, maxCacheMillis);
+        if (size != cacheSize || millis != cacheMillis) {
+            log.debug("adjusting write cache: {}", this);
+            cacheSize = size;
+            cacheMillis = millis;
+        }
+    }
+
+    private static double smooth(double average, double sample) {
+        return average + SMOOTHING * (sample - average);
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import org.openrdf.model.Statement;
+import org.openrdf.query.GraphQueryResult;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParser;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * graph query result parsed in the background, statements handed over in batches
+ *
+ * Namespaces are available once the first statement is parsed.
+ *
+ */
+class BatchedBackgroundGraphResult extends BatchedBackgroundResult<Statement> implements GraphQueryResult, RDFHandler {
+
+    private final RDFParser parser;
+    private final Charset charset;
+    private final String baseURI;
+
+    private final Map<String, String> namespaces = new HashMap<>();
+    private final CountDownLatch namespacesReady = new CountDownLatch(1);
+
+    /**
+     * constructor
+     *
+     * @param parser
+     * @param in
+     * @param charset
+     * @param baseURI
+     * @param capacity
+     * @param batchSize
+     */
+    BatchedBackgroundGraphResult(RDFParser parser, InputStream in, Charset charset, String baseURI, int capacity, int batchSize) {
+        super(in, capacity, batchSize);
+        this.parser = parser;
+        this.charset = charset;
+        this.baseURI = baseURI;
+    }
+
+    @Override
+    protected void parse() throws Exception {
+        parser.setRDFHandler(this);
+        parser.parse(new InputStreamReader(in, charset), baseURI);
+    }
+
+    @Override
+    protected void parsingFinished() {
+        namespacesReady.countDown();
+    }
+
+    @Override
+    public Map<String, String> getNamespaces() throws QueryEvaluationException {
+        try {
+            namespacesReady.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryEvaluationException(e);
+        }
+        synchronized (namespaces) {
+            return Collections.unmodifiableMap(new HashMap<>(namespaces));
+        }
+    }
+
+    @Override
+    public void startRDF() throws RDFHandlerException {
+    }
+
+    @Override
+    public void endRDF() throws RDFHandlerException {
+    }
+
+    @Override
+    public void handleNamespace(String prefix, String uri) throws RDFHandlerException {
+        synchronized (namespaces) {
+            namespaces.put(prefix, uri);
+        }
+    }
+
+    @Override
+    public void handleStatement(Statement st) throws RDFHandlerException {
+        namespacesReady.countDown();
+        if (!handle(st)) {
+            throw new RDFHandlerException("query result closed");
+        }
+    }
+
+    @Override
+    public void handleComment(String comment) throws RDFHandlerException {
+    }
+}
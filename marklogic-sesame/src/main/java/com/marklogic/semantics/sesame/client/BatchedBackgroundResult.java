@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import info.aduna.iteration.Iteration;
+import info.aduna.iteration.LookAheadIteration;
+import org.openrdf.query.QueryEvaluationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * background query result handing parsed elements to the consumer in batches
+ *
+ * The parser thread fills a batch of batchSize elements and queues it whole,
+ * the consumer takes a batch from the queue and reads its elements without
+ * further synchronization. At most capacity elements wait in the queue.
+ * Closing the result discards queued batches and stops the parser.
+ *
+ */
+abstract class BatchedBackgroundResult<E> extends LookAheadIteration<E, QueryEvaluationException> implements Runnable, MarkLogicBatchResult<E> {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchedBackgroundResult.class);
+
+    public static final int DEFAULT_QUEUE_BATCHES = 16;
+
+    private static final long OFFER_WAIT_MILLIS = 100;
+
+    protected final InputStream in;
+
+    private final int batchSize;
+    private final BlockingQueue<List<E>> queue;
+    private final List<E> end = new ArrayList<>(0);
+
+    private List<E> buffer;
+
+    private List<E> current = Collections.emptyList();
+    private int index = 0;
+    private boolean ended = false;
+
+    private volatile boolean closed = false;
+    private volatile Exception error;
+
+    /**
+     * constructor
+     *
+     * @param in
+     * @param capacity - max elements waiting in queue, 0 queues DEFAULT_QUEUE_BATCHES batches
+     * @param batchSize - elements per handoff
+     */
+    BatchedBackgroundResult(InputStream in, int capacity, int batchSize) {
+        this.in = in;
+        this.batchSize = Math.max(1, batchSize);
+        this.queue = new ArrayBlockingQueue<>(capacity > 0 ? Math.max(1, capacity / this.batchSize) : DEFAULT_QUEUE_BATCHES);
+        this.buffer = new ArrayList<>(this.batchSize);
+    }
+
+    /**
+     * parses stream, handing each element to handle()
+     *
+     * @throws Exception
+     */
+    protected abstract void parse() throws Exception;
+
+    /**
+     * called once parsing stopped, successful or not
+     */
+    protected void parsingFinished() {
+    }
+
+    @Override
+    public final void run() {
+        try {
+            parse();
+            if (!buffer.isEmpty()) {
+                hand(buffer);
+            }
+        } catch (Exception e) {
+            if (!closed) {
+                error = e;
+            }
+        } finally {
+            closeStream();
+            hand(end);
+            parsingFinished();
+        }
+    }
+
+    /**
+     * adds element to current batch, queueing the batch when full
+     *
+     * @param element
+     * @return false if result was closed and parsing should stop
+     */
+    protected final boolean handle(E element) {
+        buffer.add(element);
+        if (buffer.size() < batchSize) {
+            return true;
+        }
+        List<E> full = buffer;
+        buffer = new ArrayList<>(batchSize);
+        return hand(full);
+    }
+
+    @Override
+    protected E getNextElement() throws QueryEvaluationException {
+        if (index < current.size() || takeBatch()) {
+            return current.get(index++);
+        }
+        return null;
+    }
+
+    /**
+     * returns up to max elements, blocking only until the first is available
+     *
+     * @param max
+     * @return elements, empty if result is exhausted
+     * @throws QueryEvaluationException
+     */
+    @Override
+    public List<E> nextBatch(int max) throws QueryEvaluationException {
+        if (max < 1 || !hasNext()) {
+            return Collections.emptyList();
+        }
+        List<E> batch = new ArrayList<>(Math.min(max, batchSize));
+        batch.add(next());
+        while (batch.size() < max) {
+            if (index < current.size()) {
+                int to = Math.min(current.size(), index + max - batch.size());
+                batch.addAll(current.subList(index, to));
+                index = to;
+                continue;
+            }
+            List<E> available = queue.peek();
+            if (available == null || available == end) {
+                break;
+            }
+            current = queue.poll();
+            index = 0;
+        }
+        return batch;
+    }
+
+    @Override
+    protected void handleClose() throws QueryEvaluationException {
+        closed = true;
+        queue.clear();
+        closeStream();
+        current = Collections.emptyList();
+        super.handleClose();
+    }
+
+    /**
+     * nextBatch for results handing over one element at a time
+     *
+     * @param iter
+     * @param max
+     * @return up to max elements, empty if iteration is exhausted
+     * @throws X
+     */
+    static <E, X extends Exception> List<E> drain(Iteration<? extends E, X> iter, int max) throws X {
+        List<E> batch = new ArrayList<>();
+        while (batch.size() < max && iter.hasNext()) {
+            batch.add(iter.next());
+        }
+        return batch;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * queues batch, waiting for room unless result is closed
+     */
+    private boolean hand(List<E> batch) {
+        try {
+            while (!queue.offer(batch, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    return false;
+                }
+            }
+            return !closed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * takes next non empty batch, false at end of result
+     */
+    private boolean takeBatch() throws QueryEvaluationException {
+        while (!ended) {
+            List<E> batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new QueryEvaluationException(e);
+            }
+            if (batch == end) {
+                ended = true;
+                if (error != null) {
+                    throw new QueryEvaluationException(error);
+                }
+                return false;
+            }
+            if (!batch.isEmpty()) {
+                current = batch;
+                index = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void closeStream() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            logger.debug("failed closing result stream", e);
+        }
+    }
+}
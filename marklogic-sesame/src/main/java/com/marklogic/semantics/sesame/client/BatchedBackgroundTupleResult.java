@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryResultHandlerException;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.query.TupleQueryResultHandlerException;
+import org.openrdf.query.resultio.TupleQueryResultParser;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * tuple query result parsed in the background, solutions handed over in batches
+ *
+ */
+class BatchedBackgroundTupleResult extends BatchedBackgroundResult<BindingSet> implements TupleQueryResult, TupleQueryResultHandler {
+
+    private final TupleQueryResultParser parser;
+
+    private volatile List<String> bindingNames;
+    private final CountDownLatch bindingNamesReady = new CountDownLatch(1);
+
+    /**
+     * constructor
+     *
+     * @param parser
+     * @param in
+     * @param capacity
+     * @param batchSize
+     */
+    BatchedBackgroundTupleResult(TupleQueryResultParser parser, InputStream in, int capacity, int batchSize) {
+        super(in, capacity, batchSize);
+        this.parser = parser;
+    }
+
+    @Override
+    protected void parse() throws Exception {
+        parser.setTupleQueryResultHandler(this);
+        parser.parse(in);
+    }
+
+    @Override
+    protected void parsingFinished() {
+        bindingNamesReady.countDown();
+    }
+
+    @Override
+    public List<String> getBindingNames() throws QueryEvaluationException {
+        try {
+            bindingNamesReady.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryEvaluationException(e);
+        }
+        if (bindingNames == null) {
+            // parse failed before head, surface its error
+            hasNext();
+            return Collections.emptyList();
+        }
+        return bindingNames;
+    }
+
+    @Override
+    public void startQueryResult(List<String> bindingNames) throws TupleQueryResultHandlerException {
+        this.bindingNames = bindingNames;
+        bindingNamesReady.countDown();
+    }
+
+    @Override
+    public void endQueryResult() throws TupleQueryResultHandlerException {
+    }
+
+    @Override
+    public void handleSolution(BindingSet bindingSet) throws TupleQueryResultHandlerException {
+        if (!handle(bindingSet)) {
+            throw new TupleQueryResultHandlerException("query result closed");
+        }
+    }
+
+    @Override
+    public void handleBoolean(boolean value) throws QueryResultHandlerException {
+        throw new QueryResultHandlerException("Cannot handle boolean results");
+    }
+
+    @Override
+    public void handleLinks(List<String> linkUrls) throws QueryResultHandlerException {
+    }
+}
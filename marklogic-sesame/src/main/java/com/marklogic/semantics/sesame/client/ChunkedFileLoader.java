@@ -0,0 +1,602 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.client.io.OutputStreamHandle;
+import com.marklogic.client.io.OutputStreamSender;
+import com.marklogic.client.io.marker.QuadsWriteHandle;
+import com.marklogic.client.io.marker.TriplesWriteHandle;
+import com.marklogic.semantics.sesame.MarkLogicSesameException;
+import org.openrdf.model.Resource;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * loads a large N-Triples or N-Quads file as a series of requests
+ *
+ * The file is split on line boundaries into chunks of about chunkBytes,
+ * each chunk is memory mapped and streamed into its own request, so no
+ * request or server transaction grows with the file. Chunks are loaded
+ * by up to the given number of workers, the caller's thread being one of
+ * them and the others running on the flush scheduler's lane threads when
+ * free. Inside a transaction chunks load one at a time on the caller's
+ * thread. A failed chunk is retried up to maxRetries times, chunks that
+ * still fail are reported once all others are loaded.
+ *
+ * With a checkpoint file set, each committed chunk is recorded locally so
+ * a load that failed or crashed resumes with the chunks still missing
+ * when run again with the same checkpoint; the checkpoint is removed once
+ * every chunk is loaded. Checkpointed loads can not run in a transaction.
+ *
+ * Blank node labels are scoped to the request carrying them, so a label
+ * used in more than one chunk yields a blank node per chunk.
+ *
+ */
+public class ChunkedFileLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedFileLoader.class);
+
+    public static final long DEFAULT_CHUNK_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_WORKERS = 4;
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final long RETRY_DELAY_MILLIS = 250;
+
+    private static final int SCAN_BUFFER_SIZE = 8192;
+
+    /**
+     * chunk states
+     */
+    public enum Status { PENDING, LOADING, RETRYING, LOADED, FAILED, SKIPPED }
+
+    /**
+     * notified as chunks change state, called on worker threads
+     */
+    public interface Listener {
+        void chunkChanged(ChunkedFileLoader loader, Chunk chunk);
+    }
+
+    private final MarkLogicClient client;
+    private final WriteCacheFlushScheduler scheduler;
+    private final File file;
+    private final RDFFormat dataFormat;
+    private final Resource[] contexts;
+    private final long chunkBytes;
+    private final int workers;
+    private final int maxRetries;
+
+    private volatile Listener listener;
+    private File checkpointFile;
+    private FileLoadCheckpoint checkpoint;
+    private volatile IOException checkpointError;
+
+    private List<Chunk> chunks = Collections.emptyList();
+    private FileChannel channel;
+
+    private final AtomicInteger nextChunk = new AtomicInteger();
+    private final AtomicLong loadedBytes = new AtomicLong();
+    private final AtomicInteger loadedChunkCount = new AtomicInteger();
+    private final AtomicInteger retryCount = new AtomicInteger();
+    private int skippedChunkCount;
+
+    /**
+     * constructor
+     *
+     * @param client
+     * @param scheduler
+     * @param file
+     * @param dataFormat - NTRIPLES or NQUADS
+     * @param chunkBytes
+     * @param workers - max chunks loading at once, 1 loads on caller thread
+     * @param maxRetries
+     * @param contexts
+     */
+    ChunkedFileLoader(MarkLogicClient client, WriteCacheFlushScheduler scheduler, File file, RDFFormat dataFormat, long chunkBytes, int workers, int maxRetries, Resource... contexts) {
+        if (!isLineBased(dataFormat)) {
+            throw new IllegalArgumentException("Chunked loading requires N-Triples or N-Quads, not " + dataFormat.getName() + ".");
+        }
+        this.client = client;
+        this.scheduler = scheduler;
+        this.file = file;
+        this.dataFormat = dataFormat;
+        this.contexts = contexts;
+        this.chunkBytes = Math.min(Math.max(1, chunkBytes), Integer.MAX_VALUE);
+        this.workers = Math.max(1, workers);
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * true if format can be split on line boundaries
+     *
+     * @param dataFormat
+     * @return boolean
+     */
+    public static boolean isLineBased(RDFFormat dataFormat) {
+        return RDFFormat.NTRIPLES.equals(dataFormat) || RDFFormat.NQUADS.equals(dataFormat);
+    }
+
+    /**
+     * splits file and loads all chunks
+     *
+     * @throws RDFParseException if any chunk failed to load after retries
+     */
+    public void load() throws RDFParseException {
+        try {
+            if (CompressedInput.detect(file) != CompressedInput.Compression.NONE) {
+                throw new RDFParseException("Chunked loading requires an uncompressed file, " + file + " is compressed.");
+            }
+        } catch (IOException e) {
+            throw new RDFParseException("Failed reading " + file + ": " + e.getLocalizedMessage());
+        }
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.channel = ch;
+            this.chunks = split(ch);
+            if (checkpointFile != null) {
+                this.checkpoint = new FileLoadCheckpoint(checkpointFile, file, dataFormat, chunkBytes, chunks.size(), contexts);
+                skipCommittedChunks();
+            }
+            logger.debug("loading {} in {} chunks with {} workers", file, chunks.size(), workers);
+
+            int helpers = Math.min(workers, chunks.size()) - 1;
+            CountDownLatch done = new CountDownLatch(Math.max(0, helpers));
+            for (int i = 0; i < helpers; i++) {
+                Worker worker = new Worker(done);
+                if (!scheduler.executeLane(worker)) {
+                    worker.run();
+                }
+            }
+            loadChunks();
+            done.await();
+        } catch (IOException e) {
+            closeCheckpoint(false);
+            throw new RDFParseException("Failed reading " + file + ": " + e.getLocalizedMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closeCheckpoint(false);
+            throw new RDFParseException("Interrupted loading " + file + ".");
+        } finally {
+            this.channel = null;
+        }
+        int failed = chunks.size() - loadedChunkCount.get();
+        closeCheckpoint(failed == 0 && checkpointError == null);
+        if (failed > 0) {
+            throw new RDFParseException("Request to MarkLogic server failed for " + failed + " of " + chunks.size() + " chunks of " + file + ", check file and format.");
+        }
+        if (checkpointError != null) {
+            throw new RDFParseException("Failed writing checkpoint " + checkpointFile + ": " + checkpointError.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * sets local file recording committed chunks, load resumes from it if it exists
+     *
+     * @param checkpointFile
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * getter for checkpoint file
+     *
+     * @return File
+     */
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * setter for listener
+     *
+     * @param listener
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * chunks of the file, empty until load starts
+     *
+     * @return List<Chunk>
+     */
+    public List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * number of chunks
+     *
+     * @return int
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * number of chunks loaded
+     *
+     * @return int
+     */
+    public int getLoadedChunkCount() {
+        return loadedChunkCount.get();
+    }
+
+    /**
+     * number of bytes of file loaded
+     *
+     * @return long
+     */
+    public long getLoadedBytes() {
+        return loadedBytes.get();
+    }
+
+    /**
+     * number of bytes of file
+     *
+     * @return long
+     */
+    public long getTotalBytes() {
+        return file.length();
+    }
+
+    /**
+     * number of chunks skipped as committed by an earlier load
+     *
+     * @return int
+     */
+    public int getSkippedChunkCount() {
+        return skippedChunkCount;
+    }
+
+    /**
+     * number of chunk retries
+     *
+     * @return int
+     */
+    public int getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * number of chunks that failed after retries
+     *
+     * @return int
+     */
+    public int getFailedChunkCount() {
+        int failed = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk.getStatus() == Status.FAILED) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * max chunks loading at once
+     *
+     * @return int
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkedFileLoader[file=" + file + ", chunks=" + getChunkCount() + ", loaded=" + getLoadedChunkCount() + ", skipped=" + getSkippedChunkCount()
+                + ", loadedBytes=" + getLoadedBytes() + ", totalBytes=" + getTotalBytes() + ", retries=" + getRetryCount() + "]";
+    }
+
+    /**
+     * byte range of the file loaded by a single request
+     */
+    public static class Chunk {
+        private final int index;
+        private final long offset;
+        private final long length;
+        private volatile Status status = Status.PENDING;
+        private volatile int attempts;
+        private volatile Exception error;
+
+        private Chunk(int index, long offset, long length) {
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * number of requests sent for chunk
+         *
+         * @return int
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * failure of last attempt, null if it succeeded
+         *
+         * @return Exception
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk[index=" + index + ", offset=" + offset + ", length=" + length + ", status=" + status + ", attempts=" + attempts + "]";
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * splits file into chunks ending on a line boundary
+     *
+     * @param ch
+     * @return List<Chunk>
+     * @throws IOException
+     */
+    private List<Chunk> split(FileChannel ch) throws IOException {
+        long size = ch.size();
+        List<Chunk> result = new ArrayList<>();
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long offset = 0;
+        while (offset < size) {
+            long end = offset + chunkBytes;
+            if (end >= size) {
+                end = size;
+            } else {
+                end = nextLineStart(ch, end - 1, size, scan);
+            }
+            result.add(new Chunk(result.size(), offset, end - offset));
+            offset = end;
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * position after first newline at or after position
+     *
+     * @param ch
+     * @param position
+     * @param size
+     * @param scan
+     * @return long
+     * @throws IOException
+     */
+    private static long nextLineStart(FileChannel ch, long position, long size, ByteBuffer scan) throws IOException {
+        long pos = position;
+        while (pos < size) {
+            scan.clear();
+            int read = ch.read(scan, pos);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (scan.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += read;
+        }
+        return size;
+    }
+
+    /**
+     * marks chunks recorded in checkpoint as loaded
+     */
+    private void skipCommittedChunks() {
+        for (Chunk chunk : chunks) {
+            if (checkpoint.isCommitted(chunk.index)) {
+                chunk.status = Status.SKIPPED;
+                skippedChunkCount++;
+                loadedBytes.addAndGet(chunk.length);
+                loadedChunkCount.incrementAndGet();
+                notifyListener(chunk);
+            }
+        }
+    }
+
+    /**
+     * removes checkpoint if load completed, else keeps it for resuming
+     *
+     * @param completed
+     */
+    private void closeCheckpoint(boolean completed) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            if (completed) {
+                checkpoint.delete();
+            } else {
+                checkpoint.close();
+            }
+        } catch (IOException e) {
+            logger.warn("failed closing checkpoint {}: {}", checkpointFile, e.getLocalizedMessage());
+        } finally {
+            checkpoint = null;
+        }
+    }
+
+    /**
+     * records chunk in checkpoint
+     *
+     * @param chunk
+     */
+    private void commitCheckpoint(Chunk chunk) {
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            checkpoint.commit(chunk.index);
+        } catch (IOException e) {
+            logger.error("failed recording {} in checkpoint {}: {}", chunk, checkpointFile, e.getLocalizedMessage());
+            checkpointError = e;
+        }
+    }
+
+    /**
+     * loads chunks until none are left
+     */
+    private void loadChunks() {
+        int index;
+        while ((index = nextChunk.getAndIncrement()) < chunks.size()) {
+            loadChunk(chunks.get(index));
+        }
+    }
+
+    /**
+     * loads chunk, retrying failed requests
+     *
+     * @param chunk
+     */
+    private void loadChunk(Chunk chunk) {
+        if (chunk.status == Status.SKIPPED) {
+            return;
+        }
+        ChunkWriteHandle handle = new ChunkWriteHandle(channel, chunk, dataFormat);
+        while (true) {
+            chunk.attempts++;
+            chunk.status = chunk.attempts == 1 ? Status.LOADING : Status.RETRYING;
+            notifyListener(chunk);
+            try {
+                client.sendAdd(handle, dataFormat, contexts);
+                chunk.error = null;
+                chunk.status = Status.LOADED;
+                commitCheckpoint(chunk);
+                loadedBytes.addAndGet(chunk.length);
+                loadedChunkCount.incrementAndGet();
+                notifyListener(chunk);
+                return;
+            } catch (MarkLogicSesameException | RuntimeException e) {
+                chunk.error = e;
+                if (chunk.attempts > maxRetries) {
+                    logger.error("failed loading {} of {} after {} attempts: {}", chunk, file, chunk.attempts, e.getLocalizedMessage());
+                    chunk.status = Status.FAILED;
+                    notifyListener(chunk);
+                    return;
+                }
+                logger.debug("retrying {} of {}: {}", chunk, file, e.getLocalizedMessage());
+                retryCount.incrementAndGet();
+                if (!sleep(RETRY_DELAY_MILLIS * chunk.attempts)) {
+                    chunk.status = Status.FAILED;
+                    notifyListener(chunk);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void notifyListener(Chunk chunk) {
+        Listener l = listener;
+        if (l != null) {
+            l.chunkChanged(this, chunk);
+        }
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * loads chunks on a lane thread
+     */
+    private class Worker implements Runnable {
+        private final CountDownLatch done;
+
+        private Worker(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                loadChunks();
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * write handle streaming a memory mapped chunk of the file into the request body
+     */
+    private static class ChunkWriteHandle extends OutputStreamHandle implements QuadsWriteHandle, TriplesWriteHandle {
+
+        private ChunkWriteHandle(final FileChannel channel, final Chunk chunk, RDFFormat dataFormat) {
+            super(new OutputStreamSender() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, chunk.offset, chunk.length);
+                    WritableByteChannel target = Channels.newChannel(out);
+                    while (mapped.hasRemaining()) {
+                        target.write(mapped);
+                    }
+                    out.flush();
+                }
+            });
+            setMimetype(dataFormat.getDefaultMIMEType());
+            setResendable(true);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * detects gzip and zip compressed input by its leading magic bytes
+ *
+ */
+final class CompressedInput {
+
+    enum Compression { NONE, GZIP, ZIP }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CompressedInput() {
+    }
+
+    /**
+     * buffers stream so its compression can be detected without consuming it
+     *
+     * @param in
+     * @return BufferedInputStream
+     */
+    static BufferedInputStream buffer(InputStream in) {
+        if (in instanceof BufferedInputStream) {
+            return (BufferedInputStream) in;
+        }
+        return new BufferedInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * compression of buffered stream, stream position is unchanged
+     *
+     * @param in
+     * @return Compression
+     * @throws IOException
+     */
+    static Compression detect(BufferedInputStream in) throws IOException {
+        byte[] magic = new byte[4];
+        in.mark(magic.length);
+        int read = 0;
+        try {
+            int n;
+            while (read < magic.length && (n = in.read(magic, read, magic.length - read)) > 0) {
+                read += n;
+            }
+        } finally {
+            in.reset();
+        }
+        return detect(magic, read);
+    }
+
+    /**
+     * compression of file
+     *
+     * @param file
+     * @return Compression
+     * @throws IOException
+     */
+    static Compression detect(File file) throws IOException {
+        byte[] magic = new byte[4];
+        int read = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while (read < magic.length && (n = in.read(magic, read, magic.length - read)) > 0) {
+                read += n;
+            }
+        }
+        return detect(magic, read);
+    }
+
+    private static Compression detect(byte[] magic, int length) {
+        if (length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return Compression.GZIP;
+        }
+        if (length >= 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4) {
+            return Compression.ZIP;
+        }
+        return Compression.NONE;
+    }
+}
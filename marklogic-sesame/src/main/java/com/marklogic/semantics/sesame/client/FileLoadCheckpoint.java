@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Resource;
+import org.openrdf.rio.RDFFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * local file recording which chunks of a chunked file load are committed
+ *
+ * The header identifies the loaded file and how it was split, a line is
+ * appended and synced to disk as each chunk commits. A checkpoint whose
+ * header does not match the current load (file changed, different chunk
+ * size, other target contexts) is discarded and the load starts over. A line torn by a crash is
+ * dropped on resume, that chunk is simply loaded again.
+ *
+ */
+class FileLoadCheckpoint implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileLoadCheckpoint.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String CHUNK = "chunk";
+
+    private final File checkpointFile;
+    private final BitSet committed = new BitSet();
+    private FileOutputStream out;
+    private long completeLength;
+
+    /**
+     * opens checkpoint, resuming it if it matches the load, else starting a new one
+     *
+     * @param checkpointFile
+     * @param file
+     * @param dataFormat
+     * @param chunkBytes
+     * @param chunkCount
+     * @param contexts
+     * @throws IOException
+     */
+    FileLoadCheckpoint(File checkpointFile, File file, RDFFormat dataFormat, long chunkBytes, int chunkCount, Resource... contexts) throws IOException {
+        this.checkpointFile = checkpointFile;
+        Map<String, String> header = new LinkedHashMap<>();
+        header.put("file", file.getAbsolutePath());
+        header.put("length", Long.toString(file.length()));
+        header.put("lastModified", Long.toString(file.lastModified()));
+        header.put("format", dataFormat.getName());
+        header.put("chunkBytes", Long.toString(chunkBytes));
+        header.put("chunks", Integer.toString(chunkCount));
+        header.put("contexts", contextsValue(contexts));
+
+        if (checkpointFile.exists() && read(header)) {
+            logger.info("resuming load of {} from checkpoint {}, {} of {} chunks committed", file, checkpointFile, committed.cardinality(), chunkCount);
+            try (FileChannel ch = FileChannel.open(checkpointFile.toPath(), StandardOpenOption.WRITE)) {
+                ch.truncate(completeLength);
+            }
+            this.out = new FileOutputStream(checkpointFile, true);
+        } else {
+            if (checkpointFile.exists()) {
+                logger.warn("checkpoint {} does not match load of {}, starting over", checkpointFile, file);
+            }
+            committed.clear();
+            this.out = new FileOutputStream(checkpointFile, false);
+            StringBuilder sb = new StringBuilder("# marklogic-sesame chunked file load checkpoint\n");
+            for (Map.Entry<String, String> entry : header.entrySet()) {
+                sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+            }
+            write(sb.toString());
+        }
+    }
+
+    /**
+     * true if chunk was committed by an earlier load
+     *
+     * @param index
+     * @return boolean
+     */
+    synchronized boolean isCommitted(int index) {
+        return committed.get(index);
+    }
+
+    /**
+     * number of chunks committed
+     *
+     * @return int
+     */
+    synchronized int getCommittedCount() {
+        return committed.cardinality();
+    }
+
+    /**
+     * records chunk as committed, synced to disk before returning
+     *
+     * @param index
+     * @throws IOException
+     */
+    synchronized void commit(int index) throws IOException {
+        write(CHUNK + "=" + index + "\n");
+        committed.set(index);
+    }
+
+    /**
+     * closes and removes checkpoint once load completed
+     *
+     * @throws IOException
+     */
+    synchronized void delete() throws IOException {
+        close();
+        if (!checkpointFile.delete()) {
+            logger.warn("could not delete checkpoint {}", checkpointFile);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void write(String line) throws IOException {
+        out.write(line.getBytes(UTF8));
+        out.flush();
+        out.getFD().sync();
+    }
+
+    /**
+     * target contexts as a single header value, null is the default graph
+     *
+     * @param contexts
+     * @return String
+     */
+    private static String contextsValue(Resource... contexts) {
+        StringBuilder sb = new StringBuilder();
+        if (contexts != null) {
+            for (Resource context : contexts) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                if (context == null) {
+                    sb.append("null");
+                } else if (context instanceof BNode) {
+                    sb.append("_:").append(context.stringValue());
+                } else {
+                    sb.append('<').append(context.stringValue()).append('>');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * reads committed chunks if header matches
+     *
+     * @param header
+     * @return true if checkpoint belongs to this load
+     * @throws IOException
+     */
+    private boolean read(Map<String, String> header) throws IOException {
+        Map<String, String> found = new LinkedHashMap<>();
+        byte[] content = Files.readAllBytes(checkpointFile.toPath());
+        // only complete lines, a line torn by a crash may hold a truncated chunk index
+        int length = content.length;
+        while (length > 0 && content[length - 1] != '\n') {
+            length--;
+        }
+        this.completeLength = length;
+        for (String line : new String(content, 0, length, UTF8).split("\n")) {
+            int eq = line.indexOf('=');
+            if (line.startsWith("#") || eq < 0) {
+                continue;
+            }
+            String key = line.substring(0, eq);
+            String value = line.substring(eq + 1);
+            if (CHUNK.equals(key)) {
+                try {
+                    committed.set(Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            } else {
+                found.put(key, value);
+            }
+        }
+        return found.equals(header);
+    }
+}
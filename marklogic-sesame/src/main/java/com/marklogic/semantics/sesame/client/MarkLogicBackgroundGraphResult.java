@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.List;
 
 /**
  * wrapper on Sesame BackgroundGraphResult
@@ -32,7 +33,7 @@ import java.nio.charset.Charset;
  * @author James Fuller
  */
 
-class MarkLogicBackgroundGraphResult extends BackgroundGraphResult
+class MarkLogicBackgroundGraphResult extends BackgroundGraphResult implements MarkLogicBatchResult<Statement>
 {
     private static final Logger logger = LoggerFactory.getLogger(MarkLogicBackgroundGraphResult.class);
 
@@ -90,4 +91,12 @@ class MarkLogicBackgroundGraphResult extends BackgroundGraphResult
         }
     }
 
+    /**
+     * returns up to max statements, taken one at a time from the queue
+     *
+     */
+    @Override
+    public List<Statement> nextBatch(int max) throws QueryEvaluationException {
+        return BatchedBackgroundResult.drain(this, max);
+    }
 }
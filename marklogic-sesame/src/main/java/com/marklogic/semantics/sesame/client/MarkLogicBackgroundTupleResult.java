@@ -24,13 +24,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
+import java.util.List;
 
 /**
  * wrapper on Sesame BackgroundTupleResult
  *
  * @author James Fuller
  */
-class MarkLogicBackgroundTupleResult extends BackgroundTupleResult {
+class MarkLogicBackgroundTupleResult extends BackgroundTupleResult implements MarkLogicBatchResult<BindingSet> {
 
     private static final Logger logger = LoggerFactory.getLogger(MarkLogicBackgroundGraphResult.class);
 
@@ -83,4 +84,13 @@ class MarkLogicBackgroundTupleResult extends BackgroundTupleResult {
             logger.warn("MarkLogicBackgroundTupleResult handleClose() stream closed exception",e);
         }
     }
+
+    /**
+     * returns up to max solutions, taken one at a time from the queue
+     *
+     */
+    @Override
+    public List<BindingSet> nextBatch(int max) throws QueryEvaluationException {
+        return BatchedBackgroundResult.drain(this, max);
+    }
 }
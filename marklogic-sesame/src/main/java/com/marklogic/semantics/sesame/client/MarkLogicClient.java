@@ -22,36 +22,57 @@ package com.marklogic.semantics.sesame.client;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.Transaction;
+import com.marklogic.client.io.InputStreamHandle;
+import com.marklogic.client.io.marker.QuadsWriteHandle;
 import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.semantics.GraphPermissions;
 import com.marklogic.client.semantics.SPARQLRuleset;
 import com.marklogic.semantics.sesame.MarkLogicSesameException;
 import com.marklogic.semantics.sesame.MarkLogicTransactionException;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.io.input.ReaderInputStream;
+import org.openrdf.http.client.QueueCursor;
 import org.openrdf.http.protocol.UnauthorizedException;
 import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.query.*;
+import org.openrdf.query.impl.GraphQueryResultImpl;
+import org.openrdf.query.impl.TupleQueryResultBuilder;
 import org.openrdf.query.resultio.QueryResultIO;
+import org.openrdf.query.resultio.QueryResultParseException;
 import org.openrdf.query.resultio.TupleQueryResultFormat;
 import org.openrdf.query.resultio.TupleQueryResultParser;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
 import org.openrdf.rio.*;
 import org.openrdf.rio.helpers.ParseErrorLogger;
+import org.openrdf.rio.helpers.StatementCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.nio.charset.Charset;
-import java.util.Timer;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * An internal class that straddles Sesame and MarkLogic Java API client.
@@ -65,11 +86,25 @@ public class MarkLogicClient {
 	protected static final Charset UTF8 = Charset.forName("UTF-8");
 	protected static final Charset charset = UTF8;
 
-	protected static final TupleQueryResultFormat format = TupleQueryResultFormat.JSON;
-	protected static final RDFFormat rdfFormat = RDFFormat.NTRIPLES;
+	public static final TupleQueryResultFormat DEFAULT_TUPLE_RESULT_FORMAT = TupleQueryResultFormat.JSON;
+	public static final RDFFormat DEFAULT_GRAPH_RESULT_FORMAT = RDFFormat.NTRIPLES;
+
+	public static final List<TupleQueryResultFormat> TUPLE_RESULT_FORMATS = Collections.unmodifiableList(Arrays.asList(
+			TupleQueryResultFormat.JSON, TupleQueryResultFormat.SPARQL, TupleQueryResultFormat.TSV, TupleQueryResultFormat.CSV));
+	public static final List<RDFFormat> GRAPH_RESULT_FORMATS = Collections.unmodifiableList(Arrays.asList(
+			RDFFormat.NTRIPLES, RDFFormat.TURTLE, RDFFormat.RDFXML, RDFFormat.RDFJSON));
+
+	private TupleQueryResultFormat tupleResultFormat = DEFAULT_TUPLE_RESULT_FORMAT;
+	private RDFFormat graphResultFormat = DEFAULT_GRAPH_RESULT_FORMAT;
 	private MarkLogicClientImpl _client;
 
-	private final Executor executor = Executors.newCachedThreadPool();
+	private MarkLogicClientPool pool;
+	private boolean closed = false;
+
+	private ResultParsingExecutor parsingExecutor;
+	private boolean pullParsing = false;
+	private int resultQueueCapacity = 0;
+	private int resultBatchSize = 0;
 
 	private ValueFactory f;
 
@@ -78,7 +113,16 @@ public class MarkLogicClient {
 	private Transaction tx = null;
 
 	private WriteCacheTimerTask timerCache;
-	private Timer timer;
+	private WriteCacheFlushScheduler flushScheduler;
+	private WriteCacheBuffer.Type writeCacheBufferType = WriteCacheBuffer.Type.MODEL;
+	private int writeCacheParallelism = WriteCacheTimerTask.DEFAULT_PARALLELISM;
+	private long writeCacheBytes = 0;
+	private AdaptiveWriteCacheController writeCacheController;
+
+	private long fileChunkBytes = 0;
+	private int fileLoadWorkers = ChunkedFileLoader.DEFAULT_WORKERS;
+	private int fileLoadRetries = ChunkedFileLoader.DEFAULT_MAX_RETRIES;
+	private ChunkedFileLoader.Listener fileLoadListener;
 
 	private static boolean WRITE_CACHE_ENABLED = true;
 
@@ -93,6 +137,8 @@ public class MarkLogicClient {
 	 */
 	public MarkLogicClient(String host, int port, String user, String password,String auth) {
 		this._client = new MarkLogicClientImpl(host,port,user,password,auth);
+		this.flushScheduler = WriteCacheFlushScheduler.getDefault();
+		this.parsingExecutor = ResultParsingExecutor.getDefault();
 		this.initTimer();
 	}
 
@@ -103,41 +149,189 @@ public class MarkLogicClient {
 	 */
 	public MarkLogicClient(DatabaseClient databaseClient) {
 		this._client = new MarkLogicClientImpl(databaseClient);
+		this.flushScheduler = WriteCacheFlushScheduler.getDefault();
+		this.parsingExecutor = ResultParsingExecutor.getDefault();
+		this.initTimer();
+	}
+
+	/**
+	 * constructor init with DatabaseClient borrowed from pool, which is
+	 * returned to the pool on close, a shared write cache flush scheduler
+	 * and a shared result parsing executor
+	 *
+	 * @param pool
+	 * @param flushScheduler
+	 * @param parsingExecutor
+	 */
+	public MarkLogicClient(MarkLogicClientPool pool, WriteCacheFlushScheduler flushScheduler, ResultParsingExecutor parsingExecutor) {
+		this.pool = pool;
+		this._client = new MarkLogicClientImpl(pool.borrowClient());
+		this.flushScheduler = flushScheduler;
+		this.parsingExecutor = parsingExecutor;
 		this.initTimer();
 	}
 
 	/**
-	 * start Timer task (write cache)
+	 * start write cache, flushed by the shared flush scheduler
 	 */
 	public void initTimer(){
 		if(this.WRITE_CACHE_ENABLED) {
 			stopTimer();
-			timerCache = new WriteCacheTimerTask(this);
-			timer = new Timer();
-			timer.scheduleAtFixedRate(timerCache, WriteCacheTimerTask.DEFAULT_INITIAL_DELAY, WriteCacheTimerTask.DEFAULT_CACHE_MILLIS);
+			timerCache = new WriteCacheTimerTask(this, flushScheduler, WriteCacheTimerTask.DEFAULT_CACHE_SIZE, WriteCacheTimerTask.DEFAULT_CACHE_MILLIS, 2 * WriteCacheTimerTask.DEFAULT_CACHE_SIZE, writeCacheBufferType, writeCacheParallelism);
+			applyWriteCacheSettings();
 		}
 	}
 
+	/**
+	 * start write cache with custom settings
+	 *
+	 * @param initDelay - unused, flushes are scheduled when the cache becomes dirty
+	 * @param delayCache - max time (ms) triples wait in cache before flush
+	 * @param cacheSize - size (# triples) of write cache
+	 */
 	public void initTimer(long initDelay, long delayCache, long cacheSize ){
 		if(this.WRITE_CACHE_ENABLED) {
 			logger.debug("configuring write cache");
 			stopTimer();
-			timerCache = new WriteCacheTimerTask(this,cacheSize);
-			timer = new Timer();
-			timer.scheduleAtFixedRate(timerCache, initDelay, delayCache);
+			timerCache = new WriteCacheTimerTask(this, flushScheduler, cacheSize, delayCache, 2 * cacheSize, writeCacheBufferType, writeCacheParallelism);
+			applyWriteCacheSettings();
+		}
+	}
+
+	/**
+	 * start write cache with custom settings
+	 *
+	 * @param initDelay - unused, flushes are scheduled when the cache becomes dirty
+	 * @param delayCache - max time (ms) triples wait in cache before flush
+	 * @param cacheSize - size (# triples) of write cache
+	 * @param highWaterMark - size (# triples) at which add blocks while a flush is in flight
+	 */
+	public void initTimer(long initDelay, long delayCache, long cacheSize, long highWaterMark){
+		if(this.WRITE_CACHE_ENABLED) {
+			logger.debug("configuring write cache");
+			stopTimer();
+			timerCache = new WriteCacheTimerTask(this, flushScheduler, cacheSize, delayCache, highWaterMark, writeCacheBufferType, writeCacheParallelism);
+			applyWriteCacheSettings();
 		}
 	}
+
+	/**
+	 * getter for write cache buffer type
+	 *
+	 * @return
+	 */
+	public WriteCacheBuffer.Type getWriteCacheBufferType() {
+		return writeCacheBufferType;
+	}
+
+	/**
+	 * sets write cache buffer type, pending triples are flushed and
+	 * write cache is restarted with its current settings
+	 *
+	 * @param bufferType
+	 * @throws MarkLogicSesameException
+	 */
+	public void setWriteCacheBufferType(WriteCacheBuffer.Type bufferType) throws MarkLogicSesameException {
+		this.writeCacheBufferType = bufferType;
+		restartTimer();
+	}
+
+	/**
+	 * getter for number of context partitions write cache flushes concurrently
+	 *
+	 * @return
+	 */
+	public int getWriteCacheParallelism() {
+		return writeCacheParallelism;
+	}
+
+	/**
+	 * sets number of context partitions write cache flushes concurrently, pending
+	 * triples are flushed and write cache is restarted with its current settings
+	 *
+	 * @param parallelism
+	 * @throws MarkLogicSesameException
+	 */
+	public void setWriteCacheParallelism(int parallelism) throws MarkLogicSesameException {
+		this.writeCacheParallelism = Math.max(1, parallelism);
+		restartTimer();
+	}
+
 	/**
-	 * stop Timer task (write cache)
+	 * sets size (# nquads bytes) at which write cache is flushed regardless of number of triples, 0 disables
+	 *
+	 * @param cacheBytes
+	 */
+	public void setWriteCacheBytes(long cacheBytes) {
+		this.writeCacheBytes = cacheBytes;
+		applyWriteCacheSettings();
+	}
+
+	/**
+	 * sets controller adapting write cache size and interval to observed flushes, null disables
+	 *
+	 * @param controller
+	 */
+	public void setWriteCacheController(AdaptiveWriteCacheController controller) {
+		this.writeCacheController = controller;
+		applyWriteCacheSettings();
+	}
+
+	/**
+	 * returns write cache, its getters report current effective settings
+	 *
+	 * @return
+	 */
+	public WriteCacheTimerTask getWriteCache() {
+		return timerCache;
+	}
+
+	/**
+	 * applies settings not requiring a restart to write cache
+	 *
+	 */
+	private void applyWriteCacheSettings() {
+		if(timerCache != null) {
+			timerCache.setCacheBytes(writeCacheBytes);
+			timerCache.setController(writeCacheController);
+		}
+	}
+
+	/**
+	 * flushes and restarts write cache if its buffer settings changed
+	 *
+	 * @throws MarkLogicSesameException
+	 */
+	private void restartTimer() throws MarkLogicSesameException {
+		if(this.WRITE_CACHE_ENABLED && timerCache != null
+				&& (timerCache.getBufferType() != writeCacheBufferType || timerCache.getParallelism() != writeCacheParallelism)) {
+			sync();
+			initTimer(0, timerCache.getCacheMillis(), timerCache.getCacheSize(), timerCache.getHighWaterMark());
+		}
+	}
+
+	/**
+	 * true if file starts with gzip or zip magic bytes
+	 *
+	 * @param file
+	 * @return boolean
+	 */
+	private static boolean isCompressed(File file) {
+		try {
+			return CompressedInput.detect(file) != CompressedInput.Compression.NONE;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * stop write cache
 	 */
 	public void stopTimer() {
 		if(this.WRITE_CACHE_ENABLED) {
 			if(timerCache != null) {
 				timerCache.cancel();
 			}
-			if(timer != null){
-				timer.cancel();
-			}
 		}
 	}
 
@@ -187,18 +381,101 @@ public class MarkLogicClient {
 	 */
 	public TupleQueryResult sendTupleQuery(String queryString,SPARQLQueryBindingSet bindings, long start, long pageLength, boolean includeInferred, String baseURI) throws RepositoryException, MalformedQueryException,
 			QueryInterruptedException {
+		return sendTupleQuery(queryString, bindings, start, pageLength, includeInferred, baseURI, null);
+	}
+
+	/**
+	 * TupleQuery, requesting results in resultFormat
+	 *
+	 * @param queryString
+	 * @param bindings
+	 * @param start
+	 * @param pageLength
+	 * @param includeInferred
+	 * @param baseURI
+	 * @param resultFormat - null uses getTupleResultFormat()
+	 * @return
+	 * @throws RepositoryException
+	 * @throws MalformedQueryException
+	 * @throws QueryInterruptedException
+	 */
+	public TupleQueryResult sendTupleQuery(String queryString,SPARQLQueryBindingSet bindings, long start, long pageLength, boolean includeInferred, String baseURI, TupleQueryResultFormat resultFormat) throws RepositoryException, MalformedQueryException,
+			QueryInterruptedException {
+		if (resultFormat == null) {
+			resultFormat = this.tupleResultFormat;
+		}
+		checkTupleResultFormat(resultFormat);
 		sync();
 		InputStream stream = null;
 		try {
-			stream = getClient().performSPARQLQuery(queryString, bindings, start, pageLength, this.tx, includeInferred, baseURI);
+			InputStreamHandle handle = new InputStreamHandle().withMimetype(resultFormat.getDefaultMIMEType());
+			stream = getClient().performSPARQLQuery(queryString, bindings, handle, start, pageLength, this.tx, includeInferred, baseURI);
 		} catch (JsonProcessingException e) {
 			logger.error(e.getLocalizedMessage());
 			throw new MarkLogicSesameException("Issue processing json.");
 		}
-		TupleQueryResultParser parser = QueryResultIO.createParser(format, getValueFactory());
-		MarkLogicBackgroundTupleResult tRes = new MarkLogicBackgroundTupleResult(parser,stream);
-		execute(tRes);
-		return tRes;
+		if (pullParsing && resultFormat == TupleQueryResultFormat.JSON) {
+			try {
+				return new PullTupleQueryResult(stream, getValueFactory());
+			} catch (QueryEvaluationException e) {
+				logger.error(e.getLocalizedMessage());
+				throw new MarkLogicSesameException(e);
+			}
+		}
+		TupleQueryResultParser parser = QueryResultIO.createParser(resultFormat, getValueFactory());
+		if (resultBatchSize > 1) {
+			BatchedBackgroundTupleResult bRes = new BatchedBackgroundTupleResult(parser, stream, resultQueueCapacity, resultBatchSize);
+			if (execute(bRes)) {
+				return bRes;
+			}
+			return parseTupleQueryResult(parser, stream);
+		}
+		MarkLogicBackgroundTupleResult tRes;
+		if (resultQueueCapacity > 0) {
+			tRes = new MarkLogicBackgroundTupleResult(new QueueCursor<BindingSet>(resultQueueCapacity), parser, stream);
+		} else {
+			tRes = new MarkLogicBackgroundTupleResult(parser, stream);
+		}
+		if (execute(tRes)) {
+			return tRes;
+		}
+		return parseTupleQueryResult(parser, stream);
+	}
+
+	/**
+	 * TupleQuery page for paged results and exports, parsed fully on the calling thread
+	 *
+	 * Page fetches may themselves run on the parsing executor, so the page is never
+	 * handed back to it. The write cache is not synced, callers sync before their
+	 * first page and only fetch pages in the background outside a transaction.
+	 *
+	 * @param queryString
+	 * @param bindings
+	 * @param start
+	 * @param pageLength
+	 * @param includeInferred
+	 * @param baseURI
+	 * @param resultFormat - null uses getTupleResultFormat()
+	 * @return
+	 * @throws RepositoryException
+	 * @throws MalformedQueryException
+	 * @throws QueryInterruptedException
+	 */
+	public TupleQueryResult sendTupleQueryPage(String queryString,SPARQLQueryBindingSet bindings, long start, long pageLength, boolean includeInferred, String baseURI, TupleQueryResultFormat resultFormat) throws RepositoryException, MalformedQueryException,
+			QueryInterruptedException {
+		if (resultFormat == null) {
+			resultFormat = this.tupleResultFormat;
+		}
+		checkTupleResultFormat(resultFormat);
+		InputStream stream = null;
+		try {
+			InputStreamHandle handle = new InputStreamHandle().withMimetype(resultFormat.getDefaultMIMEType());
+			stream = getClient().performSPARQLQuery(queryString, bindings, handle, start, pageLength, this.tx, includeInferred, baseURI);
+		} catch (JsonProcessingException e) {
+			logger.error(e.getLocalizedMessage());
+			throw new MarkLogicSesameException("Issue processing json.");
+		}
+		return parseTupleQueryResult(QueryResultIO.createParser(resultFormat, getValueFactory()), stream);
 	}
 
 	/**
@@ -212,10 +489,30 @@ public class MarkLogicClient {
 	 * @throws IOException
 	 */
 	public GraphQueryResult sendGraphQuery(String queryString, SPARQLQueryBindingSet bindings, boolean includeInferred, String baseURI) throws IOException, MarkLogicSesameException {
+		return sendGraphQuery(queryString, bindings, includeInferred, baseURI, null);
+	}
+
+	/**
+	 * GraphQuery, requesting results in resultFormat
+	 *
+	 * @param queryString
+	 * @param bindings
+	 * @param includeInferred
+	 * @param baseURI
+	 * @param resultFormat - null uses getGraphResultFormat()
+	 * @return
+	 * @throws IOException
+	 */
+	public GraphQueryResult sendGraphQuery(String queryString, SPARQLQueryBindingSet bindings, boolean includeInferred, String baseURI, RDFFormat resultFormat) throws IOException, MarkLogicSesameException {
+		if (resultFormat == null) {
+			resultFormat = this.graphResultFormat;
+		}
+		checkGraphResultFormat(resultFormat);
 		sync();
-		InputStream stream = getClient().performGraphQuery(queryString, bindings, this.tx, includeInferred, baseURI);
+		InputStreamHandle handle = new InputStreamHandle().withMimetype(resultFormat.getDefaultMIMEType());
+		InputStream stream = getClient().performGraphQuery(queryString, bindings, handle, this.tx, includeInferred, baseURI);
 
-		RDFParser parser = Rio.createParser(rdfFormat, getValueFactory());
+		RDFParser parser = Rio.createParser(resultFormat, getValueFactory());
 		parser.setParserConfig(getParserConfig());
 		parser.setParseErrorListener(new ParseErrorLogger());
 		parser.setPreserveBNodeIDs(true);
@@ -223,14 +520,26 @@ public class MarkLogicClient {
 		MarkLogicBackgroundGraphResult gRes;
 
 		// fixup - baseURI cannot be null
-		if(baseURI != null){
-			gRes= new MarkLogicBackgroundGraphResult(parser,stream,charset,baseURI);
-		}else{
-			gRes= new MarkLogicBackgroundGraphResult(parser,stream,charset,"");
+		if(baseURI == null){
+			baseURI = "";
+		}
+		if (resultBatchSize > 1) {
+			BatchedBackgroundGraphResult bRes = new BatchedBackgroundGraphResult(parser, stream, charset, baseURI, resultQueueCapacity, resultBatchSize);
+			if (execute(bRes)) {
+				return bRes;
+			}
+			return parseGraphQueryResult(parser, stream, baseURI);
+		}
+		if (resultQueueCapacity > 0) {
+			gRes = new MarkLogicBackgroundGraphResult(new QueueCursor<Statement>(resultQueueCapacity), parser, stream, charset, baseURI);
+		} else {
+			gRes = new MarkLogicBackgroundGraphResult(parser, stream, charset, baseURI);
 		}
 
-		execute(gRes);
-		return gRes;
+		if (execute(gRes)) {
+			return gRes;
+		}
+		return parseGraphQueryResult(parser, stream, baseURI);
 	}
 
 	/**
@@ -272,20 +581,113 @@ public class MarkLogicClient {
 	}
 
 	/**
-	 * add triples from file
+	 * add triples from file, gzip and zip compressed files are decompressed as streamed
 	 *
 	 * @param file
 	 * @param baseURI
 	 * @param dataFormat
 	 * @param contexts
 	 * @throws RDFParseException
+	 * @throws MarkLogicSesameException
+	 */
+	public void sendAdd(File file, String baseURI, RDFFormat dataFormat, Resource... contexts) throws RDFParseException, MarkLogicSesameException {
+		if (isCompressed(file)) {
+			try (InputStream in = new FileInputStream(file)) {
+				sendAdd(in, baseURI, dataFormat, contexts);
+			} catch (IOException e) {
+				throw new MarkLogicSesameException(e);
+			}
+		} else if (fileChunkBytes > 0 && ChunkedFileLoader.isLineBased(dataFormat) && file.length() > fileChunkBytes) {
+			ChunkedFileLoader loader = newChunkedFileLoader(file, dataFormat, contexts);
+			loader.setListener(fileLoadListener);
+			loader.load();
+		} else {
+			getClient().performAdd(file, baseURI, dataFormat, this.tx, contexts);
+		}
+	}
+
+	/**
+	 * new loader splitting N-Triples or N-Quads file into chunks loaded concurrently,
+	 * chunks load one at a time inside a transaction
+	 *
+	 * @param file
+	 * @param dataFormat
+	 * @param contexts
+	 * @return ChunkedFileLoader
+	 */
+	public ChunkedFileLoader newChunkedFileLoader(File file, RDFFormat dataFormat, Resource... contexts) {
+		long chunkBytes = fileChunkBytes > 0 ? fileChunkBytes : ChunkedFileLoader.DEFAULT_CHUNK_BYTES;
+		return new ChunkedFileLoader(this, flushScheduler, file, dataFormat, chunkBytes, isActiveTransaction() ? 1 : fileLoadWorkers, fileLoadRetries, contexts);
+	}
+
+	/**
+	 * new loader committing each chunk of N-Triples or N-Quads file on its own, recording
+	 * committed chunks in checkpoint file so a failed load resumes where it stopped
+	 *
+	 * @param file
+	 * @param dataFormat
+	 * @param checkpointFile
+	 * @param contexts
+	 * @return ChunkedFileLoader
+	 * @throws MarkLogicTransactionException if a transaction is active
+	 */
+	public ChunkedFileLoader newChunkedFileLoader(File file, RDFFormat dataFormat, File checkpointFile, Resource... contexts) throws MarkLogicTransactionException {
+		if (isActiveTransaction()) {
+			throw new MarkLogicTransactionException("Checkpointed loads commit each chunk and can not run in a transaction.");
+		}
+		ChunkedFileLoader loader = newChunkedFileLoader(file, dataFormat, contexts);
+		loader.setCheckpointFile(checkpointFile);
+		loader.setListener(fileLoadListener);
+		return loader;
+	}
+
+	/**
+	 * add triples or quads from write handle
+	 *
+	 * @param handle
+	 * @param dataFormat
+	 * @param contexts
+	 * @throws MarkLogicSesameException
+	 */
+	void sendAdd(QuadsWriteHandle handle, RDFFormat dataFormat, Resource... contexts) throws MarkLogicSesameException {
+		getClient().performAdd(handle, dataFormat, this.tx, contexts);
+	}
+
+	/**
+	 * sets chunking of N-Triples and N-Quads files added from File, files larger than
+	 * chunkBytes are loaded in chunks by up to workers concurrent requests, 0 disables
+	 *
+	 * @param chunkBytes
+	 * @param workers
+	 * @param maxRetries - retries of a failed chunk
+	 */
+	public void setFileChunking(long chunkBytes, int workers, int maxRetries) {
+		this.fileChunkBytes = Math.max(0, chunkBytes);
+		this.fileLoadWorkers = Math.max(1, workers);
+		this.fileLoadRetries = Math.max(0, maxRetries);
+	}
+
+	/**
+	 * getter for chunk size (bytes) of files added from File, 0 if disabled
+	 *
+	 * @return long
+	 */
+	public long getFileChunkBytes() {
+		return fileChunkBytes;
+	}
+
+	/**
+	 * sets listener notified of chunk progress when adding chunked files
+	 *
+	 * @param listener
 	 */
-	public void sendAdd(File file, String baseURI, RDFFormat dataFormat, Resource... contexts) throws RDFParseException {
-		getClient().performAdd(file, baseURI, dataFormat, this.tx, contexts);
+	public void setFileLoadListener(ChunkedFileLoader.Listener listener) {
+		this.fileLoadListener = listener;
 	}
 
 	/**
-	 * add triples from InputStream
+	 * add triples from InputStream, gzip input is decompressed as streamed, each file
+	 * of zip input is added in turn
 	 *
 	 * @param in
 	 * @param baseURI
@@ -293,7 +695,74 @@ public class MarkLogicClient {
 	 * @param contexts
 	 */
 	public void sendAdd(InputStream in, String baseURI, RDFFormat dataFormat, Resource... contexts) throws RDFParseException, MarkLogicSesameException {
-		getClient().performAdd(in, baseURI, dataFormat, this.tx, contexts);
+		BufferedInputStream buffered = CompressedInput.buffer(in);
+		try {
+			switch (CompressedInput.detect(buffered)) {
+				case GZIP:
+					addStream(new GZIPInputStream(buffered, 64 * 1024), baseURI, dataFormat, contexts);
+					break;
+				case ZIP:
+					try (ZipInputStream zip = new ZipInputStream(buffered)) {
+						ZipEntry entry;
+						while ((entry = zip.getNextEntry()) != null) {
+							if (!entry.isDirectory()) {
+								addStream(new CloseShieldInputStream(zip), baseURI, dataFormat, contexts);
+							}
+						}
+					}
+					break;
+				default:
+					addStream(buffered, baseURI, dataFormat, contexts);
+			}
+		} catch (IOException e) {
+			logger.error(e.getLocalizedMessage());
+			throw new MarkLogicSesameException(e);
+		}
+	}
+
+	/**
+	 * add statements, streamed to server without buffering serialized form
+	 *
+	 * @param statements
+	 * @throws MarkLogicSesameException
+	 */
+	public void sendAdd(Iterable<? extends Statement> statements) throws MarkLogicSesameException {
+		getClient().performAdd(statements, this.tx);
+	}
+
+	/**
+	 * new batch adding statements in chunks, bypassing write cache,
+	 * chunks upload one at a time inside a transaction
+	 *
+	 * @param chunkSize
+	 * @param threads - max chunks uploading at once
+	 * @return StatementAddBatch
+	 * @throws MarkLogicSesameException
+	 */
+	public StatementAddBatch newAddBatch(int chunkSize, int threads) throws MarkLogicSesameException {
+		sync();
+		return new StatementAddBatch(this, flushScheduler, chunkSize, isActiveTransaction() ? 1 : threads);
+	}
+
+	/**
+	 * add contents of write cache buffer, streamed to server
+	 *
+	 * @param buffer
+	 * @throws MarkLogicSesameException
+	 */
+	public void sendAdd(WriteCacheBuffer buffer) throws MarkLogicSesameException {
+		getClient().performAdd(buffer, this.tx);
+	}
+
+	/**
+	 * add one partition of write cache buffer, streamed to server
+	 *
+	 * @param buffer
+	 * @param partition
+	 * @throws MarkLogicSesameException
+	 */
+	public void sendAdd(WriteCacheBuffer buffer, int partition) throws MarkLogicSesameException {
+		getClient().performAdd(buffer, partition, this.tx);
 	}
 
 	/**
@@ -306,7 +775,63 @@ public class MarkLogicClient {
 	 */
 	public void sendAdd(Reader in, String baseURI, RDFFormat dataFormat, Resource... contexts) throws RDFParseException, MarkLogicSesameException {
 		//TBD- must deal with char encoding
-		getClient().performAdd(new ReaderInputStream(in), baseURI, dataFormat, this.tx, contexts);
+		try {
+			addStream(new ReaderInputStream(in), baseURI, dataFormat, contexts);
+		} catch (IOException e) {
+			logger.error(e.getLocalizedMessage());
+			throw new MarkLogicSesameException(e);
+		}
+	}
+
+	/**
+	 * add triples from stream, a stream added to more than one context is read once
+	 * and merged into all contexts concurrently, one at a time inside a transaction
+	 *
+	 * Merges for all but the last context are handed to the write lanes first, the
+	 * last merge and any merge a lane rejects run on the caller's thread.
+	 *
+	 * @param in
+	 * @param baseURI
+	 * @param dataFormat
+	 * @param contexts
+	 * @throws IOException
+	 */
+	private void addStream(InputStream in, String baseURI, RDFFormat dataFormat, Resource... contexts) throws IOException, RDFParseException, MarkLogicSesameException {
+		Set<Resource> targets = new LinkedHashSet<>();
+		if (contexts != null) {
+			targets.addAll(Arrays.asList(contexts));
+		}
+		if (targets.size() < 2 || dataFormat.equals(RDFFormat.NQUADS) || dataFormat.equals(RDFFormat.TRIG)) {
+			getClient().performAdd(in, baseURI, dataFormat, this.tx, contexts);
+			return;
+		}
+		try (SpooledContent content = SpooledContent.spool(in, SpooledContent.DEFAULT_MEMORY_THRESHOLD)) {
+			List<ContextMerge> merges = new ArrayList<>();
+			for (Resource target : targets) {
+				merges.add(new ContextMerge(content.newHandle(dataFormat), dataFormat, target));
+			}
+			int last = merges.size() - 1;
+			for (int i = 0; i < last; i++) {
+				ContextMerge merge = merges.get(i);
+				if (isActiveTransaction() || !flushScheduler.executeLane(merge)) {
+					merge.run();
+				}
+			}
+			merges.get(last).run();
+			Exception error = null;
+			for (ContextMerge merge : merges) {
+				merge.await();
+				if (merge.error != null && !(error instanceof RDFParseException)) {
+					error = merge.error;
+				}
+			}
+			if (error instanceof RDFParseException) {
+				throw (RDFParseException) error;
+			}
+			if (error != null) {
+				throw (MarkLogicSesameException) error;
+			}
+		}
 	}
 
 	/**
@@ -340,6 +865,29 @@ public class MarkLogicClient {
 		getClient().performRemove(baseURI, (Resource) skolemize(subject), (URI) skolemize(predicate), skolemize(object), this.tx, contexts);
 	}
 
+	/**
+	 * remove batch of statements in one request
+	 *
+	 * @param statementsByContext - statements keyed by context, null key for default graph
+	 * @param statements - statements removed from any graph
+	 * @throws MarkLogicSesameException
+	 */
+	public void sendRemove(Map<Resource, List<Statement>> statementsByContext, List<Statement> statements) throws MarkLogicSesameException {
+		getClient().performRemove(statementsByContext, statements, this.tx);
+	}
+
+	/**
+	 * new batch removing statements in chunks
+	 *
+	 * @param chunkSize
+	 * @return StatementRemoveBatch
+	 * @throws MarkLogicSesameException
+	 */
+	public StatementRemoveBatch newRemoveBatch(int chunkSize) throws MarkLogicSesameException {
+		sync();
+		return new StatementRemoveBatch(this, chunkSize);
+	}
+
 	/**
 	 * clears all triples from context
 	 *
@@ -515,11 +1063,143 @@ public class MarkLogicClient {
 	}
 
 	/**
-	 *exec
+	 * getter for ResultParsingExecutor
+	 *
+	 * @return
+	 */
+	public ResultParsingExecutor getParsingExecutor() {
+		return this.parsingExecutor;
+	}
+
+	/**
+	 * sets format SELECT results are requested and parsed in, one of TUPLE_RESULT_FORMATS
+	 *
+	 * CSV results carry no datatypes or language tags, all literals come back plain.
+	 *
+	 * @param resultFormat
+	 * @throws MarkLogicSesameException
+	 */
+	public void setTupleResultFormat(TupleQueryResultFormat resultFormat) throws MarkLogicSesameException {
+		checkTupleResultFormat(resultFormat);
+		this.tupleResultFormat = resultFormat;
+	}
+
+	/**
+	 * getter for tupleResultFormat
+	 *
+	 * @return TupleQueryResultFormat
+	 */
+	public TupleQueryResultFormat getTupleResultFormat() {
+		return this.tupleResultFormat;
+	}
+
+	/**
+	 * sets format CONSTRUCT and DESCRIBE results are requested and parsed in, one of GRAPH_RESULT_FORMATS
+	 *
+	 * @param resultFormat
+	 * @throws MarkLogicSesameException
+	 */
+	public void setGraphResultFormat(RDFFormat resultFormat) throws MarkLogicSesameException {
+		checkGraphResultFormat(resultFormat);
+		this.graphResultFormat = resultFormat;
+	}
+
+	/**
+	 * getter for graphResultFormat
+	 *
+	 * @return RDFFormat
+	 */
+	public RDFFormat getGraphResultFormat() {
+		return this.graphResultFormat;
+	}
+
+	/**
+	 * checks MarkLogic can return SELECT results in resultFormat
+	 *
+	 * @param resultFormat
+	 * @throws MarkLogicSesameException
+	 */
+	public static void checkTupleResultFormat(TupleQueryResultFormat resultFormat) throws MarkLogicSesameException {
+		if (!TUPLE_RESULT_FORMATS.contains(resultFormat)) {
+			throw new MarkLogicSesameException("Unsupported tuple result format " + resultFormat + ", use one of " + TUPLE_RESULT_FORMATS);
+		}
+	}
+
+	/**
+	 * checks MarkLogic can return CONSTRUCT and DESCRIBE results in resultFormat
+	 *
+	 * @param resultFormat
+	 * @throws MarkLogicSesameException
+	 */
+	public static void checkGraphResultFormat(RDFFormat resultFormat) throws MarkLogicSesameException {
+		if (!GRAPH_RESULT_FORMATS.contains(resultFormat)) {
+			throw new MarkLogicSesameException("Unsupported graph result format " + resultFormat + ", use one of " + GRAPH_RESULT_FORMATS);
+		}
+	}
+
+	/**
+	 * sets whether tuple results are parsed on the consumer's thread as they are
+	 * iterated instead of in the background on the parsing executor
+	 *
+	 * @param pullParsing
+	 */
+	public void setPullParsing(boolean pullParsing) {
+		this.pullParsing = pullParsing;
+	}
+
+	/**
+	 * getter for pullParsing
+	 *
+	 * @return true if tuple results are parsed on the consumer's thread
+	 */
+	public boolean isPullParsing() {
+		return this.pullParsing;
+	}
+
+	/**
+	 * sets how background query results hand rows from the parser thread to the
+	 * consumer, queueCapacity bounds rows waiting in the queue (0 keeps the default),
+	 * a batchSize above 1 hands rows over in arrays of batchSize instead of one by one
+	 *
+	 * @param queueCapacity
+	 * @param batchSize
+	 */
+	public void setResultHandoff(int queueCapacity, int batchSize) {
+		this.resultQueueCapacity = Math.max(0, queueCapacity);
+		this.resultBatchSize = Math.max(0, batchSize);
+	}
+
+	/**
+	 * getter for resultQueueCapacity
+	 *
+	 * @return max rows waiting in a background result queue, 0 if default
+	 */
+	public int getResultQueueCapacity() {
+		return this.resultQueueCapacity;
+	}
+
+	/**
+	 * getter for resultBatchSize
+	 *
+	 * @return rows per handoff, 0 or 1 if handed over one by one
+	 */
+	public int getResultBatchSize() {
+		return this.resultBatchSize;
+	}
+
+	/**
+	 * exec result parse on parsing executor
+	 *
 	 * @param command
+	 * @return true if running in background, false if caller must parse
+	 * @throws MarkLogicSesameException if parsing executor is saturated and rejects
 	 */
-	protected void execute(Runnable command) {
-		executor.execute(command);
+	protected boolean execute(Runnable command) throws MarkLogicSesameException {
+		try {
+			return parsingExecutor.tryExecute(command);
+		} catch (RejectedExecutionException e) {
+			throw new MarkLogicSesameException("Result parsing executor saturated, query result rejected.");
+		}
 	}
 
 
@@ -535,12 +1215,70 @@ public class MarkLogicClient {
 		return this._client;
 	}
 
+	/**
+	 * parses tuple result fully on caller thread
+	 *
+	 * @param parser
+	 * @param stream
+	 * @return
+	 * @throws MarkLogicSesameException
+	 */
+	private TupleQueryResult parseTupleQueryResult(TupleQueryResultParser parser, InputStream stream) throws MarkLogicSesameException {
+		TupleQueryResultBuilder builder = new TupleQueryResultBuilder();
+		parser.setTupleQueryResultHandler(builder);
+		try {
+			parser.parse(stream);
+			return builder.getQueryResult();
+		} catch (IOException | QueryResultParseException | TupleQueryResultHandlerException e) {
+			logger.error(e.getLocalizedMessage());
+			throw new MarkLogicSesameException(e);
+		} finally {
+			closeQuietly(stream);
+		}
+	}
+
+	/**
+	 * parses graph result fully on caller thread
+	 *
+	 * @param parser
+	 * @param stream
+	 * @param baseURI
+	 * @return
+	 * @throws MarkLogicSesameException
+	 */
+	private GraphQueryResult parseGraphQueryResult(RDFParser parser, InputStream stream, String baseURI) throws MarkLogicSesameException {
+		List<Statement> statements = new ArrayList<>();
+		Map<String, String> namespaces = new HashMap<>();
+		parser.setRDFHandler(new StatementCollector(statements, namespaces));
+		try {
+			parser.parse(stream, baseURI);
+			return new GraphQueryResultImpl(namespaces, statements);
+		} catch (IOException | RDFParseException | RDFHandlerException e) {
+			logger.error(e.getLocalizedMessage());
+			throw new MarkLogicSesameException(e);
+		} finally {
+			closeQuietly(stream);
+		}
+	}
+
+	/**
+	 *
+	 * @param stream
+	 */
+	private static void closeQuietly(InputStream stream) {
+		try {
+			stream.close();
+		} catch (IOException e) {
+			logger.debug("failed closing result stream", e);
+		}
+	}
+
 	/**
 	 *
 	 * @param s
 	 * @return
 	 */
-	private Value skolemize(Value s) {
+	Value skolemize(Value s) {
 		if (s instanceof org.openrdf.model.BNode) {
 			return getValueFactory().createURI("http://marklogic.com/semantics/blank/" + s.toString());
 		} else {
@@ -549,10 +1287,57 @@ public class MarkLogicClient {
 	}
 
 	/**
-	 *
+	 * returns DatabaseClient to pool or releases it if not pooled
 	 */
-	public void close() {
-		_client.close();
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (pool != null) {
+			pool.returnClient(_client.getDatabaseClient());
+		} else {
+			_client.close();
+		}
+	}
+
+	/**
+	 * merges spooled content into one context
+	 */
+	private class ContextMerge implements Runnable {
+		private final QuadsWriteHandle handle;
+		private final RDFFormat dataFormat;
+		private final Resource context;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Exception error;
+
+		private ContextMerge(QuadsWriteHandle handle, RDFFormat dataFormat, Resource context) {
+			this.handle = handle;
+			this.dataFormat = dataFormat;
+			this.context = context;
+		}
+
+		@Override
+		public void run() {
+			try {
+				getClient().performStreamAdd(handle, dataFormat, tx, context);
+			} catch (RDFParseException | MarkLogicSesameException e) {
+				error = e;
+			} catch (RuntimeException e) {
+				error = new MarkLogicSesameException(e);
+			} finally {
+				done.countDown();
+			}
+		}
+
+		private void await() throws MarkLogicSesameException {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MarkLogicSesameException("Interrupted merging into " + context + ".");
+			}
+		}
 	}
 
-}
\ No newline at end of file
+}
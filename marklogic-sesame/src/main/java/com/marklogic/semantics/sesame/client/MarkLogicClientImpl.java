@@ -23,19 +23,19 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 
 import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
-import org.openrdf.query.Binding;
 import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.ntriples.NTriplesUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,14 +43,14 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.DatabaseClientFactory;
 import com.marklogic.client.FailedRequestException;
+import com.marklogic.client.MarkLogicIOException;
 import com.marklogic.client.Transaction;
-import com.marklogic.client.impl.SPARQLBindingsImpl;
 import com.marklogic.client.io.FileHandle;
 import com.marklogic.client.io.InputStreamHandle;
+import com.marklogic.client.io.marker.QuadsWriteHandle;
 import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.semantics.GraphManager;
 import com.marklogic.client.semantics.GraphPermissions;
-import com.marklogic.client.semantics.RDFTypes;
 import com.marklogic.client.semantics.SPARQLBindings;
 import com.marklogic.client.semantics.SPARQLQueryDefinition;
 import com.marklogic.client.semantics.SPARQLQueryManager;
@@ -152,17 +152,19 @@ class MarkLogicClientImpl {
      */
     public InputStream performSPARQLQuery(String queryString, SPARQLQueryBindingSet bindings, InputStreamHandle handle, long start, long pageLength, Transaction tx, boolean includeInferred, String baseURI) throws JsonProcessingException {
         SPARQLQueryDefinition qdef = sparqlManager.newQueryDefinition(queryString);
+        qdef.setBindings(getSPARQLBindings(bindings));
         if(notNull(baseURI) && !baseURI.isEmpty()){ qdef.setBaseUri(baseURI);}
         if (notNull(ruleset)){qdef.setRulesets(ruleset);}
         if (notNull(getConstrainingQueryDefinition())) {qdef.setConstrainingQueryDefinition(getConstrainingQueryDefinition());}
         qdef.setIncludeDefaultRulesets(includeInferred);
         if(notNull(graphPerms)){ qdef.setUpdatePermissions(graphPerms);}
+        // page length is manager state, paged queries get their own manager so concurrent queries never see it
+        SPARQLQueryManager manager = sparqlManager;
         if(pageLength > 0){
-            sparqlManager.setPageLength(pageLength);
-        }else{
-            sparqlManager.clearPageLength();
+            manager = getDatabaseClient().newSPARQLQueryManager();
+            manager.setPageLength(pageLength);
         }
-        sparqlManager.executeSelect(qdef, handle, start, tx);
+        manager.executeSelect(qdef, handle, start, tx);
         return new BufferedInputStream(handle.get());
     }
 
@@ -194,6 +196,7 @@ class MarkLogicClientImpl {
      */
     public InputStream performGraphQuery(String queryString, SPARQLQueryBindingSet bindings, InputStreamHandle handle, Transaction tx, boolean includeInferred, String baseURI) throws JsonProcessingException  {
         SPARQLQueryDefinition qdef = sparqlManager.newQueryDefinition(queryString);
+        qdef.setBindings(getSPARQLBindings(bindings));
         if(notNull(baseURI) && !baseURI.isEmpty()){ qdef.setBaseUri(baseURI);}
         if (notNull(ruleset)) {qdef.setRulesets(ruleset);}
         if (notNull(getConstrainingQueryDefinition())){qdef.setConstrainingQueryDefinition(getConstrainingQueryDefinition());}
@@ -215,6 +218,7 @@ class MarkLogicClientImpl {
      */
     public boolean performBooleanQuery(String queryString, SPARQLQueryBindingSet bindings, Transaction tx, boolean includeInferred, String baseURI) {
         SPARQLQueryDefinition qdef = sparqlManager.newQueryDefinition(queryString);
+        qdef.setBindings(getSPARQLBindings(bindings));
         if(notNull(baseURI) && !baseURI.isEmpty()){ qdef.setBaseUri(baseURI);}
         qdef.setIncludeDefaultRulesets(includeInferred);
         if (notNull(ruleset)) {qdef.setRulesets(ruleset);}
@@ -234,6 +238,7 @@ class MarkLogicClientImpl {
      */
     public void performUpdateQuery(String queryString, SPARQLQueryBindingSet bindings, Transaction tx, boolean includeInferred, String baseURI) {
         SPARQLQueryDefinition qdef = sparqlManager.newQueryDefinition(queryString);
+        qdef.setBindings(getSPARQLBindings(bindings));
         if(notNull(baseURI) && !baseURI.isEmpty()){ qdef.setBaseUri(baseURI);}
         if (notNull(ruleset) ) {qdef.setRulesets(ruleset);}
         if(notNull(graphPerms)){ qdef.setUpdatePermissions(graphPerms);}
@@ -255,21 +260,21 @@ class MarkLogicClientImpl {
     // performAdd
     // as we use mergeGraphs, baseURI is always file.toURI
     public void performAdd(File file, String baseURI, RDFFormat dataFormat, Transaction tx, Resource... contexts) throws RDFParseException {
+        String mimetype = dataFormat.getDefaultMIMEType();
         try {
-            graphManager.setDefaultMimetype(dataFormat.getDefaultMIMEType());
             if (dataFormat.equals(RDFFormat.NQUADS) || dataFormat.equals(RDFFormat.TRIG)) {
-                graphManager.mergeGraphs(new FileHandle(file),tx);
+                graphManager.mergeGraphs(new FileHandle(file).withMimetype(mimetype),tx);
             } else {
                 if (notNull(contexts) && contexts.length>0) {
                     for (int i = 0; i < contexts.length; i++) {
                         if(notNull(contexts[i])){
-                            graphManager.mergeAs(contexts[i].toString(), new FileHandle(file), getGraphPerms(),tx);
+                            graphManager.mergeAs(contexts[i].toString(), new FileHandle(file).withMimetype(mimetype), getGraphPerms(),tx);
                         }else{
-                            graphManager.mergeAs(DEFAULT_GRAPH_URI, new FileHandle(file),getGraphPerms(), tx);
+                            graphManager.mergeAs(DEFAULT_GRAPH_URI, new FileHandle(file).withMimetype(mimetype),getGraphPerms(), tx);
                         }
                     }
                 } else {
-                    graphManager.mergeAs(DEFAULT_GRAPH_URI, new FileHandle(file), getGraphPerms(),tx);
+                    graphManager.mergeAs(DEFAULT_GRAPH_URI, new FileHandle(file).withMimetype(mimetype), getGraphPerms(),tx);
                 }
             }
         } catch (FailedRequestException e) {
@@ -277,6 +282,61 @@ class MarkLogicClientImpl {
         }
     }
 
+    /**
+     * executes merge of triples or quads from write handle, handle carries its own mimetype
+     *
+     * @param handle
+     * @param dataFormat
+     * @param tx
+     * @param contexts
+     * @throws MarkLogicSesameException
+     */
+    public void performAdd(QuadsWriteHandle handle, RDFFormat dataFormat, Transaction tx, Resource... contexts) throws MarkLogicSesameException {
+        try {
+            mergeHandle(handle, dataFormat, tx, contexts);
+        } catch (FailedRequestException | MarkLogicIOException e) {
+            throw new MarkLogicSesameException(e);
+        }
+    }
+
+    /**
+     * executes merge of triples or quads from spooled stream content, reporting failed requests as parse errors like performAdd(InputStream...)
+     *
+     * @param handle
+     * @param dataFormat
+     * @param tx
+     * @param contexts
+     * @throws RDFParseException
+     * @throws MarkLogicSesameException
+     */
+    public void performStreamAdd(QuadsWriteHandle handle, RDFFormat dataFormat, Transaction tx, Resource... contexts) throws RDFParseException, MarkLogicSesameException {
+        try {
+            mergeHandle(handle, dataFormat, tx, contexts);
+        } catch (FailedRequestException e) {
+            throw new RDFParseException("Request to MarkLogic server failed, check input is valid.");
+        } catch (MarkLogicIOException e) {
+            throw new MarkLogicSesameException(e);
+        }
+    }
+
+    private void mergeHandle(QuadsWriteHandle handle, RDFFormat dataFormat, Transaction tx, Resource... contexts) {
+        if (dataFormat.equals(RDFFormat.NQUADS) || dataFormat.equals(RDFFormat.TRIG)) {
+            graphManager.mergeGraphs(handle, tx);
+        } else {
+            if (notNull(contexts) && contexts.length > 0) {
+                for (int i = 0; i < contexts.length; i++) {
+                    if (notNull(contexts[i])) {
+                        graphManager.mergeAs(contexts[i].toString(), handle, getGraphPerms(), tx);
+                    } else {
+                        graphManager.mergeAs(DEFAULT_GRAPH_URI, handle, getGraphPerms(), tx);
+                    }
+                }
+            } else {
+                graphManager.mergeAs(DEFAULT_GRAPH_URI, handle, getGraphPerms(), tx);
+            }
+        }
+    }
+
     /**
      * executes merge of triples from InputStream
      *
@@ -288,21 +348,21 @@ class MarkLogicClientImpl {
      * @throws RDFParseException
      */
     public void performAdd(InputStream in, String baseURI, RDFFormat dataFormat, Transaction tx, Resource... contexts) throws RDFParseException, MarkLogicSesameException {
+        String mimetype = dataFormat.getDefaultMIMEType();
         try {
-            graphManager.setDefaultMimetype(dataFormat.getDefaultMIMEType());
             if (dataFormat.equals(RDFFormat.NQUADS) || dataFormat.equals(RDFFormat.TRIG)) {
-                graphManager.mergeGraphs(new InputStreamHandle(in),tx);
+                graphManager.mergeGraphs(new InputStreamHandle(in).withMimetype(mimetype),tx);
             } else {
                 if (notNull(contexts) && contexts.length > 0) {
                     for (int i = 0; i < contexts.length; i++) {
                         if (notNull(contexts[i])) {
-                            graphManager.mergeAs(contexts[i].toString(), new InputStreamHandle(in), getGraphPerms(), tx);
+                            graphManager.mergeAs(contexts[i].toString(), new InputStreamHandle(in).withMimetype(mimetype), getGraphPerms(), tx);
                         } else {
-                            graphManager.mergeAs(DEFAULT_GRAPH_URI, new InputStreamHandle(in),getGraphPerms(), tx);
+                            graphManager.mergeAs(DEFAULT_GRAPH_URI, new InputStreamHandle(in).withMimetype(mimetype),getGraphPerms(), tx);
                         }
                     }
                 } else {
-                    graphManager.mergeAs(DEFAULT_GRAPH_URI, new InputStreamHandle(in),getGraphPerms(), tx);
+                    graphManager.mergeAs(DEFAULT_GRAPH_URI, new InputStreamHandle(in).withMimetype(mimetype),getGraphPerms(), tx);
                 }
             }
             in.close();
@@ -314,6 +374,40 @@ class MarkLogicClientImpl {
         }
     }
 
+    /**
+     * executes merge of statements, streaming them as nquads into the request body
+     *
+     * @param statements
+     * @param tx
+     * @throws MarkLogicSesameException
+     */
+    public void performAdd(Iterable<? extends Statement> statements, Transaction tx) throws MarkLogicSesameException {
+        mergeQuads(new StatementsWriteHandle(statements, RDFFormat.NQUADS), tx);
+    }
+
+    /**
+     * executes merge of write cache buffer, streaming its nquads into the request body
+     *
+     * @param buffer
+     * @param tx
+     * @throws MarkLogicSesameException
+     */
+    public void performAdd(WriteCacheBuffer buffer, Transaction tx) throws MarkLogicSesameException {
+        mergeQuads(new StatementsWriteHandle(buffer), tx);
+    }
+
+    /**
+     * executes merge of one write cache buffer partition, streaming its nquads into the request body
+     *
+     * @param buffer
+     * @param partition
+     * @param tx
+     * @throws MarkLogicSesameException
+     */
+    public void performAdd(WriteCacheBuffer buffer, int partition, Transaction tx) throws MarkLogicSesameException {
+        mergeQuads(new StatementsWriteHandle(buffer, partition), tx);
+    }
+
     /**
      * executes INSERT of single triple
      *
@@ -388,6 +482,50 @@ class MarkLogicClientImpl {
         sparqlManager.executeUpdate(qdef, tx);
     }
 
+    /**
+     * executes batch DELETE of statements, as DELETE DATA for statements of known contexts
+     * and DELETE WHERE matching any graph for statements without context, in one request
+     *
+     * @param statementsByContext - statements keyed by context, null key for default graph
+     * @param statements - statements removed from any graph
+     * @param tx
+     * @throws MarkLogicSesameException
+     */
+    public void performRemove(Map<Resource, List<Statement>> statementsByContext, List<Statement> statements, Transaction tx) throws MarkLogicSesameException {
+        StringBuilder sb = new StringBuilder();
+        try {
+            if (!statementsByContext.isEmpty()) {
+                sb.append("DELETE DATA { ");
+                for (Map.Entry<Resource, List<Statement>> entry : statementsByContext.entrySet()) {
+                    sb.append("GRAPH <").append(notNull(entry.getKey()) ? entry.getKey().stringValue() : DEFAULT_GRAPH_URI).append("> { ");
+                    for (Statement st : entry.getValue()) {
+                        appendTerms(sb, st);
+                        sb.append(" . ");
+                    }
+                    sb.append("} ");
+                }
+                sb.append("}");
+            }
+            if (!statements.isEmpty()) {
+                if (sb.length() > 0) sb.append(" ;\n");
+                sb.append("DELETE { GRAPH ?ctx { ?s ?p ?o .} } WHERE { VALUES (?s ?p ?o) { ");
+                for (Statement st : statements) {
+                    sb.append("(");
+                    appendTerms(sb, st);
+                    sb.append(") ");
+                }
+                sb.append("} GRAPH ?ctx { ?s ?p ?o .} }");
+            }
+        } catch (IOException e) {
+            throw new MarkLogicSesameException(e);
+        }
+        if (sb.length() == 0) {
+            return;
+        }
+        SPARQLQueryDefinition qdef = sparqlManager.newQueryDefinition(sb.toString());
+        sparqlManager.executeUpdate(qdef, tx);
+    }
+
     /**
      * clears triples from named graph
      *
@@ -499,21 +637,50 @@ class MarkLogicClientImpl {
     ///////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
-     * converts Sesame BindingSet to java api client SPARQLBindings
+     * converts Sesame BindingSet to typed java api client SPARQLBindings, values
+     * which cannot be bound (blank nodes, non xsd datatypes) are left to query
+     * string substitution
      *
      * @param bindings
      * @return
      */
     protected SPARQLBindings getSPARQLBindings(SPARQLQueryBindingSet bindings) {
-        SPARQLBindings sps = new SPARQLBindingsImpl();
-        for (Binding binding : bindings) {
-            sps.bind(binding.getName(), binding.getValue().stringValue());
-        }
-        return sps;
+        return QueryBindings.toSPARQLBindings(bindings);
     }
 
     ///////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * appends subject, predicate and object as sparql terms
+     *
+     * @param sb
+     * @param st
+     * @throws IOException
+     */
+    private static void appendTerms(StringBuilder sb, Statement st) throws IOException {
+        NTriplesUtil.append(st.getSubject(), sb);
+        sb.append(' ');
+        NTriplesUtil.append(st.getPredicate(), sb);
+        sb.append(' ');
+        NTriplesUtil.append(st.getObject(), sb);
+    }
+
+    /**
+     * merges nquads handle, contexts are taken from quads
+     *
+     * @param handle
+     * @param tx
+     * @throws MarkLogicSesameException
+     */
+    private void mergeQuads(StatementsWriteHandle handle, Transaction tx) throws MarkLogicSesameException {
+        try {
+            graphManager.mergeGraphs(handle, tx);
+        } catch (FailedRequestException | MarkLogicIOException e) {
+            logger.error(e.getLocalizedMessage());
+            throw new MarkLogicSesameException(e);
+        }
+    }
+
     /**
      * bind object
      *
@@ -524,29 +691,11 @@ class MarkLogicClientImpl {
      * @throws MarkLogicSesameException
      */
     private static SPARQLQueryDefinition bindObject(SPARQLQueryDefinition qdef, String variableName, Value object) throws MarkLogicSesameException{
-        SPARQLBindings bindings = qdef.getBindings();
-        if(object != null){
-            if (object instanceof URI) {
-                bindings.bind(variableName, object.stringValue());
-            } else if (object instanceof Literal) {
-                Literal lit = (Literal) object;
-                if (lit.getLanguage() != null) {
-                    String languageTag = lit.getLanguage();
-                    bindings.bind(variableName, lit.getLabel(), Locale.forLanguageTag(languageTag));
-                }else if (((Literal) object).getDatatype() != null) {
-                    try {
-                        String xsdType = lit.getDatatype().toString();
-                        String fragment = new java.net.URI(xsdType).getFragment();
-                        bindings.bind(variableName,lit.getLabel(),RDFTypes.valueOf(fragment.toUpperCase()));
-                    } catch (URISyntaxException e) {
-                        throw new MarkLogicSesameException("Problem with object datatype.");
-                    }
-                }else {
-                    // assume we have a string value
-                    bindings.bind(variableName, lit.getLabel(), RDFTypes.STRING);
-                }
+        if(object instanceof URI || object instanceof Literal){
+            if (!QueryBindings.isBindable(object)) {
+                throw new MarkLogicSesameException("Problem with object datatype.");
             }
-            qdef.setBindings(bindings);
+            qdef.setBindings(QueryBindings.bind(qdef.getBindings(), variableName, object));
         }
         return qdef;
     }
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.client.DatabaseClient;
+import com.marklogic.client.DatabaseClientFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * repository scoped, reference counted pool of java api client DatabaseClient
+ *
+ * DatabaseClient is thread safe and owns its own http connection pool, so
+ * connections borrow a shared instance instead of building (and digest
+ * authenticating) a new one each time. A new DatabaseClient is only created
+ * when every pooled client is in use and the pool is below its max size,
+ * otherwise the least referenced client is shared.
+ *
+ */
+public class MarkLogicClientPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(MarkLogicClientPool.class);
+
+    public static final int DEFAULT_MAX_SIZE = 1;
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+    private final String auth;
+
+    private final DatabaseClient suppliedClient;
+
+    private final List<PooledClient> clients = new ArrayList<>();
+    private final List<PooledClient> retired = new ArrayList<>();
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private long createCount;
+    private long borrowCount;
+    private long returnCount;
+
+    /**
+     * constructor init with connection params
+     *
+     * @param host
+     * @param port
+     * @param user
+     * @param password
+     * @param auth
+     */
+    public MarkLogicClientPool(String host, int port, String user, String password, String auth) {
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.password = password;
+        this.auth = auth;
+        this.suppliedClient = null;
+    }
+
+    /**
+     * constructor init with DatabaseClient, the supplied client is pooled
+     * but never released by the pool as it is owned by the caller
+     *
+     * @param databaseClient
+     */
+    public MarkLogicClientPool(DatabaseClient databaseClient) {
+        this.host = databaseClient.getHost();
+        this.port = databaseClient.getPort();
+        this.user = databaseClient.getUser();
+        this.password = databaseClient.getPassword();
+        this.auth = databaseClient.getAuthentication().name();
+        this.suppliedClient = databaseClient;
+    }
+
+    /**
+     * borrows a DatabaseClient, which must be handed back with returnClient
+     *
+     * @return DatabaseClient
+     */
+    public synchronized DatabaseClient borrowClient() {
+        PooledClient selected = null;
+        for (PooledClient pooled : clients) {
+            if (selected == null || pooled.references < selected.references) {
+                selected = pooled;
+            }
+        }
+        if (selected == null || (selected.references > 0 && clients.size() < maxSize)) {
+            selected = newPooledClient();
+            clients.add(selected);
+        }
+        selected.references++;
+        borrowCount++;
+        if (logger.isDebugEnabled()) {
+            logger.debug("borrowed client: {}", this);
+        }
+        return selected.client;
+    }
+
+    /**
+     * returns a borrowed DatabaseClient to the pool
+     *
+     * @param databaseClient
+     */
+    public synchronized void returnClient(DatabaseClient databaseClient) {
+        for (PooledClient pooled : clients) {
+            if (pooled.client == databaseClient) {
+                if (pooled.references > 0) {
+                    pooled.references--;
+                    returnCount++;
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("returned client: {}", this);
+                }
+                return;
+            }
+        }
+        Iterator<PooledClient> iter = retired.iterator();
+        while (iter.hasNext()) {
+            PooledClient pooled = iter.next();
+            if (pooled.client == databaseClient) {
+                pooled.references--;
+                returnCount++;
+                if (pooled.references == 0) {
+                    iter.remove();
+                    release(pooled);
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("returned closed client: {}", this);
+                }
+                return;
+            }
+        }
+        logger.debug("returned client is not pooled, ignoring.");
+    }
+
+    /**
+     * releases idle clients owned by this pool, clients still borrowed are no
+     * longer handed out and are released once their last borrower returns them,
+     * the pool can still be used afterwards and will create new clients on demand
+     *
+     */
+    public synchronized void close() {
+        Iterator<PooledClient> iter = clients.iterator();
+        while (iter.hasNext()) {
+            PooledClient pooled = iter.next();
+            iter.remove();
+            if (pooled.references > 0) {
+                logger.debug("closing pool with {} outstanding references, client released when returned.", pooled.references);
+                retired.add(pooled);
+            } else {
+                release(pooled);
+            }
+        }
+    }
+
+    /**
+     * getter for max number of DatabaseClient held by pool
+     *
+     * @return int
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * setter for max number of DatabaseClient held by pool, shrinking does
+     * not evict clients already pooled
+     *
+     * @param maxSize
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool max size must be at least 1.");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * number of DatabaseClient currently pooled
+     *
+     * @return int
+     */
+    public synchronized int getSize() {
+        return clients.size();
+    }
+
+    /**
+     * number of outstanding borrows across all pooled clients, including
+     * clients waiting to be released after close
+     *
+     * @return int
+     */
+    public synchronized int getActiveCount() {
+        int active = 0;
+        for (PooledClient pooled : clients) {
+            active += pooled.references;
+        }
+        for (PooledClient pooled : retired) {
+            active += pooled.references;
+        }
+        return active;
+    }
+
+    /**
+     * number of clients closed while borrowed, waiting for their borrowers to return them
+     *
+     * @return int
+     */
+    public synchronized int getClosingCount() {
+        return retired.size();
+    }
+
+    /**
+     * number of pooled clients not currently borrowed
+     *
+     * @return int
+     */
+    public synchronized int getIdleCount() {
+        int idle = 0;
+        for (PooledClient pooled : clients) {
+            if (pooled.references == 0) {
+                idle++;
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * total number of DatabaseClient created by pool
+     *
+     * @return long
+     */
+    public synchronized long getCreateCount() {
+        return createCount;
+    }
+
+    /**
+     * total number of borrows
+     *
+     * @return long
+     */
+    public synchronized long getBorrowCount() {
+        return borrowCount;
+    }
+
+    /**
+     * total number of returns
+     *
+     * @return long
+     */
+    public synchronized long getReturnCount() {
+        return returnCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MarkLogicClientPool[size=" + clients.size() + ", maxSize=" + maxSize + ", active=" + getActiveCount()
+                + ", idle=" + getIdleCount() + ", closing=" + retired.size() + ", created=" + createCount + ", borrowed=" + borrowCount
+                + ", returned=" + returnCount + "]";
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * reuses supplied client if it is not yet pooled, otherwise creates a new one
+     *
+     * @return PooledClient
+     */
+    private PooledClient newPooledClient() {
+        if (suppliedClient != null && !isPooled(suppliedClient)) {
+            return new PooledClient(suppliedClient, false);
+        }
+        createCount++;
+        return new PooledClient(DatabaseClientFactory.newClient(host, port, user, password, DatabaseClientFactory.Authentication.valueOf(auth)), true);
+    }
+
+    /**
+     * releases client if owned by this pool
+     *
+     * @param pooled
+     */
+    private void release(PooledClient pooled) {
+        if (pooled.owned) {
+            try {
+                pooled.client.release();
+            } catch (Exception e) {
+                logger.info("Failed releasing DB client", e);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param databaseClient
+     * @return
+     */
+    private boolean isPooled(DatabaseClient databaseClient) {
+        for (PooledClient pooled : clients) {
+            if (pooled.client == databaseClient) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * pooled DatabaseClient and its reference count
+     */
+    private static class PooledClient {
+        private final DatabaseClient client;
+        private final boolean owned;
+        private int references;
+
+        private PooledClient(DatabaseClient client, boolean owned) {
+            this.client = client;
+            this.owned = owned;
+        }
+    }
+}
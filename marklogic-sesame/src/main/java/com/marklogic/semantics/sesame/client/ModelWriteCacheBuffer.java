@@ -0,0 +1,225 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import org.openrdf.model.Model;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.LinkedHashModel;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.Rio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * write cache buffer holding statements in a LinkedHashModel per partition
+ *
+ */
+public class ModelWriteCacheBuffer implements WriteCacheBuffer {
+
+    private final Model[] models;
+    private final long[] byteSizes;
+
+    /**
+     * constructor
+     *
+     */
+    public ModelWriteCacheBuffer() {
+        this(1);
+    }
+
+    /**
+     * constructor
+     *
+     * @param partitions
+     */
+    public ModelWriteCacheBuffer(int partitions) {
+        this.models = new Model[Math.max(1, partitions)];
+        this.byteSizes = new long[models.length];
+        for (int i = 0; i < models.length; i++) {
+            models[i] = new LinkedHashModel();
+        }
+    }
+
+    /**
+     * add statement, once per context
+     *
+     * @param subject
+     * @param predicate
+     * @param object
+     * @param contexts
+     */
+    @Override
+    public void add(Resource subject, URI predicate, Value object, Resource... contexts) {
+        if (contexts == null || contexts.length == 0) {
+            int partition = partitionOf(null);
+            if (models[partition].add(subject, predicate, object)) {
+                byteSizes[partition] += estimateBytes(subject, predicate, object, null);
+            }
+        } else {
+            for (Resource context : contexts) {
+                int partition = partitionOf(context);
+                if (models[partition].add(subject, predicate, object, context)) {
+                    byteSizes[partition] += estimateBytes(subject, predicate, object, context);
+                }
+            }
+        }
+    }
+
+    /**
+     * adds all statements of another ModelWriteCacheBuffer
+     *
+     * @param other
+     */
+    @Override
+    public void addAll(WriteCacheBuffer other) {
+        ModelWriteCacheBuffer buffer = (ModelWriteCacheBuffer) other;
+        for (Model model : buffer.models) {
+            for (Statement st : model) {
+                add(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Model model : models) {
+            size += model.size();
+        }
+        return size;
+    }
+
+    /**
+     * estimated number of nquads bytes, from lengths of statement values
+     *
+     * @return long
+     */
+    @Override
+    public long getByteSize() {
+        long byteSize = 0;
+        for (long partitionBytes : byteSizes) {
+            byteSize += partitionBytes;
+        }
+        return byteSize;
+    }
+
+    @Override
+    public int getPartitionCount() {
+        return models.length;
+    }
+
+    @Override
+    public int size(int partition) {
+        return models[partition].size();
+    }
+
+    /**
+     * writes statements as nquads
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        write(models, out);
+    }
+
+    /**
+     * writes statements of partition as nquads
+     *
+     * @param partition
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void writeTo(int partition, OutputStream out) throws IOException {
+        write(new Model[]{models[partition]}, out);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < models.length; i++) {
+            clear(i);
+        }
+    }
+
+    @Override
+    public void clear(int partition) {
+        models[partition].clear();
+        byteSizes[partition] = 0;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     *
+     * @param context
+     * @return
+     */
+    private int partitionOf(Resource context) {
+        return context == null ? 0 : (context.hashCode() & Integer.MAX_VALUE) % models.length;
+    }
+
+    /**
+     * string values plus delimiters, ignores escaping and datatype or language of literals
+     *
+     * @param subject
+     * @param predicate
+     * @param object
+     * @param context
+     * @return
+     */
+    private static long estimateBytes(Resource subject, URI predicate, Value object, Resource context) {
+        long bytes = subject.stringValue().length() + predicate.stringValue().length() + object.stringValue().length() + 10;
+        if (context != null) {
+            bytes += context.stringValue().length() + 3;
+        }
+        return bytes;
+    }
+
+    /**
+     *
+     * @param sources
+     * @param out
+     * @throws IOException
+     */
+    private static void write(Model[] sources, OutputStream out) throws IOException {
+        try {
+            RDFWriter writer = Rio.createWriter(RDFFormat.NQUADS, out);
+            writer.startRDF();
+            for (Model model : sources) {
+                for (Statement st : model) {
+                    writer.handleStatement(st);
+                }
+            }
+            writer.endRDF();
+        } catch (RDFHandlerException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * append only write cache buffer encoding statements as nquads on add
+ *
+ * Encoded lines are appended to fixed size byte chunks which are taken
+ * from, and returned on clear to, a pool shared by all buffers. Holding
+ * only the encoded bytes costs far less heap per statement than a Model
+ * and flushing is a plain copy of the chunks, but duplicates are not
+ * removed. Each partition has its own chunks.
+ *
+ */
+public class NQuadsWriteCacheBuffer implements WriteCacheBuffer {
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+    public static final int MAX_POOLED_CHUNKS = 256;
+
+    private static final Queue<byte[]> chunkPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledChunks = new AtomicInteger();
+
+    private final Segment[] segments;
+    private final StringBuilder line = new StringBuilder(256);
+
+    /**
+     * constructor
+     *
+     */
+    public NQuadsWriteCacheBuffer() {
+        this(1);
+    }
+
+    /**
+     * constructor
+     *
+     * @param partitions
+     */
+    public NQuadsWriteCacheBuffer(int partitions) {
+        this.segments = new Segment[Math.max(1, partitions)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * encodes statement, once per context
+     *
+     * @param subject
+     * @param predicate
+     * @param object
+     * @param contexts
+     */
+    @Override
+    public void add(Resource subject, URI predicate, Value object, Resource... contexts) {
+        if (contexts == null || contexts.length == 0) {
+            append(subject, predicate, object, null);
+        } else {
+            for (Resource context : contexts) {
+                append(subject, predicate, object, context);
+            }
+        }
+    }
+
+    /**
+     * appends encoded statements of another NQuadsWriteCacheBuffer with same partition count
+     *
+     * @param other
+     */
+    @Override
+    public void addAll(WriteCacheBuffer other) {
+        NQuadsWriteCacheBuffer buffer = (NQuadsWriteCacheBuffer) other;
+        if (buffer.segments.length != segments.length) {
+            throw new IllegalArgumentException("Write cache buffers have different partition counts.");
+        }
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].append(buffer.segments[i]);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    @Override
+    public int getPartitionCount() {
+        return segments.length;
+    }
+
+    @Override
+    public int size(int partition) {
+        return segments[partition].size;
+    }
+
+    /**
+     * number of encoded bytes held
+     *
+     * @return long
+     */
+    @Override
+    public long getByteSize() {
+        long byteSize = 0;
+        for (Segment segment : segments) {
+            byteSize += segment.byteSize;
+        }
+        return byteSize;
+    }
+
+    /**
+     * writes encoded statements
+     *
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        for (Segment segment : segments) {
+            segment.writeTo(out);
+        }
+    }
+
+    /**
+     * writes encoded statements of partition
+     *
+     * @param partition
+     * @param out
+     * @throws IOException
+     */
+    @Override
+    public void writeTo(int partition, OutputStream out) throws IOException {
+        segments[partition].writeTo(out);
+    }
+
+    /**
+     * clears buffer, returning its chunks to pool
+     *
+     */
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * clears partition, returning its chunks to pool
+     *
+     * @param partition
+     */
+    @Override
+    public void clear(int partition) {
+        segments[partition].clear();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     *
+     * @param subject
+     * @param predicate
+     * @param object
+     * @param context
+     */
+    private void append(Resource subject, URI predicate, Value object, Resource context) {
+        line.setLength(0);
+        try {
+            NTriplesUtil.append(subject, line);
+            line.append(' ');
+            NTriplesUtil.append(predicate, line);
+            line.append(' ');
+            NTriplesUtil.append(object, line);
+            if (context != null) {
+                line.append(' ');
+                NTriplesUtil.append(context, line);
+            }
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        line.append(" .\n");
+        Segment segment = segments[context == null ? 0 : (context.hashCode() & Integer.MAX_VALUE) % segments.length];
+        segment.encode(line);
+        segment.size++;
+    }
+
+    /**
+     * chunks holding encoded statements of one partition
+     */
+    private static class Segment {
+        private final List<byte[]> chunks = new ArrayList<>();
+        private int position = CHUNK_SIZE;
+        private int size;
+        private long byteSize;
+
+        /**
+         * encodes line as utf-8, escaped ascii output is copied without a String
+         *
+         * @param chars
+         */
+        private void encode(StringBuilder chars) {
+            int length = chars.length();
+            for (int i = 0; i < length; i++) {
+                if (chars.charAt(i) >= 0x80) {
+                    byte[] bytes = chars.toString().getBytes(StandardCharsets.UTF_8);
+                    write(bytes, bytes.length);
+                    return;
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                if (position == CHUNK_SIZE) {
+                    nextChunk();
+                }
+                chunks.get(chunks.size() - 1)[position++] = (byte) chars.charAt(i);
+            }
+            byteSize += length;
+        }
+
+        /**
+         *
+         * @param other
+         */
+        private void append(Segment other) {
+            int last = other.chunks.size() - 1;
+            for (int i = 0; i <= last; i++) {
+                write(other.chunks.get(i), i == last ? other.position : CHUNK_SIZE);
+            }
+            size += other.size;
+        }
+
+        /**
+         *
+         * @param out
+         * @throws IOException
+         */
+        private void writeTo(OutputStream out) throws IOException {
+            int last = chunks.size() - 1;
+            for (int i = 0; i <= last; i++) {
+                out.write(chunks.get(i), 0, i == last ? position : CHUNK_SIZE);
+            }
+        }
+
+        /**
+         *
+         * @param bytes
+         * @param length
+         */
+        private void write(byte[] bytes, int length) {
+            int offset = 0;
+            while (offset < length) {
+                if (position == CHUNK_SIZE) {
+                    nextChunk();
+                }
+                int count = Math.min(length - offset, CHUNK_SIZE - position);
+                System.arraycopy(bytes, offset, chunks.get(chunks.size() - 1), position, count);
+                position += count;
+                offset += count;
+            }
+            byteSize += length;
+        }
+
+        /**
+         * takes chunk from pool or allocates a new one
+         *
+         */
+        private void nextChunk() {
+            byte[] chunk = chunkPool.poll();
+            if (chunk != null) {
+                pooledChunks.decrementAndGet();
+            } else {
+                chunk = new byte[CHUNK_SIZE];
+            }
+            chunks.add(chunk);
+            position = 0;
+        }
+
+        /**
+         * returns chunks to pool
+         *
+         */
+        private void clear() {
+            for (byte[] chunk : chunks) {
+                if (pooledChunks.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+                    chunkPool.offer(chunk);
+                } else {
+                    pooledChunks.decrementAndGet();
+                }
+            }
+            chunks.clear();
+            position = CHUNK_SIZE;
+            size = 0;
+            byteSize = 0;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import info.aduna.iteration.LookAheadIteration;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.impl.ListBindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * tuple query result parsing SPARQL JSON results on the consumer's thread
+ *
+ * Each call to hasNext() reads one solution from the stream, so there is no
+ * background thread or queue between parser and consumer. The head must come
+ * before the results, as MarkLogic writes them. The stream is closed when the
+ * last solution is read or the result is closed.
+ *
+ */
+class PullTupleQueryResult extends LookAheadIteration<BindingSet, QueryEvaluationException> implements TupleQueryResult, MarkLogicBatchResult<BindingSet> {
+
+    private static final Logger logger = LoggerFactory.getLogger(PullTupleQueryResult.class);
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final InputStream in;
+    private final ValueFactory f;
+    private final JsonParser parser;
+
+    private final List<String> bindingNames;
+    private final Map<String, Integer> bindingIndex;
+
+    /**
+     * constructor, reads head and positions parser at first solution
+     *
+     * @param in
+     * @param f
+     * @throws QueryEvaluationException
+     */
+    PullTupleQueryResult(InputStream in, ValueFactory f) throws QueryEvaluationException {
+        this.in = in;
+        this.f = f;
+        try {
+            this.parser = jsonFactory.createParser(in);
+            List<String> names = readHead();
+            this.bindingNames = Collections.unmodifiableList(names);
+            this.bindingIndex = new HashMap<>();
+            for (int i = 0; i < names.size(); i++) {
+                bindingIndex.put(names.get(i), i);
+            }
+            seekBindings();
+        } catch (IOException e) {
+            closeStream();
+            throw new QueryEvaluationException(e);
+        } catch (QueryEvaluationException e) {
+            closeStream();
+            throw e;
+        }
+    }
+
+    @Override
+    public List<String> getBindingNames() throws QueryEvaluationException {
+        return bindingNames;
+    }
+
+    @Override
+    protected BindingSet getNextElement() throws QueryEvaluationException {
+        try {
+            JsonToken token = parser.nextToken();
+            if (token != JsonToken.START_OBJECT) {
+                return null;
+            }
+            Value[] values = new Value[bindingNames.size()];
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                Integer index = bindingIndex.get(parser.getCurrentName());
+                parser.nextToken();
+                if (index == null) {
+                    parser.skipChildren();
+                    continue;
+                }
+                values[index] = readValue();
+            }
+            return new ListBindingSet(bindingNames, Arrays.asList(values));
+        } catch (IOException e) {
+            throw new QueryEvaluationException(e);
+        }
+    }
+
+    @Override
+    public List<BindingSet> nextBatch(int max) throws QueryEvaluationException {
+        return BatchedBackgroundResult.drain(this, max);
+    }
+
+    @Override
+    protected void handleClose() throws QueryEvaluationException {
+        try {
+            super.handleClose();
+        } finally {
+            closeStream();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * reads head vars, skipping link and any other head members
+     */
+    private List<String> readHead() throws IOException, QueryEvaluationException {
+        expect(JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (!"head".equals(field)) {
+                if ("results".equals(field)) {
+                    throw new QueryEvaluationException("SPARQL JSON results before head, cannot pull parse");
+                }
+                parser.skipChildren();
+                continue;
+            }
+            List<String> names = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String headField = parser.getCurrentName();
+                parser.nextToken();
+                if ("vars".equals(headField)) {
+                    while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        names.add(parser.getText());
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return names;
+        }
+        throw new QueryEvaluationException("SPARQL JSON results without head");
+    }
+
+    /**
+     * advances to start of results.bindings array
+     */
+    private void seekBindings() throws IOException, QueryEvaluationException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (!"results".equals(field)) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String resultsField = parser.getCurrentName();
+                parser.nextToken();
+                if ("bindings".equals(resultsField)) {
+                    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+                        throw new QueryEvaluationException("SPARQL JSON results bindings is not an array");
+                    }
+                    return;
+                }
+                parser.skipChildren();
+            }
+        }
+        throw new QueryEvaluationException("SPARQL JSON results without bindings");
+    }
+
+    /**
+     * reads one RDF term object, parser positioned on its START_OBJECT
+     */
+    private Value readValue() throws IOException, QueryEvaluationException {
+        String type = null;
+        String value = null;
+        String lang = null;
+        String datatype = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("type".equals(field)) {
+                type = parser.getText();
+            } else if ("value".equals(field)) {
+                value = parser.getText();
+            } else if ("xml:lang".equals(field)) {
+                lang = parser.getText();
+            } else if ("datatype".equals(field)) {
+                datatype = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (type == null || value == null) {
+            throw new QueryEvaluationException("SPARQL JSON results term without type or value");
+        }
+        switch (type) {
+            case "uri":
+                return f.createURI(value);
+            case "bnode":
+                return f.createBNode(value);
+            case "literal":
+            case "typed-literal":
+                if (lang != null) {
+                    return f.createLiteral(value, lang);
+                }
+                if (datatype != null) {
+                    return f.createLiteral(value, f.createURI(datatype));
+                }
+                return f.createLiteral(value);
+            default:
+                throw new QueryEvaluationException("SPARQL JSON results term of unknown type " + type);
+        }
+    }
+
+    private void expect(JsonToken expected) throws IOException, QueryEvaluationException {
+        JsonToken token = parser.nextToken();
+        if (token != expected) {
+            throw new QueryEvaluationException("SPARQL JSON results expected " + expected + " but found " + token);
+        }
+    }
+
+    private void closeStream() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            logger.debug("failed closing result stream", e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.client.impl.SPARQLBindingsImpl;
+import com.marklogic.client.semantics.RDFTypes;
+import com.marklogic.client.semantics.SPARQLBindings;
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.Binding;
+import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * maps Sesame binding values to typed MarkLogic SPARQL bindings
+ *
+ * Bindings sent as request parameters leave the query text unchanged, so
+ * repeated queries with different values reuse the server's query plan.
+ * IRIs, language tagged literals and literals with an xsd datatype known
+ * to MarkLogic are bindable, blank nodes and other datatypes are not and
+ * must be substituted into the query string.
+ *
+ */
+public final class QueryBindings {
+
+    // keyed by lower cased xsd local name, enum constants are the upper cased xsd names (ANYURI for anyURI)
+    private static final Map<String, RDFTypes> XSD_TYPES = new HashMap<>();
+
+    static {
+        for (RDFTypes type : RDFTypes.values()) {
+            XSD_TYPES.put(type.name().replace("_", "").toLowerCase(Locale.ROOT), type);
+        }
+    }
+
+    private QueryBindings() {
+    }
+
+    /**
+     * true if value can be sent as a typed request binding
+     *
+     * @param value
+     * @return boolean
+     */
+    public static boolean isBindable(Value value) {
+        if (value instanceof URI) {
+            return true;
+        }
+        if (value instanceof Literal) {
+            Literal lit = (Literal) value;
+            return lit.getLanguage() != null || lit.getDatatype() == null || xsdType(lit.getDatatype()) != null;
+        }
+        return false;
+    }
+
+    /**
+     * bindings which cannot be sent as request bindings, these are substituted into the query string
+     *
+     * @param bindings
+     * @return SPARQLQueryBindingSet
+     */
+    public static SPARQLQueryBindingSet unbindable(SPARQLQueryBindingSet bindings) {
+        SPARQLQueryBindingSet unbindable = new SPARQLQueryBindingSet();
+        if (bindings != null) {
+            for (Binding binding : bindings) {
+                if (!isBindable(binding.getValue())) {
+                    unbindable.addBinding(binding);
+                }
+            }
+        }
+        return unbindable;
+    }
+
+    /**
+     * converts bindable values of Sesame BindingSet to typed SPARQLBindings, others are skipped
+     *
+     * @param bindings
+     * @return SPARQLBindings
+     */
+    public static SPARQLBindings toSPARQLBindings(SPARQLQueryBindingSet bindings) {
+        SPARQLBindings sps = new SPARQLBindingsImpl();
+        if (bindings != null) {
+            for (Binding binding : bindings) {
+                if (isBindable(binding.getValue())) {
+                    bind(sps, binding.getName(), binding.getValue());
+                }
+            }
+        }
+        return sps;
+    }
+
+    /**
+     * adds typed binding, IRIs are bound untyped, language tagged literals
+     * with their locale, other literals with their xsd type
+     *
+     * @param bindings
+     * @param variableName
+     * @param value - must be bindable
+     * @return SPARQLBindings
+     */
+    public static SPARQLBindings bind(SPARQLBindings bindings, String variableName, Value value) {
+        if (!isBindable(value)) {
+            throw new IllegalArgumentException("value cannot be bound as a request parameter: " + value);
+        }
+        if (value instanceof URI) {
+            return bindings.bind(variableName, value.stringValue());
+        }
+        Literal lit = (Literal) value;
+        if (lit.getLanguage() != null) {
+            return bindings.bind(variableName, lit.getLabel(), Locale.forLanguageTag(lit.getLanguage()));
+        }
+        if (lit.getDatatype() == null) {
+            // plain literal is a string
+            return bindings.bind(variableName, lit.getLabel(), RDFTypes.STRING);
+        }
+        return bindings.bind(variableName, lit.getLabel(), xsdType(lit.getDatatype()));
+    }
+
+    /**
+     * RDFTypes of an xsd datatype, null if datatype is not in the xsd namespace or unknown to MarkLogic
+     *
+     * @param datatype
+     * @return RDFTypes
+     */
+    private static RDFTypes xsdType(URI datatype) {
+        String uri = datatype.stringValue();
+        if (!uri.startsWith(XMLSchema.NAMESPACE)) {
+            return null;
+        }
+        return XSD_TYPES.get(uri.substring(XMLSchema.NAMESPACE.length()).toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * repository level, bounded executor parsing query results in the background
+ *
+ * Background parsers block while the consumer has not drained their result,
+ * so parses are never queued, each is handed directly to an idle thread and
+ * the executor is saturated otherwise. A queued parse would only start once a
+ * running one was consumed, and a consumer holding the running results while
+ * reading the queued one would wait forever.
+ *
+ * When saturated the SaturationPolicy decides if the result is parsed on the
+ * caller's thread (fully, before the result is returned) or rejected. Once
+ * shut down, parses run on the caller's thread whatever the policy.
+ *
+ */
+public class ResultParsingExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultParsingExecutor.class);
+
+    public enum SaturationPolicy { CALLER_RUNS, REJECT }
+
+    public static final int DEFAULT_MAX_THREADS = 16;
+    public static final long KEEP_ALIVE_MILLIS = 60000;
+
+    private static ResultParsingExecutor defaultExecutor;
+
+    private final ThreadPoolExecutor executor;
+
+    private volatile SaturationPolicy policy;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong callerRunsCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * constructor
+     *
+     */
+    public ResultParsingExecutor() {
+        this(DEFAULT_MAX_THREADS, SaturationPolicy.CALLER_RUNS);
+    }
+
+    /**
+     * constructor
+     *
+     * @param maxThreads - greater than 0
+     * @param policy
+     * @throws IllegalArgumentException if maxThreads is 0 or negative
+     */
+    public ResultParsingExecutor(int maxThreads, SaturationPolicy policy) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads must be positive");
+        }
+        this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS, new SynchronousQueue<Runnable>(), new ParserThreadFactory());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.policy = policy;
+    }
+
+    /**
+     * shared executor used by MarkLogicClient instances created outside of a repository
+     *
+     * @return ResultParsingExecutor
+     */
+    public static synchronized ResultParsingExecutor getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = new ResultParsingExecutor();
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * runs parse in background if there is capacity
+     *
+     * @param command
+     * @return true if handed to a background thread, false if caller must parse
+     * @throws RejectedExecutionException if saturated and policy is REJECT
+     */
+    public boolean tryExecute(Runnable command) {
+        try {
+            executor.execute(command);
+            submittedCount.incrementAndGet();
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                callerRunsCount.incrementAndGet();
+                logger.debug("result parsing executor shut down, parsing on caller thread: {}", this);
+                return false;
+            }
+            if (policy == SaturationPolicy.REJECT) {
+                rejectedCount.incrementAndGet();
+                logger.debug("result parsing executor saturated, rejecting: {}", this);
+                throw e;
+            }
+            callerRunsCount.incrementAndGet();
+            logger.debug("result parsing executor saturated, parsing on caller thread: {}", this);
+            return false;
+        }
+    }
+
+    /**
+     * getter for SaturationPolicy
+     *
+     * @return SaturationPolicy
+     */
+    public SaturationPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * setter for SaturationPolicy
+     *
+     * @param policy
+     */
+    public void setPolicy(SaturationPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * max number of parser threads
+     *
+     * @return int
+     */
+    public int getMaxThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * number of threads currently parsing
+     *
+     * @return int
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * number of parser threads alive
+     *
+     * @return int
+     */
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    /**
+     * active threads as fraction of max threads
+     *
+     * @return double
+     */
+    public double getUtilization() {
+        return (double) executor.getActiveCount() / executor.getMaximumPoolSize();
+    }
+
+    /**
+     * number of parses handed to background threads
+     *
+     * @return long
+     */
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    /**
+     * number of background parses completed
+     *
+     * @return long
+     */
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     * number of parses run on caller thread because executor was saturated
+     *
+     * @return long
+     */
+    public long getCallerRunsCount() {
+        return callerRunsCount.get();
+    }
+
+    /**
+     * number of parses rejected because executor was saturated
+     *
+     * @return long
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * stops executor once drained, running parses complete
+     *
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "ResultParsingExecutor[active=" + getActiveCount() + ", maxThreads=" + getMaxThreads()
+                + ", policy=" + policy
+                + ", submitted=" + getSubmittedCount() + ", callerRuns=" + getCallerRunsCount()
+                + ", rejected=" + getRejectedCount() + "]";
+    }
+
+    /**
+     * creates daemon threads so unconsumed results never keep the JVM alive
+     */
+    private static class ParserThreadFactory implements ThreadFactory {
+        private static final AtomicInteger poolNumber = new AtomicInteger(1);
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        private final String prefix = "marklogic-sesame-result-parser-" + poolNumber.getAndIncrement() + "-";
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
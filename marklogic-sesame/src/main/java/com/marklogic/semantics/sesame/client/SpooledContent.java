@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.client.io.OutputStreamHandle;
+import com.marklogic.client.io.OutputStreamSender;
+import com.marklogic.client.io.marker.QuadsWriteHandle;
+import com.marklogic.client.io.marker.TriplesWriteHandle;
+import org.openrdf.rio.RDFFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * content of a stream read once and held so it can be sent many times
+ *
+ * Content is kept in memory up to a threshold and spooled to a temp file
+ * beyond it, the temp file is removed on close. Handles over the content
+ * are independent and may be written concurrently.
+ *
+ */
+class SpooledContent implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpooledContent.class);
+
+    public static final int DEFAULT_MEMORY_THRESHOLD = 16 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final byte[] bytes;
+    private final int byteCount;
+    private final File file;
+    private final long length;
+
+    private SpooledContent(byte[] bytes, int byteCount, File file, long length) {
+        this.bytes = bytes;
+        this.byteCount = byteCount;
+        this.file = file;
+        this.length = length;
+    }
+
+    /**
+     * reads stream to its end, closing it
+     *
+     * @param in
+     * @param memoryThreshold - max bytes held in memory before spooling to temp file
+     * @return SpooledContent
+     * @throws IOException
+     */
+    static SpooledContent spool(InputStream in, int memoryThreshold) throws IOException {
+        try {
+            ExposedByteArrayOutputStream memory = new ExposedByteArrayOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                if (memory.size() + n > memoryThreshold) {
+                    return spoolToFile(memory, buffer, n, in);
+                }
+                memory.write(buffer, 0, n);
+            }
+            return new SpooledContent(memory.buffer(), memory.size(), null, memory.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * number of bytes held
+     *
+     * @return long
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * true if content was spooled to a temp file
+     *
+     * @return boolean
+     */
+    boolean isSpooledToFile() {
+        return file != null;
+    }
+
+    /**
+     * new resendable write handle sending content with format's mimetype
+     *
+     * @param dataFormat
+     * @return QuadsWriteHandle
+     */
+    QuadsWriteHandle newHandle(RDFFormat dataFormat) {
+        return new ContentWriteHandle(dataFormat);
+    }
+
+    @Override
+    public void close() {
+        if (file != null && !file.delete()) {
+            logger.warn("could not delete spool file {}", file);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static SpooledContent spoolToFile(ExposedByteArrayOutputStream memory, byte[] buffer, int n, InputStream in) throws IOException {
+        File file = File.createTempFile("marklogic-sesame-", ".spool");
+        file.deleteOnExit();
+        long length = 0;
+        try (OutputStream out = new FileOutputStream(file)) {
+            memory.writeTo(out);
+            length += memory.size();
+            out.write(buffer, 0, n);
+            length += n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+                length += n;
+            }
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        logger.debug("spooled {} bytes to {}", length, file);
+        return new SpooledContent(null, 0, file, length);
+    }
+
+    private void writeTo(OutputStream out) throws IOException {
+        if (file != null) {
+            Files.copy(file.toPath(), out);
+        } else {
+            out.write(bytes, 0, byteCount);
+        }
+        out.flush();
+    }
+
+    /**
+     * gives access to internal buffer, avoiding a copy
+     */
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        private ExposedByteArrayOutputStream() {
+            super(BUFFER_SIZE);
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * write handle sending spooled content
+     */
+    private class ContentWriteHandle extends OutputStreamHandle implements QuadsWriteHandle, TriplesWriteHandle {
+        private ContentWriteHandle(RDFFormat dataFormat) {
+            super(new OutputStreamSender() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    writeTo(out);
+                }
+            });
+            setMimetype(dataFormat.getDefaultMIMEType());
+            setResendable(true);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.semantics.sesame.MarkLogicSesameException;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * adds statements in bulk, bypassing the write cache
+ *
+ * Statements are encoded as nquads into a chunk buffer, each full chunk
+ * is sent as a single request. Up to the given number of chunks upload
+ * in parallel on the flush scheduler's lane threads, the caller uploads
+ * a chunk itself when no lane is free. Inside a transaction chunks
+ * upload one at a time on the caller's thread.
+ *
+ */
+public class StatementAddBatch {
+
+    public static final int DEFAULT_CHUNK_SIZE = 10000;
+    public static final int DEFAULT_THREADS = 4;
+
+    private static final Resource[] NO_CONTEXTS = new Resource[0];
+
+    private final MarkLogicClient client;
+    private final WriteCacheFlushScheduler scheduler;
+    private final int chunkSize;
+    private final int threads;
+
+    private final Semaphore uploads;
+    private final Queue<WriteCacheBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final Resource[] context = new Resource[1];
+
+    private WriteCacheBuffer current;
+    private volatile MarkLogicSesameException error;
+
+    private final AtomicLong addCount = new AtomicLong();
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    /**
+     * constructor
+     *
+     * @param client
+     * @param scheduler
+     * @param chunkSize
+     * @param threads - max chunks uploading at once, 1 uploads on caller thread
+     */
+    StatementAddBatch(MarkLogicClient client, WriteCacheFlushScheduler scheduler, int chunkSize, int threads) {
+        this.client = client;
+        this.scheduler = scheduler;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.threads = Math.max(1, threads);
+        this.uploads = new Semaphore(this.threads);
+        this.current = WriteCacheBuffer.Type.NQUADS.newBuffer();
+    }
+
+    /**
+     * adds statement to its own context and any supplied contexts, as add(Statement, Resource...)
+     *
+     * @param st
+     * @param contexts
+     * @throws MarkLogicSesameException
+     */
+    public void add(Statement st, Resource... contexts) throws MarkLogicSesameException {
+        Resource stContext = st.getContext();
+        if (stContext == null) {
+            add(st.getSubject(), st.getPredicate(), st.getObject(), contexts);
+        } else if (contexts == null || contexts.length == 0) {
+            context[0] = stContext;
+            add(st.getSubject(), st.getPredicate(), st.getObject(), context);
+        } else {
+            Resource[] merged = new Resource[contexts.length + 1];
+            merged[0] = stContext;
+            System.arraycopy(contexts, 0, merged, 1, contexts.length);
+            add(st.getSubject(), st.getPredicate(), st.getObject(), merged);
+        }
+    }
+
+    /**
+     * adds statement, once per context, sends chunk when full
+     *
+     * @param subject
+     * @param predicate
+     * @param object
+     * @param contexts
+     * @throws MarkLogicSesameException
+     */
+    public void add(Resource subject, URI predicate, Value object, Resource... contexts) throws MarkLogicSesameException {
+        throwError();
+        current.add(subject, predicate, object, contexts == null ? NO_CONTEXTS : contexts);
+        if (current.size() >= chunkSize) {
+            send();
+        }
+    }
+
+    /**
+     * sends pending statements and waits for all uploads to complete
+     *
+     * @throws MarkLogicSesameException
+     */
+    public void flush() throws MarkLogicSesameException {
+        try {
+            if (current.size() > 0) {
+                send();
+            }
+        } finally {
+            awaitUploads();
+        }
+        throwError();
+    }
+
+    /**
+     * number of statements sent, per context
+     *
+     * @return long
+     */
+    public long getAddCount() {
+        return addCount.get();
+    }
+
+    /**
+     * number of add requests sent
+     *
+     * @return int
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * max number of chunks uploading at once
+     *
+     * @return int
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * hands current chunk to an upload and starts a new one
+     *
+     * @throws MarkLogicSesameException
+     */
+    private void send() throws MarkLogicSesameException {
+        WriteCacheBuffer chunk = current;
+        if (threads == 1) {
+            upload(chunk);
+            chunk.clear();
+            throwError();
+            return;
+        }
+        try {
+            uploads.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MarkLogicSesameException("Interrupted waiting for bulk add upload.");
+        }
+        WriteCacheBuffer next = buffers.poll();
+        current = next != null ? next : WriteCacheBuffer.Type.NQUADS.newBuffer();
+        Upload upload = new Upload(chunk);
+        if (!scheduler.executeLane(upload)) {
+            upload.run();
+        }
+        throwError();
+    }
+
+    /**
+     * sends chunk, recording first failure
+     *
+     * @param chunk
+     */
+    private void upload(WriteCacheBuffer chunk) {
+        int size = chunk.size();
+        try {
+            client.sendAdd(chunk);
+            addCount.addAndGet(size);
+            requestCount.incrementAndGet();
+        } catch (MarkLogicSesameException e) {
+            recordError(e);
+        } catch (RuntimeException e) {
+            recordError(new MarkLogicSesameException(e));
+        }
+    }
+
+    private synchronized void recordError(MarkLogicSesameException e) {
+        if (error == null) {
+            error = e;
+        }
+    }
+
+    private void throwError() throws MarkLogicSesameException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void awaitUploads() throws MarkLogicSesameException {
+        try {
+            uploads.acquire(threads);
+            uploads.release(threads);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MarkLogicSesameException("Interrupted waiting for bulk add uploads.");
+        }
+    }
+
+    /**
+     * uploads one chunk, returning its buffer for reuse
+     */
+    private class Upload implements Runnable {
+        private final WriteCacheBuffer chunk;
+
+        private Upload(WriteCacheBuffer chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void run() {
+            try {
+                upload(chunk);
+            } finally {
+                chunk.clear();
+                buffers.offer(chunk);
+                uploads.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.semantics.sesame.MarkLogicSesameException;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.StatementImpl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * collects statements to remove and sends them in chunks, each chunk
+ * as a single update grouping statements by context
+ *
+ * Statements with contexts are removed with DELETE DATA from those
+ * contexts (null for default graph), statements without contexts are
+ * removed from any graph. Blank nodes are skolemized as for single
+ * statement removes. Chunks run in the client's open transaction.
+ *
+ */
+public class StatementRemoveBatch {
+
+    public static final int DEFAULT_CHUNK_SIZE = 5000;
+
+    private final MarkLogicClient client;
+    private final int chunkSize;
+
+    private final Map<Resource, List<Statement>> statementsByContext = new LinkedHashMap<>();
+    private final List<Statement> statements = new ArrayList<>();
+
+    private int pending;
+    private long removeCount;
+    private int requestCount;
+
+    /**
+     * constructor
+     *
+     * @param client
+     * @param chunkSize
+     */
+    StatementRemoveBatch(MarkLogicClient client, int chunkSize) {
+        this.client = client;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * adds statement to batch, once per context, sends chunk when full
+     *
+     * @param subject
+     * @param predicate
+     * @param object
+     * @param contexts
+     * @throws MarkLogicSesameException
+     */
+    public void remove(Resource subject, URI predicate, Value object, Resource... contexts) throws MarkLogicSesameException {
+        Statement st = new StatementImpl((Resource) client.skolemize(subject), (URI) client.skolemize(predicate), client.skolemize(object));
+        if (contexts == null || contexts.length == 0) {
+            statements.add(st);
+            pending++;
+        } else {
+            for (Resource context : contexts) {
+                List<Statement> contextStatements = statementsByContext.get(context);
+                if (contextStatements == null) {
+                    contextStatements = new ArrayList<>();
+                    statementsByContext.put(context, contextStatements);
+                }
+                contextStatements.add(st);
+                pending++;
+            }
+        }
+        if (pending >= chunkSize) {
+            flush();
+        }
+    }
+
+    /**
+     * sends pending statements
+     *
+     * @throws MarkLogicSesameException
+     */
+    public void flush() throws MarkLogicSesameException {
+        if (pending == 0) {
+            return;
+        }
+        client.sendRemove(statementsByContext, statements);
+        removeCount += pending;
+        requestCount++;
+        statementsByContext.clear();
+        statements.clear();
+        pending = 0;
+    }
+
+    /**
+     * number of statements sent, per context
+     *
+     * @return long
+     */
+    public long getRemoveCount() {
+        return removeCount;
+    }
+
+    /**
+     * number of update requests sent
+     *
+     * @return int
+     */
+    public int getRequestCount() {
+        return requestCount;
+    }
+}
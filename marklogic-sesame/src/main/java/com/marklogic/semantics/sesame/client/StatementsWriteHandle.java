@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import com.marklogic.client.io.OutputStreamHandle;
+import com.marklogic.client.io.OutputStreamSender;
+import com.marklogic.client.io.marker.QuadsWriteHandle;
+import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.Rio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * write handle serializing statements straight into the http request body
+ *
+ * Nothing is buffered beyond the serializer and request stream buffers, so
+ * memory per write is bounded regardless of the number of statements. The
+ * handle is resendable as statements are serialized again on retry.
+ *
+ */
+class StatementsWriteHandle extends OutputStreamHandle implements QuadsWriteHandle {
+
+    /**
+     * constructor
+     *
+     * @param statements
+     * @param format
+     */
+    StatementsWriteHandle(final Iterable<? extends Statement> statements, final RDFFormat format) {
+        super(new OutputStreamSender() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                try {
+                    RDFWriter writer = Rio.createWriter(format, out);
+                    writer.startRDF();
+                    for (Statement st : statements) {
+                        writer.handleStatement(st);
+                    }
+                    writer.endRDF();
+                    out.flush();
+                } catch (RDFHandlerException e) {
+                    throw new IOException(e);
+                }
+            }
+        });
+        setMimetype(format.getDefaultMIMEType());
+        setResendable(true);
+    }
+
+    /**
+     * constructor, writes contents of write cache buffer as nquads
+     *
+     * @param buffer
+     */
+    StatementsWriteHandle(final WriteCacheBuffer buffer) {
+        super(new OutputStreamSender() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                buffer.writeTo(out);
+                out.flush();
+            }
+        });
+        setMimetype(RDFFormat.NQUADS.getDefaultMIMEType());
+        setResendable(true);
+    }
+
+    /**
+     * constructor, writes one partition of write cache buffer as nquads
+     *
+     * @param buffer
+     * @param partition
+     */
+    StatementsWriteHandle(final WriteCacheBuffer buffer, final int partition) {
+        super(new OutputStreamSender() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                buffer.writeTo(partition, out);
+                out.flush();
+            }
+        });
+        setMimetype(RDFFormat.NQUADS.getDefaultMIMEType());
+        setResendable(true);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * buffer holding statements pending in write cache until flushed as nquads
+ *
+ */
+public interface WriteCacheBuffer {
+
+    /**
+     * write cache buffer implementations
+     */
+    enum Type {
+        /**
+         * statements held in a LinkedHashModel, duplicates are removed before flush
+         */
+        MODEL {
+            @Override
+            public WriteCacheBuffer newBuffer(int partitions) {
+                return new ModelWriteCacheBuffer(partitions);
+            }
+        },
+        /**
+         * statements encoded as nquads on add into pooled byte chunks, duplicates are sent as is
+         */
+        NQUADS {
+            @Override
+            public WriteCacheBuffer newBuffer(int partitions) {
+                return new NQuadsWriteCacheBuffer(partitions);
+            }
+        };
+
+        public WriteCacheBuffer newBuffer() {
+            return newBuffer(1);
+        }
+
+        /**
+         * new buffer partitioning statements by context
+         *
+         * @param partitions
+         * @return WriteCacheBuffer
+         */
+        public abstract WriteCacheBuffer newBuffer(int partitions);
+    }
+
+    /**
+     * add statement, once per context
+     *
+     * @param subject
+     * @param predicate
+     * @param object
+     * @param contexts
+     */
+    void add(Resource subject, URI predicate, Value object, Resource... contexts);
+
+    /**
+     * adds all statements of a buffer of same type and partition count
+     *
+     * @param other
+     */
+    void addAll(WriteCacheBuffer other);
+
+    /**
+     * number of statements held
+     *
+     * @return int
+     */
+    int size();
+
+    /**
+     * number of nquads bytes held, estimated for buffers not holding encoded statements
+     *
+     * @return long
+     */
+    long getByteSize();
+
+    /**
+     * number of context partitions, statements of a context are always in the same partition
+     *
+     * @return int
+     */
+    int getPartitionCount();
+
+    /**
+     * number of statements held in partition
+     *
+     * @param partition
+     * @return int
+     */
+    int size(int partition);
+
+    /**
+     * writes statements as nquads
+     *
+     * @param out
+     * @throws IOException
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * writes statements of partition as nquads
+     *
+     * @param partition
+     * @param out
+     * @throws IOException
+     */
+    void writeTo(int partition, OutputStream out) throws IOException;
+
+    /**
+     * removes all statements, releasing held memory for reuse
+     *
+     */
+    void clear();
+
+    /**
+     * removes all statements of partition
+     *
+     * @param partition
+     */
+    void clear(int partition);
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * repository wide scheduler driving write cache flushes
+ *
+ * A small fixed number of daemon threads serve every write cache; a cache
+ * is only scheduled when it becomes dirty, for its own flush deadline, so
+ * idle caches cost nothing. Partitioned flushes send their partitions in
+ * parallel on a separate, bounded pool of lane threads.
+ *
+ * Being daemons, flush threads never keep the JVM alive. Instead a shutdown
+ * hook flushes every cache still holding statements when the JVM exits
+ * without the repository being shut down, so a program that adds statements
+ * and returns from main does not lose its pending write cache. Failures of
+ * that last flush are logged. The hook is removed by shutdown().
+ *
+ */
+public class WriteCacheFlushScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteCacheFlushScheduler.class);
+
+    public static final int DEFAULT_THREADS = 2;
+    public static final int DEFAULT_LANE_THREADS = 8;
+    public static final long LANE_KEEP_ALIVE_MILLIS = 60000;
+
+    private static WriteCacheFlushScheduler defaultScheduler;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final ThreadPoolExecutor laneExecutor;
+
+    private final Thread flushOnExit = new Thread(new Runnable() {
+        @Override
+        public void run() {
+            flushDirtyCaches();
+        }
+    }, "marklogic-sesame-write-cache-exit");
+
+    private final Set<WriteCacheTimerTask> caches = Collections.newSetFromMap(new ConcurrentHashMap<WriteCacheTimerTask, Boolean>());
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong totalLagMillis = new AtomicLong();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private final AtomicLong lastLagMillis = new AtomicLong();
+
+    /**
+     * constructor
+     *
+     */
+    public WriteCacheFlushScheduler() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * constructor init with number of flush threads
+     *
+     * @param threads
+     */
+    public WriteCacheFlushScheduler(int threads) {
+        this.executor = new ScheduledThreadPoolExecutor(threads, new FlushThreadFactory("write-cache"));
+        this.laneExecutor = new ThreadPoolExecutor(0, DEFAULT_LANE_THREADS, LANE_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>(), new FlushThreadFactory("write-lane"));
+        Runtime.getRuntime().addShutdownHook(flushOnExit);
+    }
+
+    /**
+     * shared scheduler used by MarkLogicClient instances created outside of a repository
+     *
+     * @return WriteCacheFlushScheduler
+     */
+    public static synchronized WriteCacheFlushScheduler getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new WriteCacheFlushScheduler();
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * start tracking write cache
+     *
+     * @param cache
+     */
+    public void register(WriteCacheTimerTask cache) {
+        caches.add(cache);
+    }
+
+    /**
+     * stop tracking write cache
+     *
+     * @param cache
+     */
+    public void unregister(WriteCacheTimerTask cache) {
+        caches.remove(cache);
+    }
+
+    /**
+     * schedules write cache to run after delay
+     *
+     * @param cache
+     * @param delayMillis
+     * @return true if scheduled
+     */
+    public boolean schedule(WriteCacheTimerTask cache, long delayMillis) {
+        try {
+            executor.schedule(cache, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.debug("write cache flush scheduler is shut down, cache will flush on sync.");
+            return false;
+        }
+    }
+
+    /**
+     * runs write cache flush on a scheduler thread as soon as one is free
+     *
+     * @param flush
+     * @return true if submitted
+     */
+    public boolean execute(Runnable flush) {
+        try {
+            executor.execute(flush);
+            return true;
+        } catch (RejectedExecutionException e) {
+            logger.debug("write cache flush scheduler is shut down, flushing on caller thread.");
+            return false;
+        }
+    }
+
+    /**
+     * runs partition of a flush on a lane thread if one is free
+     *
+     * @param lane
+     * @return true if submitted, false if caller must run lane
+     */
+    public boolean executeLane(Runnable lane) {
+        try {
+            laneExecutor.execute(lane);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * records how far a flush started behind its deadline
+     *
+     * @param lagMillis
+     */
+    void recordFlushLag(long lagMillis) {
+        long lag = Math.max(0, lagMillis);
+        flushCount.incrementAndGet();
+        totalLagMillis.addAndGet(lag);
+        lastLagMillis.set(lag);
+        long max = maxLagMillis.get();
+        while (lag > max && !maxLagMillis.compareAndSet(max, lag)) {
+            max = maxLagMillis.get();
+        }
+    }
+
+    /**
+     * number of write caches tracked
+     *
+     * @return int
+     */
+    public int getTrackedCacheCount() {
+        return caches.size();
+    }
+
+    /**
+     * number of write caches with pending statements
+     *
+     * @return int
+     */
+    public int getDirtyCacheCount() {
+        int dirty = 0;
+        for (WriteCacheTimerTask cache : caches) {
+            if (cache.isDirty()) {
+                dirty++;
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * number of deadline flushes run
+     *
+     * @return long
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * lag (ms) behind deadline of most recent flush
+     *
+     * @return long
+     */
+    public long getLastFlushLagMillis() {
+        return lastLagMillis.get();
+    }
+
+    /**
+     * max lag (ms) behind deadline of any flush
+     *
+     * @return long
+     */
+    public long getMaxFlushLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    /**
+     * average lag (ms) behind deadline of all flushes
+     *
+     * @return double
+     */
+    public double getAverageFlushLagMillis() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : (double) totalLagMillis.get() / count;
+    }
+
+    /**
+     * getter for number of flush threads
+     *
+     * @return int
+     */
+    public int getThreads() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * setter for number of flush threads
+     *
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        executor.setCorePoolSize(threads);
+    }
+
+    /**
+     * getter for max number of threads running flush partitions in parallel
+     *
+     * @return int
+     */
+    public int getLaneThreads() {
+        return laneExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * setter for max number of threads running flush partitions in parallel,
+     * shared by all write caches, partitions run on the flushing thread when none is free
+     *
+     * @param laneThreads - greater than 0
+     * @throws IllegalArgumentException if laneThreads is 0 or negative
+     */
+    public void setLaneThreads(int laneThreads) {
+        if (laneThreads <= 0) {
+            throw new IllegalArgumentException("laneThreads must be positive");
+        }
+        laneExecutor.setMaximumPoolSize(laneThreads);
+    }
+
+    /**
+     * number of lane threads currently flushing partitions
+     *
+     * @return int
+     */
+    public int getActiveLaneCount() {
+        return laneExecutor.getActiveCount();
+    }
+
+    /**
+     * stops scheduler, flushes already scheduled still run
+     *
+     */
+    public void shutdown() {
+        executor.shutdown();
+        laneExecutor.shutdown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(flushOnExit);
+        } catch (IllegalStateException e) {
+            // JVM already shutting down, hook is running or has run
+        }
+    }
+
+    /**
+     *
+     * @return boolean
+     */
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteCacheFlushScheduler[threads=" + getThreads() + ", laneThreads=" + getLaneThreads()
+                + ", tracked=" + getTrackedCacheCount()
+                + ", flushes=" + getFlushCount() + ", lastLagMillis=" + getLastFlushLagMillis()
+                + ", maxLagMillis=" + getMaxFlushLagMillis() + "]";
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * flushes caches with pending statements on the calling thread, run by the shutdown hook
+     */
+    private void flushDirtyCaches() {
+        for (WriteCacheTimerTask cache : caches) {
+            if (cache.isDirty()) {
+                try {
+                    cache.forceRun();
+                } catch (Exception e) {
+                    logger.warn("failed flushing write cache on exit, pending statements are lost: {}", cache, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * creates daemon threads, the shutdown hook flushes caches left dirty at exit
+     */
+    private static class FlushThreadFactory implements ThreadFactory {
+        private static final AtomicInteger poolNumber = new AtomicInteger(1);
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        private final String prefix;
+
+        private FlushThreadFactory(String name) {
+            this.prefix = "marklogic-sesame-" + name + "-" + poolNumber.getAndIncrement() + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -14,73 +14,150 @@
  * limitations under the License.
  */
 /**
- * A timer that flushes a cache of triple add statements
- * periodically. The cache is represented as a Model.
+ * A task that flushes a cache of triple add statements
+ * when it is full or its deadline passes. The cache is held in a WriteCacheBuffer.
  */
 package com.marklogic.semantics.sesame.client;
 
 import com.marklogic.semantics.sesame.MarkLogicSesameException;
-import org.openrdf.model.Model;
 import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
-import org.openrdf.model.impl.LinkedHashModel;
-import org.openrdf.rio.RDFFormat;
-import org.openrdf.rio.RDFHandlerException;
-import org.openrdf.rio.RDFParseException;
-import org.openrdf.rio.Rio;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-
-import java.util.Date;
-import java.util.TimerTask;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 /**
- * Timer implements write cache for efficient adding of triples
+ * Task implements write cache for efficient adding of triples, it is
+ * scheduled on a shared WriteCacheFlushScheduler only while it holds
+ * pending triples
+ *
+ * The cache is double buffered; triples are added to the active buffer
+ * while the flushing buffer is written on a scheduler thread, so writers
+ * never wait for serialization or http. Writers only block once the
+ * active buffer reaches the high water mark while a flush is still in
+ * flight. With a parallelism above 1 buffers are partitioned by context
+ * and partitions are flushed concurrently.
  *
  * @author James Fuller
  */
-public class WriteCacheTimerTask extends TimerTask {
+public class WriteCacheTimerTask implements Runnable {
 
     private static final Logger log = LoggerFactory.getLogger(WriteCacheTimerTask.class);
 
-    private Model cache;
+    private WriteCacheBuffer active;
+    private WriteCacheBuffer flushing;
+    private WriteCacheBuffer spare;
+    private final WriteCacheBuffer.Type bufferType;
+    private final int parallelism;
     private MarkLogicClient client;
+    private WriteCacheFlushScheduler scheduler;
 
     public static final long DEFAULT_CACHE_SIZE = 500;
 
     public static final long DEFAULT_CACHE_MILLIS = 500;
     public static final long DEFAULT_INITIAL_DELAY = 10;
-
-    private RDFFormat format = RDFFormat.NQUADS;
+    public static final int DEFAULT_PARALLELISM = 1;
 
     private long cacheSize;
 
     private long cacheMillis;
 
-    private Date lastCacheAccess = new Date();
+    private long highWaterMark;
+
+    private long cacheBytes;
+
+    private AdaptiveWriteCacheController controller;
+
+    private long deadline;
+
+    private boolean scheduled = false;
+
+    private boolean cancelled = false;
+
+    private MarkLogicSesameException flushError;
+
+    private final Runnable backgroundFlush = new Runnable() {
+        @Override
+        public void run() {
+            flushInBackground();
+        }
+    };
 
     /**
      * constructor
      *
      * @param client
+     * @param scheduler
      */
-    public WriteCacheTimerTask(MarkLogicClient client) {
-        super();
-        this.client = client;
-        this.cache = new LinkedHashModel();
-        this.cacheSize = DEFAULT_CACHE_SIZE;
-        this.cacheMillis = DEFAULT_CACHE_MILLIS;
+    public WriteCacheTimerTask(MarkLogicClient client, WriteCacheFlushScheduler scheduler) {
+        this(client, scheduler, DEFAULT_CACHE_SIZE, DEFAULT_CACHE_MILLIS);
+    }
+
+    /**
+     * constructor
+     *
+     * @param client
+     * @param scheduler
+     * @param cacheSize
+     * @param cacheMillis
+     */
+    public WriteCacheTimerTask(MarkLogicClient client, WriteCacheFlushScheduler scheduler, long cacheSize, long cacheMillis) {
+        this(client, scheduler, cacheSize, cacheMillis, 2 * cacheSize);
+    }
+
+    /**
+     * constructor
+     *
+     * @param client
+     * @param scheduler
+     * @param cacheSize
+     * @param cacheMillis
+     * @param highWaterMark
+     */
+    public WriteCacheTimerTask(MarkLogicClient client, WriteCacheFlushScheduler scheduler, long cacheSize, long cacheMillis, long highWaterMark) {
+        this(client, scheduler, cacheSize, cacheMillis, highWaterMark, WriteCacheBuffer.Type.MODEL);
     }
 
-    public WriteCacheTimerTask(MarkLogicClient client, long cacheSize) {
+    /**
+     * constructor
+     *
+     * @param client
+     * @param scheduler
+     * @param cacheSize
+     * @param cacheMillis
+     * @param highWaterMark
+     * @param bufferType
+     */
+    public WriteCacheTimerTask(MarkLogicClient client, WriteCacheFlushScheduler scheduler, long cacheSize, long cacheMillis, long highWaterMark, WriteCacheBuffer.Type bufferType) {
+        this(client, scheduler, cacheSize, cacheMillis, highWaterMark, bufferType, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * constructor
+     *
+     * @param client
+     * @param scheduler
+     * @param cacheSize
+     * @param cacheMillis
+     * @param highWaterMark
+     * @param bufferType
+     * @param parallelism - number of context partitions flushed concurrently
+     */
+    public WriteCacheTimerTask(MarkLogicClient client, WriteCacheFlushScheduler scheduler, long cacheSize, long cacheMillis, long highWaterMark, WriteCacheBuffer.Type bufferType, int parallelism) {
         super();
         this.client = client;
-        this.cache = new LinkedHashModel();
+        this.scheduler = scheduler;
+        this.bufferType = bufferType;
+        this.parallelism = Math.max(1, parallelism);
+        this.active = this.bufferType.newBuffer(this.parallelism);
         setCacheSize(cacheSize);
+        setCacheMillis(cacheMillis);
+        setHighWaterMark(highWaterMark);
+        scheduler.register(this);
     }
 
     /**
@@ -88,7 +165,7 @@ public class WriteCacheTimerTask extends TimerTask {
      *
      * @return
      */
-    public long getCacheSize() {
+    public synchronized long getCacheSize() {
         return this.cacheSize;
     }
 
@@ -97,7 +174,7 @@ public class WriteCacheTimerTask extends TimerTask {
      *
      * @param cacheSize
      */
-    public void setCacheSize(long cacheSize) {
+    public synchronized void setCacheSize(long cacheSize) {
         this.cacheSize = cacheSize;
     }
 
@@ -106,7 +183,7 @@ public class WriteCacheTimerTask extends TimerTask {
      *
      * @return
      */
-    public long getCacheMillis() {
+    public synchronized long getCacheMillis() {
         return cacheMillis;
     }
 
@@ -115,75 +192,497 @@ public class WriteCacheTimerTask extends TimerTask {
      *
      * @param cacheMillis
      */
-    public void setCacheMillis(long cacheMillis) {
+    public synchronized void setCacheMillis(long cacheMillis) {
         this.cacheMillis = cacheMillis;
     }
 
     /**
-     * tests to see if we should flush cache
+     * getter cacheBytes
+     *
+     * @return
+     */
+    public synchronized long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    /**
+     * setter cacheBytes, size (# nquads bytes) at which cache is flushed regardless
+     * of number of triples, 0 disables. Add blocks at twice this size while a flush is
+     * in flight.
+     *
+     * @param cacheBytes
+     */
+    public synchronized void setCacheBytes(long cacheBytes) {
+        this.cacheBytes = Math.max(0, cacheBytes);
+        notifyAll();
+    }
+
+    /**
+     * getter controller
+     *
+     * @return
+     */
+    public synchronized AdaptiveWriteCacheController getController() {
+        return controller;
+    }
+
+    /**
+     * setter controller, adjusting cacheSize and cacheMillis after each flush, null disables
+     *
+     * @param controller
+     */
+    public synchronized void setController(AdaptiveWriteCacheController controller) {
+        this.controller = controller;
+        if (controller != null) {
+            controller.init(this.cacheSize, this.cacheMillis);
+            this.cacheSize = controller.getCacheSize();
+            this.cacheMillis = controller.getCacheMillis();
+        }
+    }
+
+    /**
+     * number of triples pending, including any in flight
+     *
+     * @return
+     */
+    public synchronized long getPendingCount() {
+        return this.active.size() + (this.flushing != null ? this.flushing.size() : 0);
+    }
+
+    /**
+     * number of nquads bytes pending, including any in flight
+     *
+     * @return
+     */
+    public synchronized long getPendingBytes() {
+        return this.active.getByteSize() + (this.flushing != null ? this.flushing.getByteSize() : 0);
+    }
+
+    /**
+     * getter highWaterMark
+     *
+     * @return
+     */
+    public synchronized long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * setter highWaterMark, number of triples the active buffer may hold
+     * while a flush is in flight before add blocks
+     *
+     * @param highWaterMark
+     */
+    public synchronized void setHighWaterMark(long highWaterMark) {
+        this.highWaterMark = Math.max(1, highWaterMark);
+        notifyAll();
+    }
+
+    /**
+     * getter bufferType
+     *
+     * @return
+     */
+    public WriteCacheBuffer.Type getBufferType() {
+        return bufferType;
+    }
+
+    /**
+     * getter parallelism
+     *
+     * @return
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * returns true if cache holds triples not yet flushed
+     *
+     * @return boolean
+     */
+    public synchronized boolean isDirty() {
+        return this.active.size() > 0 || this.flushing != null;
+    }
+
+    /**
+     * returns true if a flush is in flight
+     *
+     * @return boolean
+     */
+    public synchronized boolean isFlushing() {
+        return this.flushing != null;
+    }
+
+    /**
+     * run by scheduler, flushes cache if its deadline has passed
      *
      */
     @Override
-    public synchronized void run(){
-        Date now = new Date();
-        if ( this.cache.size() > this.cacheSize - 1 || (this.cache.size() > 0 && now.getTime() - this.lastCacheAccess.getTime() > this.cacheMillis)) {
-            try {
-                flush();
-            } catch ( MarkLogicSesameException| InterruptedException e) {
-                // cannot throw exception in runnable run(), best we log it
-                log.warn("Exception thrown in other thread, when running writeCacheTimerTask.");
-                log.warn(e.toString(),e );
+    public void run(){
+        synchronized (this) {
+            this.scheduled = false;
+            if (this.cancelled || this.active.size() == 0 || this.flushing != null) {
+                // an in flight flush reschedules when it completes
+                return;
             }
+            long now = System.currentTimeMillis();
+            if (now < this.deadline) {
+                scheduleFlush(this.deadline - now);
+                return;
+            }
+            this.scheduler.recordFlushLag(now - this.deadline);
+            swap();
         }
+        flushInBackground();
     }
 
     /**
-     * flushes the cache, writing triples as graph
+     * stops tracking this cache, pending triples are not flushed
      *
-     * @throws MarkLogicSesameException
      */
-    private void flush() throws MarkLogicSesameException, InterruptedException {
-        log.debug("flushing write cache:" + this.cache.size());
-        try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            Rio.write(this.cache, out, this.format);
-            this.client.sendAdd(new ByteArrayInputStream(out.toByteArray()), null, this.format);
-            this.lastCacheAccess = new Date();
-            this.cache.clear();
-        } catch (RDFHandlerException | RDFParseException e) {
-            log.info(e.getLocalizedMessage());
-            throw new MarkLogicSesameException(e);
-        }
+    public synchronized void cancel() {
+        this.cancelled = true;
+        this.scheduler.unregister(this);
+        notifyAll();
     }
 
-    /**min
-     * forces the cache to flush if there is anything in it
+    /**
+     * forces the cache to flush if there is anything in it, waits for
+     * any in flight flush and then flushes the active buffer on the
+     * caller thread
      *
      * @throws MarkLogicSesameException
      */
     public void forceRun() throws MarkLogicSesameException {
-        try {
-            if( this.cache.size() > 0) {
-                flush();
+        WriteCacheBuffer batch;
+        synchronized (this) {
+            awaitFlush();
+            // failed triples were returned to active buffer and are retried here
+            this.flushError = null;
+            if (this.active.size() == 0) {
+                return;
             }
-        } catch (InterruptedException e) {
-            throw new MarkLogicSesameException(e);
+            swap();
+            batch = this.flushing;
+        }
+        MarkLogicSesameException error = null;
+        try {
+            flush(batch);
+        } catch (MarkLogicSesameException e) {
+            error = e;
+        }
+        if (completeFlush(batch, error, false)) {
+            dispatchFlush();
+        }
+        if (error != null) {
+            throw error;
         }
     }
 
     /**
-     * add triple to cache Model
+     * add triple to cache buffer, blocks only when both buffers are full
      *
      * @param subject
      * @param predicate
      * @param object
      * @param contexts
+     * @throws MarkLogicSesameException if a previous background flush failed
+     */
+    public void add(Resource subject, URI predicate, Value object, Resource... contexts) throws MarkLogicSesameException {
+        boolean dispatch = false;
+        synchronized (this) {
+            throwFlushError();
+            while (this.flushing != null && isAboveHighWaterMark() && !this.cancelled) {
+                waitForFlush();
+                throwFlushError();
+            }
+            boolean wasEmpty = this.active.size() == 0;
+            this.active.add(subject, predicate, object, contexts);
+            if (isFull()) {
+                if (this.flushing == null) {
+                    swap();
+                    dispatch = true;
+                }
+            } else if (wasEmpty) {
+                this.deadline = System.currentTimeMillis() + this.cacheMillis;
+                if (!this.scheduled) {
+                    scheduleFlush(this.cacheMillis);
+                }
+            }
+        }
+        if (dispatch) {
+            dispatchFlush();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WriteCacheTimerTask[cacheSize=" + cacheSize + ", cacheMillis=" + cacheMillis + ", cacheBytes=" + cacheBytes
+                + ", highWaterMark=" + highWaterMark + ", bufferType=" + bufferType + ", parallelism=" + parallelism
+                + ", pending=" + getPendingCount() + ", pendingBytes=" + getPendingBytes()
+                + (controller != null ? ", " + controller : "") + "]";
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * flushes batch, streaming triples into request body as nquads
+     *
+     * Context partitions are sent as concurrent requests, partitions sent
+     * successfully are cleared from the batch so only failed ones are retried.
+     * Requests in a transaction are never concurrent, so in a transaction the
+     * batch is sent as a single request.
+     *
+     * @param batch
+     * @throws MarkLogicSesameException if any partition failed
+     */
+    private void flush(WriteCacheBuffer batch) throws MarkLogicSesameException {
+        log.debug("flushing write cache:" + batch.size());
+        int statements = batch.size();
+        long start = System.currentTimeMillis();
+        if (batch.getPartitionCount() == 1 || this.client.isActiveTransaction()) {
+            this.client.sendAdd(batch);
+            recordFlush(statements, System.currentTimeMillis() - start);
+            return;
+        }
+        List<FlushLane> lanes = new ArrayList<>();
+        for (int partition = 0; partition < batch.getPartitionCount(); partition++) {
+            if (batch.size(partition) > 0) {
+                lanes.add(new FlushLane(batch, partition));
+            }
+        }
+        for (int i = 1; i < lanes.size(); i++) {
+            if (!this.scheduler.executeLane(lanes.get(i))) {
+                lanes.get(i).run();
+            }
+        }
+        if (!lanes.isEmpty()) {
+            lanes.get(0).run();
+        }
+        MarkLogicSesameException error = null;
+        for (FlushLane lane : lanes) {
+            lane.await();
+            if (lane.error != null) {
+                error = lane.error;
+            } else {
+                batch.clear(lane.partition);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        recordFlush(statements, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * feeds successful flush to controller and applies its settings
+     *
+     * @param statements
+     * @param latencyMillis
+     */
+    private synchronized void recordFlush(int statements, long latencyMillis) {
+        if (this.controller != null) {
+            this.controller.onFlush(statements, latencyMillis);
+            this.cacheSize = this.controller.getCacheSize();
+            this.cacheMillis = this.controller.getCacheMillis();
+        }
+    }
+
+    /**
+     * active buffer holds more than cacheSize triples or cacheBytes bytes, must hold lock
+     *
+     * @return
+     */
+    private boolean isFull() {
+        return this.active.size() > this.cacheSize || (this.cacheBytes > 0 && this.active.getByteSize() >= this.cacheBytes);
+    }
+
+    /**
+     * active buffer must not grow while a flush is in flight, never below
+     * cacheSize as controller may grow it past highWaterMark, must hold lock
+     *
+     * @return
+     */
+    private boolean isAboveHighWaterMark() {
+        return this.active.size() >= Math.max(this.highWaterMark, this.cacheSize) || (this.cacheBytes > 0 && this.active.getByteSize() >= 2 * this.cacheBytes);
+    }
+
+    /**
+     * flushes swapped out buffers until active buffer is below cache size,
+     * errors are kept and rethrown on next add
+     *
+     */
+    private void flushInBackground() {
+        while (true) {
+            WriteCacheBuffer batch;
+            synchronized (this) {
+                batch = this.flushing;
+            }
+            if (batch == null) {
+                return;
+            }
+            MarkLogicSesameException error = null;
+            try {
+                flush(batch);
+            } catch (MarkLogicSesameException e) {
+                // cannot throw exception in runnable run(), best we log it and rethrow on next add
+                log.warn("Exception thrown in other thread, when running writeCacheTimerTask.");
+                log.warn(e.toString(), e);
+                error = e;
+            }
+            if (!completeFlush(batch, error, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * releases flushing buffer, returning its triples to the active buffer
+     * on error, and swaps again if the active buffer is already full
+     *
+     * @param batch
+     * @param error
+     * @param background
+     * @return true if another flush must be run
+     */
+    private synchronized boolean completeFlush(WriteCacheBuffer batch, MarkLogicSesameException error, boolean background) {
+        this.flushing = null;
+        notifyAll();
+        long now = System.currentTimeMillis();
+        if (error != null) {
+            this.active.addAll(batch);
+            batch.clear();
+            this.spare = batch;
+            if (background) {
+                this.flushError = error;
+            }
+            if (!this.cancelled) {
+                this.deadline = now + this.cacheMillis;
+                if (!this.scheduled) {
+                    scheduleFlush(this.cacheMillis);
+                }
+            }
+            return false;
+        }
+        batch.clear();
+        this.spare = batch;
+        if (this.cancelled || this.active.size() == 0) {
+            return false;
+        }
+        if (isFull()) {
+            swap();
+            return true;
+        }
+        if (!this.scheduled) {
+            scheduleFlush(this.deadline - now);
+        }
+        return false;
+    }
+
+    /**
+     * hands flushing buffer to a scheduler thread, flushes on caller thread if scheduler is shut down
+     *
      */
-    public synchronized void add(Resource subject, URI predicate, Value object, Resource... contexts) throws MarkLogicSesameException {
-        this.cache.add(subject,predicate,object,contexts);
-        if(this.cache.size() > this.cacheSize){
-            forceRun();
+    private void dispatchFlush() {
+        if (!this.scheduler.execute(this.backgroundFlush)) {
+            flushInBackground();
+        }
+    }
+
+    /**
+     * active buffer becomes flushing buffer, must hold lock
+     *
+     */
+    private void swap() {
+        this.flushing = this.active;
+        this.active = this.spare != null ? this.spare : this.bufferType.newBuffer(this.parallelism);
+        this.spare = null;
+    }
+
+    /**
+     * waits until no flush is in flight, must hold lock
+     *
+     * @throws MarkLogicSesameException
+     */
+    private void awaitFlush() throws MarkLogicSesameException {
+        while (this.flushing != null) {
+            waitForFlush();
+        }
+    }
+
+    /**
+     * must hold lock
+     *
+     * @throws MarkLogicSesameException
+     */
+    private void waitForFlush() throws MarkLogicSesameException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MarkLogicSesameException("Interrupted waiting for write cache flush.");
+        }
+    }
+
+    /**
+     * rethrows error of last background flush once, must hold lock
+     *
+     * @throws MarkLogicSesameException
+     */
+    private void throwFlushError() throws MarkLogicSesameException {
+        if (this.flushError != null) {
+            MarkLogicSesameException error = this.flushError;
+            this.flushError = null;
+            throw error;
+        }
+    }
+
+    /**
+     *
+     * @param delayMillis
+     */
+    private void scheduleFlush(long delayMillis) {
+        this.scheduled = this.scheduler.schedule(this, delayMillis);
+    }
+
+    /**
+     * sends one partition of a batch
+     */
+    private class FlushLane implements Runnable {
+        private final WriteCacheBuffer batch;
+        private final int partition;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile MarkLogicSesameException error;
+
+        private FlushLane(WriteCacheBuffer batch, int partition) {
+            this.batch = batch;
+            this.partition = partition;
+        }
+
+        @Override
+        public void run() {
+            try {
+                client.sendAdd(batch, partition);
+            } catch (MarkLogicSesameException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new MarkLogicSesameException(e);
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void await() throws MarkLogicSesameException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MarkLogicSesameException("Interrupted waiting for write cache flush.");
+            }
         }
     }
 
-}
\ No newline at end of file
+}
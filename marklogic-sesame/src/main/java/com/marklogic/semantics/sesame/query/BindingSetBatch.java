@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.query;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.impl.MapBindingSet;
+import org.openrdf.query.parser.QueryParserUtil;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * rewrites a query to evaluate many binding sets in one request
+ *
+ * The binding sets become rows of a VALUES block opening the query's WHERE
+ * clause, each row tagged with its index in an extra variable so solutions
+ * can be handed back to the row that produced them. Queries whose solutions
+ * are not per row (LIMIT, OFFSET, grouping, aggregates) cannot be rewritten
+ * and are evaluated a row at a time.
+ *
+ */
+final class BindingSetBatch {
+
+    static final int DEFAULT_CHUNK_SIZE = 500;
+
+    static final String ROW_VARIABLE = "_batchRow";
+
+    // keywords only, not variables (?count, $max) or prefixed names (ex:min, sum:x) spelling them
+    private static final Pattern NOT_BATCHABLE = Pattern.compile(
+            "(?<![?$:])\\b(LIMIT|OFFSET|GROUP\\s+BY|HAVING|COUNT|SUM|MIN|MAX|AVG|SAMPLE|GROUP_CONCAT)\\b(?!:)",
+            Pattern.CASE_INSENSITIVE);
+
+    // IRIs, string literals and comments, which may spell keywords without being them
+    private static final Pattern IRIS_LITERALS_COMMENTS = Pattern.compile(
+            "<[^<>\"{}|^`\\\\\\s]*>|\"\"\"(?s:.*?)\"\"\"|'''(?s:.*?)'''|\"(?:[^\"\\\\\\n]|\\\\.)*\"|'(?:[^'\\\\\\n]|\\\\.)*'|#[^\\n]*");
+
+    private static final Pattern SELECT_CLAUSE = Pattern.compile("^SELECT(\\s+(DISTINCT|REDUCED))?\\s*", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern ASK = Pattern.compile("^ASK", Pattern.CASE_INSENSITIVE);
+
+    private BindingSetBatch() {
+    }
+
+    /**
+     * true if query can be evaluated for many binding sets in one request
+     *
+     * @param queryString
+     * @return boolean
+     */
+    static boolean isBatchable(String queryString) {
+        String body = IRIS_LITERALS_COMMENTS.matcher(QueryParserUtil.removeSPARQLQueryProlog(queryString)).replaceAll(" ");
+        return !NOT_BATCHABLE.matcher(body).find();
+    }
+
+    /**
+     * select query projecting the row variable, joined with rows [from, to)
+     *
+     * @param queryString
+     * @param rows
+     * @param from
+     * @param to
+     * @return String
+     * @throws QueryEvaluationException
+     */
+    static String rewriteSelect(String queryString, List<? extends BindingSet> rows, int from, int to) throws QueryEvaluationException {
+        String body = QueryParserUtil.removeSPARQLQueryProlog(queryString);
+        String prolog = queryString.substring(0, queryString.length() - body.length());
+        Matcher m = SELECT_CLAUSE.matcher(body);
+        if (!m.find()) {
+            throw new QueryEvaluationException("not a select query: " + queryString);
+        }
+        StringBuilder sb = new StringBuilder(prolog).append(body, 0, m.end());
+        if (!body.startsWith("*", m.end())) {
+            // SELECT * already projects the row variable bound in the WHERE clause
+            sb.append('?').append(ROW_VARIABLE).append(' ');
+        }
+        return insertValues(sb, body.substring(m.end()), rows, from, to);
+    }
+
+    /**
+     * ask query turned into a select of the matching rows [from, to)
+     *
+     * @param queryString
+     * @param rows
+     * @param from
+     * @param to
+     * @return String
+     * @throws QueryEvaluationException
+     */
+    static String rewriteAsk(String queryString, List<? extends BindingSet> rows, int from, int to) throws QueryEvaluationException {
+        String body = QueryParserUtil.removeSPARQLQueryProlog(queryString);
+        String prolog = queryString.substring(0, queryString.length() - body.length());
+        Matcher m = ASK.matcher(body);
+        if (!m.find()) {
+            throw new QueryEvaluationException("not an ask query: " + queryString);
+        }
+        StringBuilder sb = new StringBuilder(prolog).append("SELECT DISTINCT ?").append(ROW_VARIABLE);
+        return insertValues(sb, body.substring(m.end()), rows, from, to);
+    }
+
+    /**
+     * index of row which produced solution
+     *
+     * @param solution
+     * @return int
+     * @throws QueryEvaluationException
+     */
+    static int rowOf(BindingSet solution) throws QueryEvaluationException {
+        Value row = solution.getValue(ROW_VARIABLE);
+        if (!(row instanceof Literal)) {
+            throw new QueryEvaluationException("solution is missing its batch row: " + solution);
+        }
+        return ((Literal) row).intValue();
+    }
+
+    /**
+     * solution without the row variable
+     *
+     * @param solution
+     * @return BindingSet
+     */
+    static BindingSet withoutRow(BindingSet solution) {
+        MapBindingSet result = new MapBindingSet(solution.size());
+        for (Binding binding : solution) {
+            if (!ROW_VARIABLE.equals(binding.getName())) {
+                result.addBinding(binding);
+            }
+        }
+        return result;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * appends rest of query with VALUES block opening its WHERE clause
+     */
+    private static String insertValues(StringBuilder sb, String rest, List<? extends BindingSet> rows, int from, int to) throws QueryEvaluationException {
+        int where = rest.indexOf('{');
+        if (where < 0) {
+            throw new QueryEvaluationException("query has no WHERE clause");
+        }
+        sb.append(rest, 0, where + 1);
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = from; i < to; i++) {
+            names.addAll(rows.get(i).getBindingNames());
+        }
+        sb.append("\nVALUES (?").append(ROW_VARIABLE);
+        for (String name : names) {
+            sb.append(" ?").append(name);
+        }
+        sb.append(") {");
+        for (int i = from; i < to; i++) {
+            BindingSet row = rows.get(i);
+            sb.append("\n(").append(i);
+            for (String name : names) {
+                sb.append(' ');
+                Value value = row.getValue(name);
+                if (value == null) {
+                    sb.append("UNDEF");
+                } else if (value instanceof BNode) {
+                    throw new QueryEvaluationException("blank nodes cannot be sent in a VALUES block: " + name);
+                } else {
+                    sb.append(NTriplesUtil.toNTriplesString(value));
+                }
+            }
+            sb.append(')');
+        }
+        sb.append("\n}\n");
+        sb.append(rest, where + 1, rest.length());
+        return sb.toString();
+    }
+}
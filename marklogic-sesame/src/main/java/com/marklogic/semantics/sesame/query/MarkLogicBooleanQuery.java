@@ -24,15 +24,20 @@ import com.marklogic.client.semantics.GraphPermissions;
 import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.semantics.SPARQLRuleset;
 import com.marklogic.semantics.sesame.client.MarkLogicClient;
+import com.marklogic.semantics.sesame.client.QueryBindings;
+import org.openrdf.query.BindingSet;
 import org.openrdf.query.BooleanQuery;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
 import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sparql.query.QueryStringUtil;
 import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * boolean query
@@ -76,4 +81,65 @@ public class MarkLogicBooleanQuery extends MarkLogicQuery implements BooleanQuer
         }
     }
 
+    /**
+     * evaluate boolean query once for each binding set, see evaluate(List, int)
+     *
+     * @param bindingSets
+     * @return result of each binding set, in order
+     * @throws QueryEvaluationException
+     */
+    public boolean[] evaluate(List<? extends BindingSet> bindingSets) throws QueryEvaluationException {
+        return evaluate(bindingSets, BindingSetBatch.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * evaluate boolean query once for each binding set, sending chunkSize binding
+     * sets per request as rows of a VALUES block of a select of the matching rows
+     *
+     * Bindings set on the query apply to every binding set.
+     *
+     * @param bindingSets
+     * @param chunkSize
+     * @return result of each binding set, in order
+     * @throws QueryEvaluationException
+     */
+    public boolean[] evaluate(List<? extends BindingSet> bindingSets, int chunkSize) throws QueryEvaluationException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        boolean[] results = new boolean[bindingSets.size()];
+        String queryString = getQueryString();
+        try {
+            if (!BindingSetBatch.isBatchable(queryString)) {
+                for (int i = 0; i < bindingSets.size(); i++) {
+                    SPARQLQueryBindingSet bindings = new SPARQLQueryBindingSet(getBindings());
+                    bindings.addAll(bindingSets.get(i));
+                    String rowQueryString = QueryStringUtil.getQueryString(queryString, QueryBindings.unbindable(bindings));
+                    results[i] = getMarkLogicClient().sendBooleanQuery(rowQueryString, bindings, getIncludeInferred(), getBaseURI());
+                }
+                return results;
+            }
+            for (int from = 0; from < bindingSets.size(); from += chunkSize) {
+                int to = Math.min(from + chunkSize, bindingSets.size());
+                String batchQueryString = BindingSetBatch.rewriteAsk(queryString, bindingSets, from, to);
+                TupleQueryResult result = getMarkLogicClient().sendTupleQuery(batchQueryString, getBindings(), 1, -1, getIncludeInferred(), getBaseURI());
+                try {
+                    while (result.hasNext()) {
+                        results[BindingSetBatch.rowOf(result.next())] = true;
+                    }
+                } finally {
+                    result.close();
+                }
+            }
+            return results;
+        }catch (RepositoryException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }catch (MalformedQueryException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }catch (IOException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }catch(FailedRequestException e){
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }
+    }
 }
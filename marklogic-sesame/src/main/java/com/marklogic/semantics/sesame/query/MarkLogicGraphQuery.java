@@ -29,6 +29,7 @@ import org.openrdf.query.GraphQueryResult;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.QueryResults;
 import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
+import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
 import org.slf4j.Logger;
@@ -45,6 +46,8 @@ public class MarkLogicGraphQuery extends MarkLogicQuery implements GraphQuery,Ma
 
     private static final Logger logger = LoggerFactory.getLogger(MarkLogicGraphQuery.class);
 
+    private RDFFormat resultFormat; // null uses client graph result format
+
     /**
      * constructor
      *
@@ -67,7 +70,7 @@ public class MarkLogicGraphQuery extends MarkLogicQuery implements GraphQuery,Ma
     public GraphQueryResult evaluate()
             throws QueryEvaluationException {
         try {
-            return getMarkLogicClient().sendGraphQuery(getQueryString(),getBindings(),getIncludeInferred(),getBaseURI());
+            return getMarkLogicClient().sendGraphQuery(getQueryString(),getBindings(),getIncludeInferred(),getBaseURI(),resultFormat);
         } catch (IOException e) {
             throw new QueryEvaluationException(e);
         } catch (MarkLogicSesameException e) {
@@ -91,4 +94,26 @@ public class MarkLogicGraphQuery extends MarkLogicQuery implements GraphQuery,Ma
         }
         queryResult.close();
     }
+
+    /**
+     * sets format results of this query are requested in, null uses the repository default
+     *
+     * @param resultFormat
+     * @throws MarkLogicSesameException
+     */
+    public void setResultFormat(RDFFormat resultFormat) throws MarkLogicSesameException {
+        if (resultFormat != null) {
+            MarkLogicClient.checkGraphResultFormat(resultFormat);
+        }
+        this.resultFormat = resultFormat;
+    }
+
+    /**
+     * getter for resultFormat
+     *
+     * @return RDFFormat, null if repository default is used
+     */
+    public RDFFormat getResultFormat() {
+        return resultFormat;
+    }
 }
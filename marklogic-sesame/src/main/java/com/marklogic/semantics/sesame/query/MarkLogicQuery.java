@@ -24,6 +24,7 @@ import com.marklogic.client.semantics.GraphPermissions;
 import com.marklogic.client.semantics.SPARQLRuleset;
 import com.marklogic.semantics.sesame.client.MarkLogicClient;
 import com.marklogic.semantics.sesame.client.MarkLogicClientDependent;
+import com.marklogic.semantics.sesame.client.QueryBindings;
 import org.openrdf.model.Value;
 import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.query.Dataset;
@@ -94,12 +95,14 @@ public class MarkLogicQuery extends AbstractQuery implements Query,MarkLogicClie
     }
 
     /**
-     * sets the query string
+     * gets the query string, bindings are sent as typed request parameters
+     * so only values which cannot be bound (blank nodes, non xsd datatypes)
+     * are substituted into it
      *
      * @return
      */
     public String getQueryString() {
-        return QueryStringUtil.getQueryString(this.queryString, getBindings());
+        return QueryStringUtil.getQueryString(this.queryString, QueryBindings.unbindable(getBindings()));
     }
 
     /**
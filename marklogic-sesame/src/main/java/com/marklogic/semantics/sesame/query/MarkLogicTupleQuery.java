@@ -23,14 +23,20 @@ import com.marklogic.client.FailedRequestException;
 import com.marklogic.client.semantics.GraphPermissions;
 import com.marklogic.client.query.QueryDefinition;
 import com.marklogic.client.semantics.SPARQLRuleset;
+import com.marklogic.semantics.sesame.MarkLogicSesameException;
 import com.marklogic.semantics.sesame.client.MarkLogicClient;
+import com.marklogic.semantics.sesame.client.QueryBindings;
 import org.openrdf.query.*;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
 import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sparql.query.QueryStringUtil;
 import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * tuple query
@@ -41,9 +47,16 @@ public class MarkLogicTupleQuery extends MarkLogicQuery implements TupleQuery,Ma
 
     private static final Logger logger = LoggerFactory.getLogger(MarkLogicTupleQuery.class);
 
+    public static final long DEFAULT_EXPORT_PAGE_LENGTH = 10000;
+    public static final int DEFAULT_EXPORT_CONCURRENCY = 4;
+
     protected final long start = 1;
     protected final long pageLength=-1; // this value is a flag to not set setPageLength()
 
+    private long cursorPageLength = -1; // fetch whole result unless set
+
+    private TupleQueryResultFormat resultFormat; // null uses client tuple result format
+
     /**
      * constructor
      *
@@ -64,9 +77,48 @@ public class MarkLogicTupleQuery extends MarkLogicQuery implements TupleQuery,Ma
      */
     @Override
     public TupleQueryResult evaluate() throws QueryEvaluationException {
+        if (cursorPageLength > 0) {
+            return evaluatePaged(cursorPageLength);
+        }
         return evaluate(this.start,this.pageLength);
     }
 
+    /**
+     * evaluate tuple query, fetching pages of pageLength solutions as the
+     * result is iterated and prefetching the next page in the background
+     *
+     * Pages are requested with start and pageLength, the query needs an
+     * ORDER BY for pages to be stable across requests.
+     *
+     * @param pageLength
+     * @return TupleQueryResult
+     * @throws QueryEvaluationException
+     */
+    public TupleQueryResult evaluatePaged(long pageLength) throws QueryEvaluationException {
+        if (pageLength < 1) {
+            throw new IllegalArgumentException("pageLength must be positive");
+        }
+        return new PagedTupleQueryResult(getMarkLogicClient(), getQueryString(), getBindings(), getIncludeInferred(), getBaseURI(), resultFormat, this.start, pageLength);
+    }
+
+    /**
+     * sets page length used by evaluate(), a value less than 1 fetches the whole result at once
+     *
+     * @param pageLength
+     */
+    public void setCursorPageLength(long pageLength) {
+        this.cursorPageLength = pageLength;
+    }
+
+    /**
+     * returns page length used by evaluate()
+     *
+     * @return page length, or -1 if the whole result is fetched at once
+     */
+    public long getCursorPageLength() {
+        return cursorPageLength;
+    }
+
     /**
      * evaluate tuple query with pagination
      *
@@ -78,7 +130,72 @@ public class MarkLogicTupleQuery extends MarkLogicQuery implements TupleQuery,Ma
     public TupleQueryResult evaluate(long start, long pageLength)
             throws QueryEvaluationException {
         try {
-            return getMarkLogicClient().sendTupleQuery(getQueryString(), getBindings(), start, pageLength, getIncludeInferred(), getBaseURI());
+            return getMarkLogicClient().sendTupleQuery(getQueryString(), getBindings(), start, pageLength, getIncludeInferred(), getBaseURI(), resultFormat);
+        }catch (RepositoryException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }catch (MalformedQueryException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }catch(FailedRequestException e){
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * evaluate tuple query once for each binding set, see evaluate(List, int)
+     *
+     * @param bindingSets
+     * @return solutions of each binding set, in order
+     * @throws QueryEvaluationException
+     */
+    public List<List<BindingSet>> evaluate(List<? extends BindingSet> bindingSets) throws QueryEvaluationException {
+        return evaluate(bindingSets, BindingSetBatch.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * evaluate tuple query once for each binding set, sending chunkSize binding
+     * sets per request as rows of a VALUES block
+     *
+     * Bindings set on the query apply to every binding set. Queries using
+     * LIMIT, OFFSET, grouping or aggregates are evaluated a binding set at a time.
+     *
+     * @param bindingSets
+     * @param chunkSize
+     * @return solutions of each binding set, in order
+     * @throws QueryEvaluationException
+     */
+    public List<List<BindingSet>> evaluate(List<? extends BindingSet> bindingSets, int chunkSize) throws QueryEvaluationException {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        List<List<BindingSet>> solutions = new ArrayList<>(bindingSets.size());
+        for (int i = 0; i < bindingSets.size(); i++) {
+            solutions.add(new ArrayList<BindingSet>());
+        }
+        String queryString = getQueryString();
+        try {
+            if (!BindingSetBatch.isBatchable(queryString)) {
+                for (int i = 0; i < bindingSets.size(); i++) {
+                    SPARQLQueryBindingSet bindings = new SPARQLQueryBindingSet(getBindings());
+                    bindings.addAll(bindingSets.get(i));
+                    String rowQueryString = QueryStringUtil.getQueryString(queryString, QueryBindings.unbindable(bindings));
+                    collect(getMarkLogicClient().sendTupleQuery(rowQueryString, bindings, start, pageLength, getIncludeInferred(), getBaseURI(), resultFormat), solutions.get(i));
+                }
+                return solutions;
+            }
+            for (int from = 0; from < bindingSets.size(); from += chunkSize) {
+                int to = Math.min(from + chunkSize, bindingSets.size());
+                String batchQueryString = BindingSetBatch.rewriteSelect(queryString, bindingSets, from, to);
+                TupleQueryResult result = getMarkLogicClient().sendTupleQuery(batchQueryString, getBindings(), start, pageLength, getIncludeInferred(), getBaseURI(), resultFormat);
+                try {
+                    while (result.hasNext()) {
+                        BindingSet solution = result.next();
+                        solutions.get(BindingSetBatch.rowOf(solution)).add(BindingSetBatch.withoutRow(solution));
+                    }
+                } finally {
+                    result.close();
+                }
+            }
+            return solutions;
         }catch (RepositoryException e) {
             throw new QueryEvaluationException(e.getMessage(), e);
         }catch (MalformedQueryException e) {
@@ -118,4 +235,71 @@ public class MarkLogicTupleQuery extends MarkLogicQuery implements TupleQuery,Ma
         }
         queryResult.close();
     }
+
+    /**
+     * export tuple query to TupleQueryResultHandler, see export(TupleQueryResultHandler, long, int)
+     *
+     * @param resultHandler
+     * @return number of solutions reported
+     * @throws QueryEvaluationException
+     * @throws TupleQueryResultHandlerException
+     */
+    public long export(TupleQueryResultHandler resultHandler) throws QueryEvaluationException, TupleQueryResultHandlerException {
+        return export(resultHandler, DEFAULT_EXPORT_PAGE_LENGTH, DEFAULT_EXPORT_CONCURRENCY);
+    }
+
+    /**
+     * export tuple query to TupleQueryResultHandler, requesting up to concurrency
+     * consecutive pages of pageLength solutions at once
+     *
+     * Pages are fetched and parsed in parallel and reported in order, at most
+     * concurrency pages are held in memory. The query needs an ORDER BY for
+     * pages to be stable across requests.
+     *
+     * @param resultHandler
+     * @param pageLength
+     * @param concurrency
+     * @return number of solutions reported
+     * @throws QueryEvaluationException
+     * @throws TupleQueryResultHandlerException
+     */
+    public long export(TupleQueryResultHandler resultHandler, long pageLength, int concurrency) throws QueryEvaluationException, TupleQueryResultHandlerException {
+        if (pageLength < 1) {
+            throw new IllegalArgumentException("pageLength must be positive");
+        }
+        ParallelPageExport export = new ParallelPageExport(getMarkLogicClient(), getQueryString(), getBindings(), getIncludeInferred(), getBaseURI(), resultFormat, pageLength, concurrency);
+        return export.run(resultHandler, this.start);
+    }
+
+    /**
+     * sets format results of this query are requested in, null uses the repository default
+     *
+     * @param resultFormat
+     * @throws MarkLogicSesameException
+     */
+    public void setResultFormat(TupleQueryResultFormat resultFormat) throws MarkLogicSesameException {
+        if (resultFormat != null) {
+            MarkLogicClient.checkTupleResultFormat(resultFormat);
+        }
+        this.resultFormat = resultFormat;
+    }
+
+    /**
+     * getter for resultFormat
+     *
+     * @return TupleQueryResultFormat, null if repository default is used
+     */
+    public TupleQueryResultFormat getResultFormat() {
+        return resultFormat;
+    }
+
+    private static void collect(TupleQueryResult result, List<BindingSet> solutions) throws QueryEvaluationException {
+        try {
+            while (result.hasNext()) {
+                solutions.add(result.next());
+            }
+        } finally {
+            result.close();
+        }
+    }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.query;
+
+import com.marklogic.client.FailedRequestException;
+import com.marklogic.semantics.sesame.client.MarkLogicClient;
+import info.aduna.iteration.LookAheadIteration;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * tuple query result fetching pages of pageLength solutions as it is iterated
+ *
+ * While a page is consumed the next one is fetched on the client's parsing
+ * executor, so at most two pages are held in memory. When the executor is
+ * saturated or a transaction is active the next page is fetched on the
+ * consumer's thread once needed. Each page is parsed on the thread fetching it.
+ * Closing the result stops any further fetches. Pages are requested with
+ * start and pageLength, queries need an ORDER BY for pages to be stable.
+ *
+ */
+final class PagedTupleQueryResult extends LookAheadIteration<BindingSet, QueryEvaluationException> implements TupleQueryResult {
+
+    private static final Logger logger = LoggerFactory.getLogger(PagedTupleQueryResult.class);
+
+    private final MarkLogicClient client;
+    private final String queryString;
+    private final SPARQLQueryBindingSet bindings;
+    private final boolean includeInferred;
+    private final String baseURI;
+    private final TupleQueryResultFormat resultFormat;
+    private final long pageLength;
+
+    private final List<String> bindingNames;
+
+    private long nextStart;
+    private Iterator<BindingSet> current;
+    private FutureTask<List<BindingSet>> nextPage;
+
+    private volatile boolean closed = false;
+
+    /**
+     * constructor, fetches first page
+     *
+     * @param client
+     * @param queryString
+     * @param bindings
+     * @param includeInferred
+     * @param baseURI
+     * @param resultFormat
+     * @param start
+     * @param pageLength
+     * @throws QueryEvaluationException
+     */
+    PagedTupleQueryResult(MarkLogicClient client, String queryString, SPARQLQueryBindingSet bindings, boolean includeInferred, String baseURI, TupleQueryResultFormat resultFormat, long start, long pageLength) throws QueryEvaluationException {
+        this.client = client;
+        this.queryString = queryString;
+        this.bindings = new SPARQLQueryBindingSet(bindings);
+        this.includeInferred = includeInferred;
+        this.baseURI = baseURI;
+        this.resultFormat = resultFormat;
+        this.pageLength = pageLength;
+
+        try {
+            client.sync();
+        } catch (RepositoryException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }
+        List<String> names = new ArrayList<>();
+        List<BindingSet> page = fetchPage(start, names);
+        this.bindingNames = Collections.unmodifiableList(names);
+        this.nextStart = start + pageLength;
+        this.current = page.iterator();
+        prefetchAfter(page);
+    }
+
+    @Override
+    public List<String> getBindingNames() throws QueryEvaluationException {
+        return bindingNames;
+    }
+
+    @Override
+    protected BindingSet getNextElement() throws QueryEvaluationException {
+        while (!current.hasNext()) {
+            if (nextPage == null) {
+                return null;
+            }
+            List<BindingSet> page = awaitNextPage();
+            current = page.iterator();
+            prefetchAfter(page);
+        }
+        return current.next();
+    }
+
+    @Override
+    protected void handleClose() throws QueryEvaluationException {
+        closed = true;
+        if (nextPage != null) {
+            nextPage.cancel(false);
+            nextPage = null;
+        }
+        current = Collections.<BindingSet>emptyList().iterator();
+        super.handleClose();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * starts fetching the page after a full page, on the parsing executor if it has capacity
+     * and no transaction is active
+     */
+    private void prefetchAfter(List<BindingSet> page) {
+        if (page.size() < pageLength || closed) {
+            nextPage = null;
+            return;
+        }
+        final long start = nextStart;
+        nextStart += pageLength;
+        nextPage = new FutureTask<>(new Callable<List<BindingSet>>() {
+            @Override
+            public List<BindingSet> call() throws QueryEvaluationException {
+                if (closed) {
+                    return Collections.emptyList();
+                }
+                return fetchPage(start, null);
+            }
+        });
+        if (client.isActiveTransaction()) {
+            logger.debug("transaction active, page at {} will be fetched when needed", start);
+            return;
+        }
+        try {
+            if (!client.getParsingExecutor().tryExecute(nextPage)) {
+                logger.debug("parsing executor saturated, page at {} will be fetched when needed", start);
+            }
+        } catch (RejectedExecutionException e) {
+            logger.debug("parsing executor rejected prefetch, page at {} will be fetched when needed", start);
+        }
+    }
+
+    /**
+     * waits for prefetched page, fetching it on this thread if no background thread picked it up
+     */
+    private List<BindingSet> awaitNextPage() throws QueryEvaluationException {
+        FutureTask<List<BindingSet>> task = nextPage;
+        nextPage = null;
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryEvaluationException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof QueryEvaluationException) {
+                throw (QueryEvaluationException) e.getCause();
+            }
+            throw new QueryEvaluationException(e.getCause());
+        }
+    }
+
+    /**
+     * fetches and reads one page, collecting binding names if names is not null
+     */
+    private List<BindingSet> fetchPage(long start, List<String> names) throws QueryEvaluationException {
+        TupleQueryResult result;
+        try {
+            result = client.sendTupleQueryPage(queryString, bindings, start, pageLength, includeInferred, baseURI, resultFormat);
+        } catch (RepositoryException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        } catch (MalformedQueryException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        } catch (FailedRequestException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }
+        try {
+            if (names != null) {
+                names.addAll(result.getBindingNames());
+            }
+            List<BindingSet> page = new ArrayList<>((int) Math.min(pageLength, 1024));
+            while (result.hasNext()) {
+                page.add(result.next());
+            }
+            return page;
+        } finally {
+            result.close();
+        }
+    }
+}
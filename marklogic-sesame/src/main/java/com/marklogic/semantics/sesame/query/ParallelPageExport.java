@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.query;
+
+import com.marklogic.client.FailedRequestException;
+import com.marklogic.semantics.sesame.client.MarkLogicClient;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.query.TupleQueryResultHandlerException;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.sparql.query.SPARQLQueryBindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * exports a tuple query to a handler, fetching consecutive pages in parallel
+ *
+ * Up to concurrency pages are requested and parsed at once on the client's
+ * parsing executor, pages that find no free thread are fetched on the caller's
+ * thread when their turn comes, as are all pages while a transaction is active.
+ * Each page is parsed on the thread fetching it. Pages are reported in order, so at most
+ * concurrency pages are held in memory while waiting for the oldest one.
+ * Fetching stops at the first short page. Pages are requested with start and
+ * pageLength, queries need an ORDER BY for pages to be stable.
+ *
+ */
+final class ParallelPageExport {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelPageExport.class);
+
+    private final MarkLogicClient client;
+    private final String queryString;
+    private final SPARQLQueryBindingSet bindings;
+    private final boolean includeInferred;
+    private final String baseURI;
+    private final TupleQueryResultFormat resultFormat;
+    private final long pageLength;
+    private final int concurrency;
+
+    private final Deque<FutureTask<Page>> window = new ArrayDeque<>();
+    private long nextStart;
+
+    /**
+     * constructor
+     *
+     * @param client
+     * @param queryString
+     * @param bindings
+     * @param includeInferred
+     * @param baseURI
+     * @param resultFormat
+     * @param pageLength
+     * @param concurrency - max pages fetched at once
+     */
+    ParallelPageExport(MarkLogicClient client, String queryString, SPARQLQueryBindingSet bindings, boolean includeInferred, String baseURI, TupleQueryResultFormat resultFormat, long pageLength, int concurrency) {
+        this.client = client;
+        this.queryString = queryString;
+        this.bindings = new SPARQLQueryBindingSet(bindings);
+        this.includeInferred = includeInferred;
+        this.baseURI = baseURI;
+        this.resultFormat = resultFormat;
+        this.pageLength = pageLength;
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * fetches pages from start and reports their solutions in order
+     *
+     * @param handler
+     * @param start
+     * @return number of solutions reported
+     * @throws QueryEvaluationException
+     * @throws TupleQueryResultHandlerException
+     */
+    long run(TupleQueryResultHandler handler, long start) throws QueryEvaluationException, TupleQueryResultHandlerException {
+        nextStart = start;
+        long count = 0;
+        try {
+            client.sync();
+        } catch (RepositoryException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                submitNext();
+            }
+            boolean started = false;
+            while (!window.isEmpty()) {
+                Page page = await(window.poll());
+                if (!started) {
+                    handler.startQueryResult(page.bindingNames);
+                    started = true;
+                }
+                for (BindingSet solution : page.solutions) {
+                    handler.handleSolution(solution);
+                }
+                count += page.solutions.size();
+                if (page.solutions.size() < pageLength) {
+                    break;
+                }
+                submitNext();
+            }
+            handler.endQueryResult();
+            return count;
+        } finally {
+            cancelAll();
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * adds the next page window to the end of the reorder window, on the parsing executor if it has capacity
+     */
+    private void submitNext() {
+        final long pageStart = nextStart;
+        nextStart += pageLength;
+        FutureTask<Page> task = new FutureTask<>(new Callable<Page>() {
+            @Override
+            public Page call() throws QueryEvaluationException {
+                return fetchPage(pageStart);
+            }
+        });
+        window.add(task);
+        if (client.isActiveTransaction()) {
+            return;
+        }
+        try {
+            if (!client.getParsingExecutor().tryExecute(task)) {
+                logger.debug("parsing executor saturated, page at {} will be fetched when needed", pageStart);
+            }
+        } catch (RejectedExecutionException e) {
+            logger.debug("parsing executor rejected export page, page at {} will be fetched when needed", pageStart);
+        }
+    }
+
+    /**
+     * waits for page, fetching it on this thread if no background thread picked it up
+     */
+    private Page await(FutureTask<Page> task) throws QueryEvaluationException {
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryEvaluationException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof QueryEvaluationException) {
+                throw (QueryEvaluationException) e.getCause();
+            }
+            throw new QueryEvaluationException(e.getCause());
+        }
+    }
+
+    private void cancelAll() {
+        FutureTask<Page> task;
+        while ((task = window.poll()) != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * fetches and reads one page
+     */
+    private Page fetchPage(long start) throws QueryEvaluationException {
+        TupleQueryResult result;
+        try {
+            result = client.sendTupleQueryPage(queryString, bindings, start, pageLength, includeInferred, baseURI, resultFormat);
+        } catch (RepositoryException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        } catch (MalformedQueryException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        } catch (FailedRequestException e) {
+            throw new QueryEvaluationException(e.getMessage(), e);
+        }
+        try {
+            List<BindingSet> solutions = new ArrayList<>((int) Math.min(pageLength, 1024));
+            while (result.hasNext()) {
+                solutions.add(result.next());
+            }
+            return new Page(result.getBindingNames(), solutions);
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * binding names and solutions of one page
+     */
+    private static final class Page {
+        private final List<String> bindingNames;
+        private final List<BindingSet> solutions;
+
+        private Page(List<String> bindingNames, List<BindingSet> solutions) {
+            this.bindingNames = bindingNames;
+            this.solutions = solutions;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015-2016 MarkLogic Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * A library that enables access to a MarkLogic-backed triple-store via the
+ * Sesame API.
+ */
+package com.marklogic.semantics.sesame.query;
+
+import org.openrdf.query.parser.QueryParserUtil;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * bounded LRU of SPARQL query text to its query form
+ *
+ * Working out the form of a query strips its prolog, applications
+ * preparing the same queries over and over pay this on every prepare. Only
+ * the form is kept, not a copy of the query text. Entries are keyed by the exact query text, a max size of 0
+ * disables caching.
+ *
+ */
+public class QueryFormCache {
+
+    public enum Form { TUPLE, BOOLEAN, GRAPH }
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final LinkedHashMap<String, Form> entries;
+    private volatile int maxSize;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * constructor
+     *
+     */
+    public QueryFormCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * constructor
+     *
+     * @param maxSize
+     */
+    public QueryFormCache(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        this.entries = new LinkedHashMap<String, Form>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Form> eldest) {
+                return size() > QueryFormCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * cached or newly parsed form of query
+     *
+     * @param queryString
+     * @return Form
+     */
+    public Form get(String queryString) {
+        Form form;
+        synchronized (entries) {
+            form = entries.get(queryString);
+        }
+        if (form != null) {
+            hitCount.incrementAndGet();
+            return form;
+        }
+        missCount.incrementAndGet();
+        form = parse(queryString);
+        if (maxSize > 0) {
+            synchronized (entries) {
+                entries.put(queryString, form);
+            }
+        }
+        return form;
+    }
+
+    /**
+     * max number of cached queries
+     *
+     * @return int
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * sets max number of cached queries, least recently used are evicted
+     *
+     * @param maxSize
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        synchronized (entries) {
+            Iterator<String> keys = entries.keySet().iterator();
+            while (entries.size() > this.maxSize && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * number of cached queries
+     *
+     * @return int
+     */
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * number of lookups answered from cache
+     *
+     * @return long
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * number of lookups which parsed the query
+     *
+     * @return long
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * removes all cached queries, counters are kept
+     *
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueryFormCache[size=" + getSize() + ", maxSize=" + maxSize
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "]";
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // private ////////////////////////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static Form parse(String queryString) {
+        String body = QueryParserUtil.removeSPARQLQueryProlog(queryString);
+        if (body.regionMatches(true, 0, "SELECT", 0, 6)) {
+            return Form.TUPLE;
+        } else if (body.regionMatches(true, 0, "ASK", 0, 3)) {
+            return Form.BOOLEAN;
+        }
+        return Form.GRAPH;
+    }
+}
@@ -19,6 +19,7 @@
  */
 package com.marklogic.semantics.sesame;
 
+import com.marklogic.semantics.sesame.client.ChunkedFileLoader;
 import com.marklogic.semantics.sesame.config.MarkLogicRepositoryConfig;
 import com.marklogic.semantics.sesame.config.MarkLogicRepositoryFactory;
 import info.aduna.iteration.CloseableIteration;
@@ -40,15 +41,23 @@ import org.openrdf.repository.sparql.SPARQLRepository;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.helpers.RDFHandlerBase;
+import org.openrdf.rio.helpers.StatementCollector;
 import org.openrdf.rio.rdfxml.RDFXMLWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -233,8 +242,7 @@ public class MarkLogicRepositoryConnectionTest extends SesameTestBase {
     }
 
     // https://github.com/marklogic/marklogic-sesame/issues/64
-    // not implemented just yet
-    @Ignore
+    @Test
     public void testAddGZippedRDF() throws Exception {
         File inputFile = new File("src/test/resources/testdata/databases.rdf.gz");
         FileInputStream fis = new FileInputStream(inputFile);
@@ -242,6 +250,32 @@ public class MarkLogicRepositoryConnectionTest extends SesameTestBase {
         Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
         Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
         conn.add(fis, baseURI, RDFFormat.RDFXML, context1, context2);
+        Assert.assertTrue(conn.size(context1) > 0);
+        Assert.assertEquals(conn.size(context1), conn.size(context2));
+        conn.clear(context1, context2);
+    }
+
+    @Test
+    public void testAddInputStreamToMultipleContexts() throws Exception {
+        File inputFile = new File("src/test/resources/testdata/default-graph-1.ttl");
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
+        conn.add(new FileInputStream(inputFile), "http://example.org/example1/", RDFFormat.TURTLE, context1, null, context2);
+        Assert.assertEquals(4, conn.size(context1));
+        Assert.assertEquals(4, conn.size(context2));
+        Assert.assertEquals(4, conn.size((Resource) null));
+        conn.clear(context1, context2, null);
+    }
+
+    @Test
+    public void testAddZippedRDF() throws Exception {
+        String baseURI = "http://example.org/example1/";
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        Resource context2 = conn.getValueFactory().createURI("http://marklogic.com/test/context2");
+        conn.add(new File("src/test/resources/testdata/databases.rdf.gz"), baseURI, RDFFormat.RDFXML, context1);
+        conn.add(new File("src/test/resources/testdata/databases.rdf.zip"), baseURI, RDFFormat.RDFXML, context2);
+        Assert.assertTrue(conn.size(context2) > 0);
+        Assert.assertEquals(conn.size(context1), conn.size(context2));
         conn.clear(context1, context2);
     }
 
@@ -308,6 +342,154 @@ public class MarkLogicRepositoryConnectionTest extends SesameTestBase {
         conn.clear(graph1,graph2,graph3,graph4);
     }
 
+    @Test
+    public void testAddNQuadsInChunks() throws Exception{
+        File inputFile = new File("src/test/resources/testdata/nquads1.nq");
+
+        Resource graph1 = conn.getValueFactory().createURI("http://example.org/graph1");
+        Resource graph2 = conn.getValueFactory().createURI("http://example.org/graph2");
+        Resource graph3 = conn.getValueFactory().createURI("http://example.org/graph3");
+        Resource graph4 = conn.getValueFactory().createURI("http://example.org/graph4");
+
+        final List<ChunkedFileLoader.Chunk> loaded = new ArrayList<>();
+        conn.configureChunkedFileLoad(100, 2, 1);
+        conn.setChunkedFileLoadListener(new ChunkedFileLoader.Listener() {
+            @Override
+            public synchronized void chunkChanged(ChunkedFileLoader loader, ChunkedFileLoader.Chunk chunk) {
+                if (chunk.getStatus() == ChunkedFileLoader.Status.LOADED) {
+                    loaded.add(chunk);
+                }
+            }
+        });
+        conn.add(inputFile, null, RDFFormat.NQUADS);
+
+        Assert.assertEquals(4, loaded.size());
+        Assert.assertEquals(4L, conn.size(graph1, graph2, graph3, graph4));
+        String checkQuery = "ASK {GRAPH <http://example.org/graph4> { <http://example.org/kennedy/person1> <http://example.org/kennedy/death-year> '1969' . } }";
+        BooleanQuery booleanQuery = conn.prepareBooleanQuery(QueryLanguage.SPARQL, checkQuery);
+        Assert.assertTrue(booleanQuery.evaluate());
+
+        conn.configureChunkedFileLoad(0, 1, 0);
+        conn.clear(graph1,graph2,graph3,graph4);
+    }
+
+    @Test
+    public void testAddNQuadsResumable() throws Exception{
+        File inputFile = new File("src/test/resources/testdata/nquads1.nq");
+        File checkpointFile = File.createTempFile("nquads1", ".checkpoint");
+        checkpointFile.delete();
+
+        Resource graph1 = conn.getValueFactory().createURI("http://example.org/graph1");
+        Resource graph2 = conn.getValueFactory().createURI("http://example.org/graph2");
+        Resource graph3 = conn.getValueFactory().createURI("http://example.org/graph3");
+        Resource graph4 = conn.getValueFactory().createURI("http://example.org/graph4");
+
+        conn.configureChunkedFileLoad(150, 2, 1);
+        conn.addResumable(inputFile, RDFFormat.NQUADS, checkpointFile);
+
+        Assert.assertFalse("Expected checkpoint to be removed once load completed.", checkpointFile.exists());
+        Assert.assertEquals(4L, conn.size(graph1, graph2, graph3, graph4));
+
+        conn.configureChunkedFileLoad(0, 1, 0);
+        conn.clear(graph1,graph2,graph3,graph4);
+    }
+
+    @Test
+    public void testAddNQuadsResumeFromCheckpoint() throws Exception{
+        File inputFile = new File("src/test/resources/testdata/nquads1.nq");
+        File checkpointFile = File.createTempFile("nquads1", ".checkpoint");
+        checkpointFile.delete();
+
+        Resource graph1 = conn.getValueFactory().createURI("http://example.org/graph1");
+        Resource graph2 = conn.getValueFactory().createURI("http://example.org/graph2");
+        Resource graph3 = conn.getValueFactory().createURI("http://example.org/graph3");
+        Resource graph4 = conn.getValueFactory().createURI("http://example.org/graph4");
+
+        // clean load to learn how the file is split
+        ChunkListener listener = new ChunkListener();
+        conn.configureChunkedFileLoad(150, 2, 1);
+        conn.setChunkedFileLoadListener(listener);
+        conn.addResumable(inputFile, RDFFormat.NQUADS, checkpointFile);
+        List<ChunkedFileLoader.Chunk> chunks = listener.loader.getChunks();
+        Assert.assertTrue("Expected file to be split in several chunks.", chunks.size() > 2);
+        conn.clear(graph1,graph2,graph3,graph4);
+
+        // interrupted load, first two chunks committed and recorded in checkpoint
+        for (int i = 0; i < 2; i++) {
+            conn.add(new ByteArrayInputStream(readChunk(inputFile, chunks.get(i))), "", RDFFormat.NQUADS);
+        }
+        writeCheckpoint(checkpointFile, inputFile, inputFile.length(), inputFile.lastModified(), 150, chunks.size(), "", 0, 1);
+
+        listener = new ChunkListener();
+        conn.setChunkedFileLoadListener(listener);
+        conn.addResumable(inputFile, RDFFormat.NQUADS, checkpointFile);
+
+        Assert.assertEquals(2, listener.loader.getSkippedChunkCount());
+        Assert.assertEquals(2, listener.skipped.size());
+        Assert.assertTrue(listener.skipped.contains(0));
+        Assert.assertTrue(listener.skipped.contains(1));
+        Assert.assertFalse("Expected checkpoint to be removed once load completed.", checkpointFile.exists());
+        Assert.assertEquals(4L, conn.size(graph1, graph2, graph3, graph4));
+
+        conn.setChunkedFileLoadListener(null);
+        conn.configureChunkedFileLoad(0, 1, 0);
+        conn.clear(graph1,graph2,graph3,graph4);
+    }
+
+    @Test
+    public void testAddNQuadsStaleCheckpointIgnored() throws Exception{
+        File inputFile = new File("src/test/resources/testdata/nquads1.nq");
+        File checkpointFile = File.createTempFile("nquads1", ".checkpoint");
+        checkpointFile.delete();
+
+        Resource graph1 = conn.getValueFactory().createURI("http://example.org/graph1");
+        Resource graph2 = conn.getValueFactory().createURI("http://example.org/graph2");
+        Resource graph3 = conn.getValueFactory().createURI("http://example.org/graph3");
+        Resource graph4 = conn.getValueFactory().createURI("http://example.org/graph4");
+
+        ChunkListener listener = new ChunkListener();
+        conn.configureChunkedFileLoad(150, 2, 1);
+        conn.setChunkedFileLoadListener(listener);
+        conn.addResumable(inputFile, RDFFormat.NQUADS, checkpointFile);
+        int chunkCount = listener.loader.getChunkCount();
+        conn.clear(graph1,graph2,graph3,graph4);
+
+        long length = inputFile.length();
+        long lastModified = inputFile.lastModified();
+        long[][] staleHeaders = {
+                { length + 1, lastModified, 150 },
+                { length, lastModified + 1000, 150 },
+                { length, lastModified, 300 }
+        };
+        for (long[] header : staleHeaders) {
+            writeCheckpoint(checkpointFile, inputFile, header[0], header[1], header[2], chunkCount, "", 0, 1);
+
+            listener = new ChunkListener();
+            conn.setChunkedFileLoadListener(listener);
+            conn.addResumable(inputFile, RDFFormat.NQUADS, checkpointFile);
+
+            Assert.assertEquals(0, listener.loader.getSkippedChunkCount());
+            Assert.assertTrue(listener.skipped.isEmpty());
+            Assert.assertFalse(checkpointFile.exists());
+            Assert.assertEquals(4L, conn.size(graph1, graph2, graph3, graph4));
+            conn.clear(graph1,graph2,graph3,graph4);
+        }
+
+        // checkpoint of a load into another graph
+        writeCheckpoint(checkpointFile, inputFile, length, lastModified, 150, chunkCount, "<http://example.org/graph1>", 0, 1);
+        listener = new ChunkListener();
+        conn.setChunkedFileLoadListener(listener);
+        conn.addResumable(inputFile, RDFFormat.NQUADS, checkpointFile);
+        Assert.assertEquals(0, listener.loader.getSkippedChunkCount());
+        Assert.assertTrue(listener.skipped.isEmpty());
+        Assert.assertFalse(checkpointFile.exists());
+        Assert.assertEquals(4L, conn.size(graph1, graph2, graph3, graph4));
+        conn.clear(graph1,graph2,graph3,graph4);
+
+        conn.setChunkedFileLoadListener(null);
+        conn.configureChunkedFileLoad(0, 1, 0);
+    }
+
     @Test
     public void testAddNquadWithInputStream() throws Exception {
         File inputFile = new File("src/test/resources/testdata/nquads1.nq");
@@ -923,6 +1105,59 @@ conn.sync();
         assertEquals("Remove Statement (no context) should not remove anything.", 2L, conn.size());
     }
 
+    @Test
+    public void testRemoveStatementsInChunks()
+            throws Exception
+    {
+        ValueFactory f= conn.getValueFactory();
+        Resource context1 = f.createURI("http://marklogic.com/test/context1");
+        Resource context2 = f.createURI("http://marklogic.com/test/context2");
+        URI name = f.createURI("http://example.org/ontology/name");
+
+        Model model = new LinkedHashModel();
+        for (int i = 0; i < 250; i++) {
+            URI person = f.createURI("http://example.org/people/" + i);
+            model.add(person, name, f.createLiteral("person " + i), (i % 2 == 0) ? context1 : context2);
+        }
+        conn.add(model);
+        Assert.assertEquals(250L, conn.size(context1, context2));
+
+        conn.setRemoveChunkSize(40);
+        conn.remove(model.filter(null, null, null, context1), context1);
+        Assert.assertEquals(0L, conn.size(context1));
+        Assert.assertEquals(125L, conn.size(context2));
+
+        conn.remove(model);
+        Assert.assertEquals(0L, conn.size(context1, context2));
+    }
+
+    @Test
+    public void testAddStatementsInChunks()
+            throws Exception
+    {
+        ValueFactory f= conn.getValueFactory();
+        Resource context1 = f.createURI("http://marklogic.com/test/context1");
+        Resource context2 = f.createURI("http://marklogic.com/test/context2");
+        URI name = f.createURI("http://example.org/ontology/name");
+
+        Model model = new LinkedHashModel();
+        for (int i = 0; i < 250; i++) {
+            URI person = f.createURI("http://example.org/people/" + i);
+            model.add(person, name, f.createLiteral("person " + i), (i % 2 == 0) ? context1 : null);
+        }
+        conn.setAddChunkSize(40);
+        conn.setAddThreads(3);
+        conn.add(model);
+        Assert.assertEquals(125L, conn.size(context1));
+        Assert.assertEquals(250L, conn.size(context1, null));
+
+        conn.begin();
+        conn.add(model, context2);
+        conn.commit();
+        Assert.assertEquals(250L, conn.size(context2));
+        conn.clear(context1, context2, null);
+    }
+
     // https://github.com/marklogic/marklogic-sesame/issues/70
     @Test
     public void testAddWithNullContext() throws Exception {
@@ -1062,6 +1297,131 @@ conn.sync();
         conn.clear(null,context5);
     }
 
+    @Test
+    public void testStatementMethodsWithThreeContexts() throws Exception{
+        ValueFactory f= conn.getValueFactory();
+        Resource context5 = f.createURI("http://marklogic.com/test/context5");
+        Resource context6 = f.createURI("http://marklogic.com/test/context6");
+        Resource context7 = f.createURI("http://marklogic.com/test/context7");
+
+        URI alice = f.createURI("http://example.org/people/alice");
+        URI name = f.createURI("http://example.org/ontology/name");
+        Literal alicesName = f.createLiteral("Alice", "en");
+
+        conn.add(alice, RDF.TYPE, f.createURI("http://example.org/ontology/Person"), context5);
+        conn.add(alice, name, alicesName, context6, null);
+
+        // three contexts are padded to four bound context variables
+        Assert.assertEquals(3L, conn.size(context5, context6, null));
+        Assert.assertEquals(3L, Iterations.asList(conn.getStatements(null, null, null, false, context5, context6, null)).size());
+        Assert.assertTrue(conn.hasStatement(alice, name, alicesName, false, context5, context6, context7));
+        Assert.assertFalse(conn.hasStatement(alice, name, f.createLiteral("Alice", "fr"), false, context5, context6, context7));
+
+        Model exported = new LinkedHashModel();
+        conn.exportStatements(alice, name, alicesName, false, new StatementCollector(exported), context5, context6, context7);
+        Assert.assertEquals(1, exported.size());
+
+        conn.clear(context5, context6, null);
+    }
+
+    @Test
+    public void testHasStatements() throws Exception{
+        ValueFactory f= conn.getValueFactory();
+        Resource context5 = f.createURI("http://marklogic.com/test/context5");
+        Resource context6 = f.createURI("http://marklogic.com/test/context6");
+
+        URI alice = f.createURI("http://example.org/people/alice");
+        URI bob = f.createURI("http://example.org/people/bob");
+        URI name = f.createURI("http://example.org/ontology/name");
+
+        conn.add(alice, name, f.createLiteral("Alice", "en"), context5);
+        conn.add(bob, name, f.createLiteral("Bob"), context6);
+
+        List<Statement> candidates = new ArrayList<Statement>();
+        candidates.add(f.createStatement(alice, name, f.createLiteral("Alice", "en")));
+        candidates.add(f.createStatement(alice, name, f.createLiteral("Alice", "fr")));
+        candidates.add(f.createStatement(bob, name, f.createLiteral("Bob")));
+        candidates.add(f.createStatement(bob, RDF.TYPE, f.createURI("http://example.org/ontology/Person")));
+
+        BitSet found = conn.hasStatements(candidates, false, context5, context6);
+        Assert.assertEquals("{0, 2}", found.toString());
+        for (int i = 0; i < candidates.size(); i++) {
+            Assert.assertEquals(conn.hasStatement(candidates.get(i), false, context5, context6), found.get(i));
+        }
+        Assert.assertEquals("{0}", conn.hasStatements(candidates, false, context5).toString());
+        Assert.assertTrue(conn.hasStatements(new ArrayList<Statement>(), false).isEmpty());
+
+        conn.clear(context5, context6);
+    }
+
+    @Test
+    public void testHasStatementsWithBlankNode() throws Exception{
+        ValueFactory f= conn.getValueFactory();
+        Resource context5 = f.createURI("http://marklogic.com/test/context5");
+
+        URI alice = f.createURI("http://example.org/people/alice");
+        URI knows = f.createURI("http://example.org/ontology/knows");
+        URI name = f.createURI("http://example.org/ontology/name");
+        BNode someone = f.createBNode();
+
+        conn.add(alice, name, f.createLiteral("Alice"), context5);
+
+        // blank node candidates are checked on their own, the rest are still batched
+        List<Statement> candidates = new ArrayList<Statement>();
+        candidates.add(f.createStatement(someone, name, f.createLiteral("Alice")));
+        candidates.add(f.createStatement(alice, name, f.createLiteral("Alice")));
+        candidates.add(f.createStatement(alice, knows, someone));
+        candidates.add(f.createStatement(alice, knows, alice));
+
+        BitSet found = conn.hasStatements(candidates, false, context5);
+        for (int i = 0; i < candidates.size(); i++) {
+            Assert.assertEquals(conn.hasStatement(candidates.get(i), false, context5), found.get(i));
+        }
+        Assert.assertTrue(found.get(1));
+        Assert.assertFalse(found.get(3));
+
+        conn.clear(context5);
+    }
+
+    @Test
+    public void testGetSubjectStatements() throws Exception{
+        ValueFactory f= conn.getValueFactory();
+        Resource context5 = f.createURI("http://marklogic.com/test/context5");
+
+        URI alice = f.createURI("http://example.org/people/alice");
+        URI bob = f.createURI("http://example.org/people/bob");
+        URI carol = f.createURI("http://example.org/people/carol");
+        URI name = f.createURI("http://example.org/ontology/name");
+
+        conn.add(alice, name, f.createLiteral("Alice"), context5);
+        conn.add(alice, RDF.TYPE, f.createURI("http://example.org/ontology/Person"), context5);
+        conn.add(bob, name, f.createLiteral("Bob"), context5);
+        conn.add(carol, name, f.createLiteral("Carol"), context5);
+
+        List<Resource> subjects = new ArrayList<Resource>();
+        subjects.add(carol);
+        subjects.add(alice);
+        subjects.add(f.createURI("http://example.org/people/nobody"));
+        subjects.add(alice);
+
+        // one subject per request, statements come back grouped in subject order
+        conn.setSubjectChunkSize(1);
+        List<Statement> statements = Iterations.asList(conn.getSubjectStatements(subjects, null, null, false, context5));
+        Assert.assertEquals(3, statements.size());
+        Assert.assertEquals(carol, statements.get(0).getSubject());
+        Assert.assertEquals(alice, statements.get(1).getSubject());
+        Assert.assertEquals(alice, statements.get(2).getSubject());
+        Assert.assertEquals(context5, statements.get(2).getContext());
+
+        conn.setSubjectChunkSize(100);
+        statements = Iterations.asList(conn.getSubjectStatements(subjects, name, null, false, context5));
+        Assert.assertEquals(2, statements.size());
+        Assert.assertEquals(f.createLiteral("Carol"), statements.get(0).getObject());
+        Assert.assertEquals(f.createLiteral("Alice"), statements.get(1).getObject());
+
+        conn.clear(context5);
+    }
+
     @Test
     public void testCompareSizeAWithNullContext() throws Exception {
         Resource context5 = conn.getValueFactory().createURI("http://marklogic.com/test/context5");
@@ -1273,4 +1633,44 @@ conn.sync();
         Assert.assertFalse(conn.isEmpty());
         conn.remove(st);
     }
+
+    /**
+     * records loader and chunks reported as skipped
+     */
+    private static class ChunkListener implements ChunkedFileLoader.Listener {
+        private volatile ChunkedFileLoader loader;
+        private final List<Integer> skipped = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public void chunkChanged(ChunkedFileLoader loader, ChunkedFileLoader.Chunk chunk) {
+            this.loader = loader;
+            if (chunk.getStatus() == ChunkedFileLoader.Status.SKIPPED) {
+                skipped.add(chunk.getIndex());
+            }
+        }
+    }
+
+    private static byte[] readChunk(File file, ChunkedFileLoader.Chunk chunk) throws IOException {
+        byte[] bytes = new byte[(int) chunk.getLength()];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek(chunk.getOffset());
+            in.readFully(bytes);
+        }
+        return bytes;
+    }
+
+    private static void writeCheckpoint(File checkpointFile, File file, long length, long lastModified, long chunkBytes, int chunks, String contexts, int... committed) throws IOException {
+        StringBuilder sb = new StringBuilder("# marklogic-sesame chunked file load checkpoint\n");
+        sb.append("file=").append(file.getAbsolutePath()).append('\n');
+        sb.append("length=").append(length).append('\n');
+        sb.append("lastModified=").append(lastModified).append('\n');
+        sb.append("format=").append(RDFFormat.NQUADS.getName()).append('\n');
+        sb.append("chunkBytes=").append(chunkBytes).append('\n');
+        sb.append("chunks=").append(chunks).append('\n');
+        sb.append("contexts=").append(contexts).append('\n');
+        for (int index : committed) {
+            sb.append("chunk=").append(index).append('\n');
+        }
+        Files.write(checkpointFile.toPath(), sb.toString().getBytes(Charset.forName("UTF-8")));
+    }
 }
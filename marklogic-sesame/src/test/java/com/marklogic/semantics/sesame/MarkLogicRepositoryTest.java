@@ -22,6 +22,9 @@ package com.marklogic.semantics.sesame;
 import com.marklogic.client.DatabaseClient;
 import com.marklogic.client.DatabaseClientFactory;
 
+import com.marklogic.semantics.sesame.client.MarkLogicClient;
+import com.marklogic.semantics.sesame.client.MarkLogicClientPool;
+import com.marklogic.semantics.sesame.client.ResultParsingExecutor;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -29,9 +32,11 @@ import org.junit.rules.ExpectedException;
 import org.openrdf.model.impl.ValueFactoryImpl;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.UpdateExecutionException;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
+import org.openrdf.rio.RDFFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -129,4 +134,152 @@ public class MarkLogicRepositoryTest extends SesameTestBase {
         writerRep.shutDown();
         readerRep.shutDown();
     }
+
+    @Test
+    public void testConnectionsShareClientPool()
+            throws Exception {
+        MarkLogicRepository rep = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rep.initialize();
+        MarkLogicRepositoryConnection conn1 = rep.getConnection();
+        MarkLogicRepositoryConnection conn2 = rep.getConnection();
+        Assert.assertEquals(1, rep.getClientPool().getSize());
+        Assert.assertEquals(2, rep.getClientPool().getActiveCount());
+        conn1.close();
+        conn2.close();
+        Assert.assertEquals(0, rep.getClientPool().getActiveCount());
+        Assert.assertEquals(1, rep.getClientPool().getCreateCount());
+
+        rep.setClientPoolMaxSize(2);
+        conn1 = rep.getConnection();
+        conn2 = rep.getConnection();
+        MarkLogicRepositoryConnection conn3 = rep.getConnection();
+        Assert.assertEquals(2, rep.getClientPool().getSize());
+        Assert.assertEquals(3, rep.getClientPool().getActiveCount());
+        conn1.close();
+        conn2.close();
+        conn3.close();
+        rep.shutDown();
+        Assert.assertEquals(0, rep.getClientPool().getSize());
+    }
+
+    @Test
+    public void testClientPoolCloseKeepsBorrowedClients()
+            throws Exception {
+        MarkLogicClientPool pool = new MarkLogicClientPool("localhost", 8200, "admin", "admin", "DIGEST");
+        pool.setMaxSize(2);
+        DatabaseClient borrowed = pool.borrowClient();
+        DatabaseClient idle = pool.borrowClient();
+        pool.returnClient(idle);
+        pool.close();
+        Assert.assertEquals(0, pool.getSize());
+        Assert.assertEquals(1, pool.getClosingCount());
+        Assert.assertEquals(1, pool.getActiveCount());
+        Assert.assertNotNull(borrowed.newGraphManager().listGraphUris());
+        DatabaseClient fresh = pool.borrowClient();
+        Assert.assertNotSame(borrowed, fresh);
+        pool.returnClient(borrowed);
+        Assert.assertEquals(0, pool.getClosingCount());
+        Assert.assertEquals(1, pool.getActiveCount());
+        pool.returnClient(fresh);
+        pool.close();
+        Assert.assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void testConnectionsShareFlushScheduler()
+            throws Exception {
+        MarkLogicRepository rep = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rep.initialize();
+        MarkLogicRepositoryConnection conn1 = rep.getConnection();
+        MarkLogicRepositoryConnection conn2 = rep.getConnection();
+        Assert.assertEquals(2, rep.getFlushScheduler().getTrackedCacheCount());
+        Assert.assertEquals(0, rep.getFlushScheduler().getDirtyCacheCount());
+        conn1.configureWriteCache(0, 200, 100);
+        Assert.assertEquals(2, rep.getFlushScheduler().getTrackedCacheCount());
+        conn1.close();
+        conn2.close();
+        Assert.assertEquals(0, rep.getFlushScheduler().getTrackedCacheCount());
+        rep.shutDown();
+    }
+
+    @Test
+    public void testFlushLaneThreads()
+            throws Exception {
+        MarkLogicRepository rep = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rep.initialize();
+        rep.setFlushLaneThreads(2);
+        Assert.assertEquals(2, rep.getFlushScheduler().getLaneThreads());
+        for (int laneThreads : new int[] { 0, -1 }) {
+            try {
+                rep.setFlushLaneThreads(laneThreads);
+                Assert.fail("laneThreads must be positive");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals(2, rep.getFlushScheduler().getLaneThreads());
+            }
+        }
+        rep.shutDown();
+    }
+
+    @Test
+    public void testConnectionsShareParsingExecutor()
+            throws Exception {
+        MarkLogicRepository rep = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rep.initialize();
+        rep.configureParsingExecutor(4, ResultParsingExecutor.SaturationPolicy.REJECT);
+        MarkLogicClient client1 = rep.getMarkLogicClient();
+        MarkLogicClient client2 = rep.getMarkLogicClient();
+        Assert.assertSame(rep.getParsingExecutor(), client1.getParsingExecutor());
+        Assert.assertSame(client1.getParsingExecutor(), client2.getParsingExecutor());
+        Assert.assertEquals(4, rep.getParsingExecutor().getMaxThreads());
+        Assert.assertEquals(ResultParsingExecutor.SaturationPolicy.REJECT, rep.getParsingExecutor().getPolicy());
+        client1.close();
+        client2.close();
+        rep.shutDown();
+    }
+
+    @Test
+    public void testReconfiguredParsingExecutorShutsDownPrevious()
+            throws Exception {
+        MarkLogicRepository rep = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rep.initialize();
+        rep.configureParsingExecutor(2, ResultParsingExecutor.SaturationPolicy.REJECT);
+        ResultParsingExecutor previous = rep.getParsingExecutor();
+        rep.configureParsingExecutor(4, ResultParsingExecutor.SaturationPolicy.REJECT);
+        Assert.assertNotSame(previous, rep.getParsingExecutor());
+        Assert.assertFalse(previous.tryExecute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }));
+        Assert.assertEquals(1, previous.getCallerRunsCount());
+        try {
+            rep.configureParsingExecutor(0, ResultParsingExecutor.SaturationPolicy.REJECT);
+            Assert.fail("maxThreads must be positive");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(4, rep.getParsingExecutor().getMaxThreads());
+        }
+        rep.shutDown();
+    }
+
+    @Test
+    public void testRepositoryResultFormats()
+            throws Exception {
+        MarkLogicRepository rep = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rep.initialize();
+        Assert.assertEquals(TupleQueryResultFormat.JSON, rep.getTupleResultFormat());
+        Assert.assertEquals(RDFFormat.NTRIPLES, rep.getGraphResultFormat());
+        rep.setTupleResultFormat(TupleQueryResultFormat.TSV);
+        rep.setGraphResultFormat(RDFFormat.TURTLE);
+        MarkLogicClient client = rep.getMarkLogicClient();
+        Assert.assertEquals(TupleQueryResultFormat.TSV, client.getTupleResultFormat());
+        Assert.assertEquals(RDFFormat.TURTLE, client.getGraphResultFormat());
+        try {
+            rep.setTupleResultFormat(TupleQueryResultFormat.BINARY);
+            Assert.fail("binary results are not supported");
+        } catch (MarkLogicSesameException e) {
+            Assert.assertEquals(TupleQueryResultFormat.TSV, rep.getTupleResultFormat());
+        }
+        client.close();
+        rep.shutDown();
+    }
 }
@@ -19,6 +19,11 @@
  */
 package com.marklogic.semantics.sesame;
 
+import com.marklogic.semantics.sesame.client.AdaptiveWriteCacheController;
+import com.marklogic.semantics.sesame.client.NQuadsWriteCacheBuffer;
+import com.marklogic.semantics.sesame.client.WriteCacheBuffer;
+import com.marklogic.semantics.sesame.client.WriteCacheFlushScheduler;
+import com.marklogic.semantics.sesame.client.WriteCacheTimerTask;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -28,13 +33,20 @@ import org.openrdf.IsolationLevels;
 import org.openrdf.model.*;
 import org.openrdf.model.impl.StatementImpl;
 import org.openrdf.model.impl.URIImpl;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.Rio;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * tests write cache
@@ -162,4 +174,165 @@ public class MarkLogicRepositoryWriteCacheTest extends SesameTestBase {
         conn.commit();
         assertEquals(100000L, conn.size());
     }
+
+    @Test
+    public void testAddWhileFlushingWithHighWaterMark()
+            throws Exception {
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        conn.configureWriteCache(0, 500, 200, 400);
+        URI alice = f.createURI("http://example.org/people/alice");
+        URI name = f.createURI("http://example.org/ontology/name");
+        for (int i = 0; i < 5000; i++) {
+            conn.add(alice, name, f.createLiteral("Alice" + i), context1);
+        }
+        conn.sync();
+        assertEquals(5000L, conn.size(context1));
+        conn.clear();
+    }
+
+    @Test
+    public void testAdaptiveWriteCacheWithByteThreshold()
+            throws Exception {
+        Resource context1 = conn.getValueFactory().createURI("http://marklogic.com/test/context1");
+        conn.configureWriteCacheBytes(64 * 1024);
+        conn.configureAdaptiveWriteCache(new AdaptiveWriteCacheController(500, 0, 100, 5000, 50, 1000));
+        URI alice = f.createURI("http://example.org/people/alice");
+        URI name = f.createURI("http://example.org/ontology/name");
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            large.append("Alice");
+        }
+        for (int i = 0; i < 2000; i++) {
+            conn.add(alice, name, f.createLiteral(large.toString() + i), context1);
+        }
+        conn.sync();
+        assertEquals(2000L, conn.size(context1));
+        WriteCacheTimerTask writeCache = conn.getWriteCache();
+        assertEquals(0L, writeCache.getPendingCount());
+        assertTrue(writeCache.getCacheSize() >= 100 && writeCache.getCacheSize() <= 5000);
+        assertTrue(writeCache.getController().getAverageLatencyMillis() > 0);
+        conn.clear();
+    }
+
+    @Test
+    public void testPartitionedWriteCacheFlush()
+            throws Exception {
+        URI name = f.createURI("http://example.org/ontology/name");
+        Resource[] contexts = new Resource[6];
+        for (int c = 0; c < contexts.length; c++) {
+            contexts[c] = f.createURI("http://marklogic.com/test/partition" + c);
+        }
+        conn.configureWriteCache(0, 500, 1000);
+        conn.configureWriteCacheParallelism(4);
+        assertEquals(4, conn.getWriteCache().getParallelism());
+
+        // one lane thread, so partitions also run on the flushing thread
+        rep.setFlushLaneThreads(1);
+        for (WriteCacheBuffer.Type bufferType : WriteCacheBuffer.Type.values()) {
+            conn.configureWriteCacheBuffer(bufferType);
+            for (int i = 0; i < 3000; i++) {
+                Resource context = contexts[i % contexts.length];
+                conn.add(f.createURI("http://example.org/people/p" + i), name, f.createLiteral("Person" + i), context);
+            }
+            conn.add(f.createURI("http://example.org/people/nobody"), name, f.createLiteral("Nobody"));
+            conn.sync();
+            for (Resource context : contexts) {
+                assertEquals(bufferType + " " + context, 500L, conn.size(context));
+            }
+            assertEquals(3001L, conn.size());
+            assertEquals(0L, conn.getWriteCache().getPendingCount());
+            conn.clear();
+            rep.setFlushLaneThreads(WriteCacheFlushScheduler.DEFAULT_LANE_THREADS);
+
+            // a failed flush clears the partitions that were written before putting the batch back
+            WriteCacheBuffer batch = bufferType.newBuffer(4);
+            for (Resource context : contexts) {
+                batch.add(f.createURI("http://example.org/people/p"), name, f.createLiteral("Person"), context);
+            }
+            int failedPartition = 0;
+            while (batch.size(failedPartition) == 0) {
+                failedPartition++;
+            }
+            int failedCount = batch.size(failedPartition);
+            for (int partition = 0; partition < batch.getPartitionCount(); partition++) {
+                if (partition != failedPartition) {
+                    batch.clear(partition);
+                }
+            }
+            WriteCacheBuffer active = bufferType.newBuffer(4);
+            active.addAll(batch);
+            assertEquals(failedCount, active.size());
+            assertEquals(failedCount, active.size(failedPartition));
+        }
+    }
+
+    @Test
+    public void testNQuadsWriteCacheBuffer()
+            throws Exception {
+        Resource context1 = f.createURI("http://marklogic.com/test/context1");
+        Resource context2 = f.createURI("http://marklogic.com/test/context2");
+        conn.configureWriteCacheBuffer(WriteCacheBuffer.Type.NQUADS);
+        assertEquals(WriteCacheBuffer.Type.NQUADS, conn.getWriteCache().getBufferType());
+
+        URI alice = f.createURI("http://example.org/people/alice");
+        URI name = f.createURI("http://example.org/ontology/name");
+        URI age = f.createURI("http://example.org/ontology/age");
+        List<Statement> statements = new ArrayList<Statement>();
+        statements.add(f.createStatement(alice, name, f.createLiteral("Alice \"Al\"\nSmith"), context1));
+        statements.add(f.createStatement(alice, name, f.createLiteral("Alicia", "es"), context2));
+        statements.add(f.createStatement(alice, name, f.createLiteral("\u00c5lice \u6f22\u5b57"), context1));
+        statements.add(f.createStatement(alice, age, f.createLiteral(42), context2));
+        for (Statement st : statements) {
+            conn.add(st);
+        }
+        conn.add(alice, age, f.createLiteral(43));
+        conn.sync();
+        assertEquals(2L, conn.size(context1));
+        assertEquals(2L, conn.size(context2));
+        for (Statement st : statements) {
+            assertTrue(st.toString(), conn.hasStatement(st, false, st.getContext()));
+        }
+        assertTrue(conn.hasStatement(alice, age, f.createLiteral(43), false, (Resource) null));
+
+        // second round spans several chunks, taken from the pool the first flush returned them to
+        for (int i = 0; i < 5000; i++) {
+            conn.add(f.createURI("http://example.org/people/p" + i), name, f.createLiteral("Person number " + i + " of the second round"), context1);
+        }
+        conn.sync();
+        assertEquals(5002L, conn.size(context1));
+        assertTrue(conn.hasStatement(f.createURI("http://example.org/people/p4999"), name, f.createLiteral("Person number 4999 of the second round"), false, context1));
+        assertEquals(0L, conn.getWriteCache().getPendingCount());
+        conn.clear();
+    }
+
+    @Test
+    public void testNQuadsWriteCacheBufferPutBack()
+            throws Exception {
+        Resource context1 = f.createURI("http://marklogic.com/test/context1");
+        URI alice = f.createURI("http://example.org/people/alice");
+        URI name = f.createURI("http://example.org/ontology/name");
+
+        // a failed flush appends the taken buffer back onto the pending one
+        NQuadsWriteCacheBuffer failed = new NQuadsWriteCacheBuffer(2);
+        NQuadsWriteCacheBuffer pending = new NQuadsWriteCacheBuffer(2);
+        for (int i = 0; i < 3000; i++) {
+            failed.add(alice, name, f.createLiteral("Alice" + i), context1);
+        }
+        pending.add(alice, name, f.createLiteral("Alicia"));
+        pending.addAll(failed);
+        failed.clear();
+        assertEquals(3001, pending.size());
+
+        // chunks returned to the pool by clear are reused without touching the pending copy
+        for (int i = 0; i < 3000; i++) {
+            failed.add(alice, name, f.createLiteral("Overwritten" + i), context1);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pending.writeTo(out);
+        Model model = Rio.parse(new ByteArrayInputStream(out.toByteArray()), "", RDFFormat.NQUADS);
+        assertEquals(3001, model.size());
+        assertTrue(model.contains(alice, name, f.createLiteral("Alice2999"), context1));
+        assertTrue(model.contains(alice, name, f.createLiteral("Alicia"), (Resource) null));
+    }
 }
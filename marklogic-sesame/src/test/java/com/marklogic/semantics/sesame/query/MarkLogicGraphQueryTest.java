@@ -23,10 +23,12 @@ import com.marklogic.semantics.sesame.SesameTestBase;
 import org.junit.*;
 import org.junit.rules.ExpectedException;
 import org.openrdf.model.*;
+import org.openrdf.model.util.ModelUtil;
 import org.openrdf.query.GraphQuery;
 import org.openrdf.query.GraphQueryResult;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.QueryResults;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFWriter;
@@ -232,4 +234,19 @@ public class MarkLogicGraphQueryTest extends SesameTestBase {
         result.close();
     }
 
+    @Test
+    public void testGraphQueryResultFormats()
+            throws Exception {
+        String queryString = "PREFIX nn: <http://semanticbible.org/ns/2006/NTNames#>\n" +
+                "construct { ?s ?p ?o } WHERE { graph <http://example.org/test/g27> { ?s ?p ?o . ?s nn:childOf nn:Eve . } }";
+        MarkLogicGraphQuery graphQuery = conn.prepareGraphQuery(QueryLanguage.SPARQL, queryString);
+        Model expected = QueryResults.asModel(graphQuery.evaluate());
+        Assert.assertFalse(expected.isEmpty());
+
+        for (RDFFormat format : new RDFFormat[] { RDFFormat.TURTLE, RDFFormat.RDFXML, RDFFormat.RDFJSON }) {
+            graphQuery.setResultFormat(format);
+            Model actual = QueryResults.asModel(graphQuery.evaluate());
+            Assert.assertTrue(format.getName(), ModelUtil.equals(expected, actual));
+        }
+    }
 }
@@ -17,10 +17,13 @@ package com.marklogic.semantics.sesame.query;
 
 import info.aduna.iteration.ConvertingIteration;
 import info.aduna.iteration.ExceptionConvertingIteration;
+import info.aduna.iteration.Iterations;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -28,10 +31,12 @@ import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openrdf.http.client.BackgroundTupleResult;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.Query;
@@ -41,6 +46,9 @@ import org.openrdf.query.QueryResultHandlerException;
 import org.openrdf.query.TupleQuery;
 import org.openrdf.query.TupleQueryResult;
 import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.query.impl.MapBindingSet;
+import org.openrdf.query.resultio.TupleQueryResultFormat;
+import org.openrdf.query.resultio.helpers.QueryResultCollector;
 import org.openrdf.query.resultio.sparqlxml.SPARQLResultsXMLWriter;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
@@ -51,8 +59,12 @@ import com.marklogic.client.io.FileHandle;
 import com.marklogic.client.semantics.GraphManager;
 import com.marklogic.client.semantics.RDFMimeTypes;
 import com.marklogic.client.semantics.SPARQLRuleset;
+import com.marklogic.semantics.sesame.MarkLogicRepository;
 import com.marklogic.semantics.sesame.MarkLogicRepositoryConnection;
 import com.marklogic.semantics.sesame.SesameTestBase;
+import com.marklogic.semantics.sesame.client.MarkLogicBatchResult;
+import com.marklogic.semantics.sesame.client.QueryBindings;
+import com.marklogic.semantics.sesame.client.ResultParsingExecutor;
 import com.sun.jersey.client.apache4.ApacheHttpClient4;
 
 /**
@@ -64,6 +76,9 @@ public class MarkLogicTupleQueryTest extends SesameTestBase {
 
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    // ordered so paged, pulled and batched results can be compared row for row with a plain evaluate
+    private static final String ORDERED_QUERY = "select ?s ?p ?o { ?s ?p ?o } order by ?s ?p ?o limit 25";
+
     protected MarkLogicRepositoryConnection conn;
     protected ValueFactory f;
 
@@ -122,6 +137,28 @@ public class MarkLogicTupleQueryTest extends SesameTestBase {
 
     }
 
+    @Test
+    public void testPrepareQueryCachesQueryForm()
+            throws Exception {
+        QueryFormCache cache = rep.getQueryFormCache();
+        String tupleQuery = "PREFIX foaf: <http://xmlns.com/foaf/0.1/> select ?s { ?s foaf:name ?o }";
+        String booleanQuery = "# comment\nask { ?s ?p ?o }";
+
+        Assert.assertTrue(conn.prepareQuery(QueryLanguage.SPARQL, tupleQuery) instanceof TupleQuery);
+        Assert.assertTrue(conn.prepareQuery(QueryLanguage.SPARQL, tupleQuery) instanceof TupleQuery);
+        Assert.assertTrue(conn.prepareQuery(QueryLanguage.SPARQL, booleanQuery) instanceof MarkLogicBooleanQuery);
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(QueryFormCache.Form.TUPLE, cache.get(tupleQuery));
+        Assert.assertEquals(QueryFormCache.Form.BOOLEAN, cache.get(booleanQuery));
+
+        rep.setQueryFormCacheSize(1);
+        Assert.assertEquals(1, cache.getSize());
+        rep.setQueryFormCacheSize(0);
+        Assert.assertTrue(conn.prepareQuery(QueryLanguage.SPARQL, booleanQuery) instanceof MarkLogicBooleanQuery);
+        Assert.assertEquals(0, cache.getSize());
+    }
+
     @Test
     public void testSPARQLQuery()
             throws Exception {
@@ -290,6 +327,163 @@ public class MarkLogicTupleQueryTest extends SesameTestBase {
         }
     }
 
+    @Test
+    public void testSPARQLQueryPagedCursor()
+            throws Exception {
+        MarkLogicTupleQuery tupleQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, ORDERED_QUERY);
+        List<BindingSet> expected = Iterations.asList(tupleQuery.evaluate());
+
+        tupleQuery.setCursorPageLength(4);
+        TupleQueryResult paged = tupleQuery.evaluate();
+        Assert.assertEquals("s", paged.getBindingNames().get(0));
+        Assert.assertEquals(expected, Iterations.asList(paged));
+
+        TupleQueryResult closedEarly = tupleQuery.evaluatePaged(4);
+        Assert.assertTrue(closedEarly.hasNext());
+        closedEarly.next();
+        closedEarly.close();
+        Assert.assertFalse(closedEarly.hasNext());
+    }
+
+    @Test
+    public void testSPARQLQueryPagedWithConcurrentQueries()
+            throws Exception {
+        MarkLogicTupleQuery tupleQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, ORDERED_QUERY);
+        List<BindingSet> expected = Iterations.asList(tupleQuery.evaluate());
+
+        // unpaged queries run while pages are prefetched see neither the page length nor a missing one
+        TupleQueryResult paged = tupleQuery.evaluatePaged(4);
+        List<BindingSet> actual = new ArrayList<BindingSet>();
+        while (paged.hasNext()) {
+            actual.add(paged.next());
+            Assert.assertEquals(expected.size(), Iterations.asList(tupleQuery.evaluate()).size());
+        }
+        paged.close();
+        Assert.assertEquals(expected, actual);
+
+        conn.begin();
+        try {
+            Assert.assertEquals(expected, Iterations.asList(tupleQuery.evaluatePaged(4)));
+        } finally {
+            conn.rollback();
+        }
+    }
+
+    @Test
+    public void testSPARQLQueryParallelExport()
+            throws Exception {
+        MarkLogicTupleQuery tupleQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, ORDERED_QUERY);
+        List<BindingSet> expected = Iterations.asList(tupleQuery.evaluate());
+
+        QueryResultCollector collector = new QueryResultCollector();
+        long count = tupleQuery.export(collector, 4, 3);
+        Assert.assertEquals(expected.size(), count);
+        Assert.assertEquals("s", collector.getBindingNames().get(0));
+        Assert.assertEquals(expected, collector.getBindingSets());
+    }
+
+    @Test
+    public void testSPARQLQueryParallelExportSaturated()
+            throws Exception {
+        List<BindingSet> expected = Iterations.asList(conn.prepareTupleQuery(QueryLanguage.SPARQL, ORDERED_QUERY).evaluate());
+
+        // pages parse on the thread fetching them, so a rejecting executor only moves pages to the caller
+        MarkLogicRepository rejecting = new MarkLogicRepository("localhost", 8200, "admin", "admin", "DIGEST");
+        rejecting.configureParsingExecutor(1, ResultParsingExecutor.SaturationPolicy.REJECT);
+        rejecting.initialize();
+        MarkLogicRepositoryConnection rejectingConn = rejecting.getConnection();
+        try {
+            QueryResultCollector collector = new QueryResultCollector();
+            long count = rejectingConn.prepareTupleQuery(QueryLanguage.SPARQL, ORDERED_QUERY).export(collector, 4, 4);
+            Assert.assertEquals(expected.size(), count);
+            Assert.assertEquals(expected, collector.getBindingSets());
+        } finally {
+            rejectingConn.close();
+            rejecting.shutDown();
+        }
+    }
+
+    @Test
+    public void testSPARQLQueryPullParsing()
+            throws Exception {
+        MarkLogicTupleQuery tupleQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, ORDERED_QUERY);
+        List<BindingSet> expected = Iterations.asList(tupleQuery.evaluate());
+
+        conn.configurePullParsing(true);
+        try {
+            TupleQueryResult pulled = tupleQuery.evaluate();
+            Assert.assertEquals(Arrays.asList("s", "p", "o"), pulled.getBindingNames());
+            Assert.assertEquals(expected, Iterations.asList(pulled));
+
+            TupleQueryResult closedEarly = tupleQuery.evaluate();
+            Assert.assertTrue(closedEarly.hasNext());
+            closedEarly.close();
+            Assert.assertFalse(closedEarly.hasNext());
+        } finally {
+            conn.configurePullParsing(false);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSPARQLQueryBatchedHandoff()
+            throws Exception {
+        MarkLogicTupleQuery tupleQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, ORDERED_QUERY);
+        List<BindingSet> expected = Iterations.asList(tupleQuery.evaluate());
+
+        conn.configureResultHandoff(20, 4);
+        try {
+            TupleQueryResult batched = tupleQuery.evaluate();
+            Assert.assertEquals("s", batched.getBindingNames().get(0));
+            List<BindingSet> actual = new ArrayList<BindingSet>();
+            actual.add(batched.next());
+            List<BindingSet> batch;
+            while (!(batch = ((MarkLogicBatchResult<BindingSet>) batched).nextBatch(10)).isEmpty()) {
+                Assert.assertTrue(batch.size() <= 10);
+                actual.addAll(batch);
+            }
+            Assert.assertFalse(batched.hasNext());
+            batched.close();
+            Assert.assertEquals(expected, actual);
+        } finally {
+            conn.configureResultHandoff(0, 0);
+        }
+    }
+
+    @Test
+    public void testSPARQLQueryResultFormats()
+            throws Exception {
+        MarkLogicTupleQuery tupleQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, ORDERED_QUERY);
+        List<BindingSet> expected = Iterations.asList(tupleQuery.evaluate());
+
+        for (TupleQueryResultFormat format : new TupleQueryResultFormat[] { TupleQueryResultFormat.SPARQL, TupleQueryResultFormat.TSV }) {
+            tupleQuery.setResultFormat(format);
+            Assert.assertEquals(format.getName(), expected, Iterations.asList(tupleQuery.evaluate()));
+        }
+
+        tupleQuery.setResultFormat(TupleQueryResultFormat.CSV);
+        TupleQueryResult csv = tupleQuery.evaluate();
+        Assert.assertEquals(expected.size(), Iterations.asList(csv).size());
+    }
+
+    @Test
+    public void testSPARQLQueryPullParsingNonJSONFormat()
+            throws Exception {
+        MarkLogicTupleQuery tupleQuery = conn.prepareTupleQuery(QueryLanguage.SPARQL, ORDERED_QUERY);
+        List<BindingSet> expected = Iterations.asList(tupleQuery.evaluate());
+
+        conn.configurePullParsing(true);
+        try {
+            tupleQuery.setResultFormat(TupleQueryResultFormat.TSV);
+            TupleQueryResult results = tupleQuery.evaluate();
+            Assert.assertTrue(results instanceof BackgroundTupleResult);
+            Assert.assertEquals(Arrays.asList("s", "p", "o"), results.getBindingNames());
+            Assert.assertEquals(expected, Iterations.asList(results));
+        } finally {
+            conn.configurePullParsing(false);
+        }
+    }
+
     //https://bugtrack.marklogic.com/41543
     @Test
     public void testSPARQLQueryCloseWait()
@@ -447,6 +641,103 @@ public class MarkLogicTupleQueryTest extends SesameTestBase {
         results.close();
     }
 
+    @Test
+    public void testSPARQLQueryTypedBindings()
+            throws Exception {
+
+        String queryString = "select ?s { ?s <http://www.w3.org/2000/01/rdf-schema#label> ?label ; <http://semanticbible.org/ns/2006/NTNames#parentOf> ?child }";
+        MarkLogicTupleQuery tupleQuery = (MarkLogicTupleQuery) conn.prepareTupleQuery(QueryLanguage.SPARQL, queryString);
+
+        tupleQuery.setBinding("label", f.createLiteral("Jotham", "en"));
+        tupleQuery.setBinding("child", f.createURI("http://semanticbible.org/ns/2006/NTNames#Ahaz"));
+
+        // bindings are sent as request parameters, query text is unchanged
+        Assert.assertEquals(queryString, tupleQuery.getQueryString());
+
+        TupleQueryResult results = tupleQuery.evaluate();
+        Assert.assertTrue(results.hasNext());
+        Assert.assertEquals("http://semanticbible.org/ns/2006/NTNames#Jotham", results.next().getValue("s").stringValue());
+        Assert.assertFalse(results.hasNext());
+        results.close();
+
+        tupleQuery.setBinding("label", f.createLiteral("Jotham", "fr"));
+        results = tupleQuery.evaluate();
+        Assert.assertFalse(results.hasNext());
+        results.close();
+    }
+
+    @Test
+    public void testSPARQLQueryTypedLiteralBindings()
+            throws Exception {
+
+        String filterQueryString = "select ?s { ?s <http://semanticbible.org/ns/2006/NTNames#parentOf> ?o . filter (?n > 0 && ?d = ?date) }";
+        MarkLogicTupleQuery tupleQuery = (MarkLogicTupleQuery) conn.prepareTupleQuery(QueryLanguage.SPARQL, filterQueryString);
+
+        tupleQuery.setBinding("n", f.createLiteral(5));
+        tupleQuery.setBinding("d", f.createLiteral("2016-01-01T00:00:00Z", XMLSchema.DATETIME));
+        tupleQuery.setBinding("date", f.createLiteral("2016-01-01T00:00:00Z", XMLSchema.DATETIME));
+
+        // xsd typed literals are sent as request parameters, query text is unchanged
+        Assert.assertTrue(QueryBindings.isBindable(f.createLiteral("5", XMLSchema.INTEGER)));
+        Assert.assertTrue(QueryBindings.isBindable(f.createLiteral("http://example.org", XMLSchema.ANYURI)));
+        Assert.assertEquals(filterQueryString, tupleQuery.getQueryString());
+
+        TupleQueryResult results = tupleQuery.evaluate();
+        Assert.assertTrue(results.hasNext());
+        results.close();
+
+        // datatypes outside xsd are still substituted
+        tupleQuery.setBinding("n", f.createLiteral("5", f.createURI("http://example.org/type")));
+        Assert.assertNotEquals(filterQueryString, tupleQuery.getQueryString());
+    }
+
+    @Test
+    public void testSPARQLQueryBatchedBindingSets()
+            throws Exception {
+        String queryString = "select ?o { ?s <http://semanticbible.org/ns/2006/NTNames#parentOf> ?o }";
+        MarkLogicTupleQuery tupleQuery = (MarkLogicTupleQuery) conn.prepareTupleQuery(QueryLanguage.SPARQL, queryString);
+
+        List<BindingSet> bindingSets = new ArrayList<BindingSet>();
+        for (String name : new String[] { "Jotham", "CainanSonOfArphaxad", "NoSuchPerson" }) {
+            MapBindingSet bindingSet = new MapBindingSet();
+            bindingSet.addBinding("s", f.createURI("http://semanticbible.org/ns/2006/NTNames#" + name));
+            bindingSets.add(bindingSet);
+        }
+
+        List<List<BindingSet>> solutions = tupleQuery.evaluate(bindingSets, 2);
+        Assert.assertEquals(3, solutions.size());
+        Assert.assertEquals(1, solutions.get(0).size());
+        Assert.assertEquals("http://semanticbible.org/ns/2006/NTNames#Ahaz", solutions.get(0).get(0).getValue("o").stringValue());
+        Assert.assertFalse(solutions.get(0).get(0).hasBinding(BindingSetBatch.ROW_VARIABLE));
+        Assert.assertFalse(solutions.get(1).isEmpty());
+        Assert.assertTrue(solutions.get(2).isEmpty());
+
+        MarkLogicBooleanQuery booleanQuery = (MarkLogicBooleanQuery) conn.prepareBooleanQuery(QueryLanguage.SPARQL, "ask { ?s <http://semanticbible.org/ns/2006/NTNames#parentOf> ?o }");
+        boolean[] results = booleanQuery.evaluate(bindingSets);
+        Assert.assertTrue(results[0]);
+        Assert.assertTrue(results[1]);
+        Assert.assertFalse(results[2]);
+    }
+
+
+    @Test
+    public void testBatchableQueryDetection() {
+        Assert.assertTrue(BindingSetBatch.isBatchable("select ?o { ?s <http://example.org/count> ?o }"));
+        Assert.assertTrue(BindingSetBatch.isBatchable("select ?s { ?s ?p \"limit 10\" }"));
+        Assert.assertTrue(BindingSetBatch.isBatchable("select ?s { ?s ?p ?o # group by ?s\n }"));
+        Assert.assertTrue(BindingSetBatch.isBatchable("select ?count { ?s ?p ?count }"));
+        Assert.assertTrue(BindingSetBatch.isBatchable("select ?min $max { ?s ?min $max . ?s ex:sum ?o }"));
+        Assert.assertFalse(BindingSetBatch.isBatchable("select ?s { ?s ?p ?o } limit 10"));
+        Assert.assertFalse(BindingSetBatch.isBatchable("select (count(?o) as ?c) { ?s <http://example.org/p> ?o }"));
+        Assert.assertFalse(BindingSetBatch.isBatchable("select (max(?count) as ?m) { ?s <http://example.org/p> ?count }"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSPARQLQueryBatchedBindingSetsChunkSize()
+            throws Exception {
+        MarkLogicTupleQuery tupleQuery = (MarkLogicTupleQuery) conn.prepareTupleQuery(QueryLanguage.SPARQL, "select ?o { ?s ?p ?o }");
+        tupleQuery.evaluate(new ArrayList<BindingSet>(), 0);
+    }
 
     @Test
     public void testSPARQLWithWriter()